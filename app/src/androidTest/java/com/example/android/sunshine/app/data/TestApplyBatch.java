@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.CountingContentObserver;
+
+import java.util.ArrayList;
+
+/*
+    Checks that a batch of operations is applied all or nothing, and that its observers hear
+    about it once.
+ */
+public class TestApplyBatch extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int DAYS = 14;
+
+    private ContentResolver mResolver;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        deleteAllRecords();
+        mLocationRowId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testResults() throws Exception {
+        ArrayList<ContentProviderOperation> ops = createInserts();
+        ops.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+
+        ContentProviderResult[] results = mResolver.applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, ops);
+        assertEquals(ops.size(), results.length);
+        for (int i = 0; i < DAYS; i++) {
+            assertNotNull("Insert " + i + " returned no uri", results[i].uri);
+            assertTrue(ContentUris.parseId(results[i].uri) > 0);
+        }
+        assertEquals("The delete should have removed the first day",
+                1, results[DAYS].count.intValue());
+        assertEquals(DAYS - 1, countWeather());
+    }
+
+    public void testBatchIsAtomic() throws Exception {
+        ArrayList<ContentProviderOperation> ops = createInserts();
+        // short_desc is NOT NULL
+        ContentValues bad = TestUtilities.createWeatherValues(mLocationRowId);
+        bad.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        bad.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + DAYS * DAY_IN_MILLIS);
+        ops.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(bad).build());
+
+        CountingContentObserver observer = CountingContentObserver.create();
+        mResolver.registerContentObserver(WeatherEntry.CONTENT_URI, true, observer);
+        try {
+            mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, ops);
+            fail("A batch with a bad row should fail");
+        } catch (SQLException e) {
+            // expected
+        } catch (OperationApplicationException e) {
+            // expected
+        }
+        assertEquals("A failed batch should leave no rows behind", 0, countWeather());
+        observer.assertCount(0);
+        mResolver.unregisterContentObserver(observer);
+    }
+
+    public void testOneNotificationPerBatch() throws Exception {
+        ArrayList<ContentProviderOperation> ops = createInserts();
+        ops.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+
+        CountingContentObserver observer = CountingContentObserver.create();
+        mResolver.registerContentObserver(WeatherEntry.CONTENT_URI, true, observer);
+        mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, ops);
+        observer.assertCount(1);
+        mResolver.unregisterContentObserver(observer);
+    }
+
+    private ArrayList<ContentProviderOperation> createInserts() {
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues value = TestUtilities.createWeatherValues(mLocationRowId);
+            value.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            ops.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(value).build());
+        }
+        return ops;
+    }
+
+    private int countWeather() {
+        Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+import java.util.HashMap;
+
+/*
+    Checks that past days move from the weather table into the archive, with the right daily,
+    weekly and monthly rollups, and that the trend URI reads them back.
+ */
+public class TestArchive extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private ContentResolver mResolver;
+    private long mLocationRowId;
+    // Monday, December 1st 2014
+    private long mFirstDay;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        deleteAllRecords();
+        mLocationRowId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2014, Calendar.DECEMBER, 1);
+        mFirstDay = WeatherContract.normalizeDate(calendar.getTimeInMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testPastDaysAreRolledUp() {
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, createDays(0, 14));
+
+        Bundle result = archive(day(9));
+        assertEquals(10, result.getInt(WeatherContract.EXTRA_ARCHIVED_DAYS));
+        assertFalse(result.getBoolean(WeatherContract.EXTRA_ARCHIVE_PENDING));
+        assertEquals("Error: The days after the last archived one should stay",
+                4, count(WeatherEntry.CONTENT_URI, null));
+        assertEquals(10, countPeriod(ArchiveEntry.PERIOD_DAY));
+
+        // Highs are 20 + i and lows 10 - i on day i
+        assertPeriod(ArchiveEntry.PERIOD_WEEK, day(0), 7, 26, 4, 23, 7);
+        assertPeriod(ArchiveEntry.PERIOD_WEEK, day(7), 3, 29, 1, 28, 2);
+        assertPeriod(ArchiveEntry.PERIOD_MONTH, day(0), 10, 29, 1, 24.5, 5.5);
+    }
+
+    public void testDayIsOnlyCountedOnce() {
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, createDays(0, 1));
+        archive(day(0));
+        // The same day comes back, e.g. from a late sync
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, createDays(0, 1));
+        Bundle result = archive(day(0));
+
+        assertEquals(1, result.getInt(WeatherContract.EXTRA_ARCHIVED_DAYS));
+        assertEquals(0, count(WeatherEntry.CONTENT_URI, null));
+        assertPeriod(ArchiveEntry.PERIOD_WEEK, day(0), 1, 20, 10, 20, 10);
+    }
+
+    public void testTrend() {
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, createDays(0, 14));
+        archive(day(9));
+
+        // The daily highs from the 5th day on, oldest first
+        Cursor cursor = mResolver.query(ArchiveEntry.buildArchiveLocation(
+                        TestUtilities.TEST_LOCATION, ArchiveEntry.PERIOD_DAY, day(4)),
+                new String[]{ArchiveEntry.COLUMN_START_DATE, ArchiveEntry.COLUMN_MAX_TEMP},
+                null, null, null);
+        try {
+            assertEquals(6, cursor.getCount());
+            for (int i = 4; cursor.moveToNext(); i++) {
+                assertEquals(day(i), cursor.getLong(0));
+                assertEquals(20.0 + i, cursor.getDouble(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testChunksAreBounded() {
+        int days = WeatherArchiver.CHUNK_DAYS + 36;
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, createDays(0, days));
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        try {
+            WeatherArchiver archiver = new WeatherArchiver(dbHelper.getWritableDatabase());
+            HashMap<Long, long[]> dates = new HashMap<Long, long[]>();
+            assertEquals(WeatherArchiver.CHUNK_DAYS, archiver.archiveChunk(day(days), dates));
+            assertEquals(36, archiver.archiveChunk(day(days), dates));
+            assertEquals(0, archiver.archiveChunk(day(days), dates));
+            // Both chunks were of the one location, from the first day to the last
+            assertEquals(day(0), dates.get(mLocationRowId)[0]);
+            assertEquals(day(days - 1), dates.get(mLocationRowId)[1]);
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    public void testOldDaysAreTrimmed() {
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, createDays(0, 14));
+        archive(day(13));
+
+        // A year and more later, the days are gone but their weeks and months are kept
+        archive(day(13) + WeatherArchiver.DAY_RETENTION_MILLIS + DAY_IN_MILLIS);
+        assertEquals(0, countPeriod(ArchiveEntry.PERIOD_DAY));
+        assertEquals(2, countPeriod(ArchiveEntry.PERIOD_WEEK));
+        assertEquals(1, countPeriod(ArchiveEntry.PERIOD_MONTH));
+    }
+
+    private long day(int i) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(mFirstDay);
+        calendar.add(Calendar.DAY_OF_MONTH, i);
+        return WeatherContract.normalizeDate(calendar.getTimeInMillis());
+    }
+
+    private ContentValues[] createDays(int firstDay, int days) {
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            ContentValues value = TestUtilities.createWeatherValues(mLocationRowId);
+            value.put(WeatherEntry.COLUMN_DATE, day(firstDay + i));
+            value.put(WeatherEntry.COLUMN_MAX_TEMP, 20 + firstDay + i);
+            value.put(WeatherEntry.COLUMN_MIN_TEMP, 10 - firstDay - i);
+            values[i] = value;
+        }
+        return values;
+    }
+
+    private Bundle archive(long archiveUpTo) {
+        return mResolver.call(WeatherContract.BASE_CONTENT_URI, WeatherContract.METHOD_ARCHIVE,
+                Long.toString(archiveUpTo), null);
+    }
+
+    private void assertPeriod(int period, long startDate, int days, double max, double min,
+                              double meanMax, double meanMin) {
+        Cursor cursor = mResolver.query(ArchiveEntry.CONTENT_URI, null,
+                ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " + ArchiveEntry.COLUMN_PERIOD
+                        + " = ? AND " + ArchiveEntry.COLUMN_START_DATE + " = ?",
+                new String[]{Long.toString(mLocationRowId), Integer.toString(period),
+                        Long.toString(startDate)}, null);
+        try {
+            assertTrue("Error: No period " + period + " starting " + startDate,
+                    cursor.moveToFirst());
+            assertEquals(days, cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_DAYS)));
+            assertEquals(max, cursor.getDouble(cursor.getColumnIndex(ArchiveEntry.COLUMN_MAX_TEMP)));
+            assertEquals(min, cursor.getDouble(cursor.getColumnIndex(ArchiveEntry.COLUMN_MIN_TEMP)));
+            assertEquals(meanMax, cursor.getDouble(
+                    cursor.getColumnIndex(ArchiveEntry.COLUMN_MEAN_MAX_TEMP)), 1e-9);
+            assertEquals(meanMin, cursor.getDouble(
+                    cursor.getColumnIndex(ArchiveEntry.COLUMN_MEAN_MIN_TEMP)), 1e-9);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countPeriod(int period) {
+        return count(ArchiveEntry.CONTENT_URI,
+                ArchiveEntry.COLUMN_PERIOD + " = " + period);
+    }
+
+    private int count(Uri uri, String selection) {
+        Cursor cursor = mResolver.query(uri, null, selection, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(ArchiveEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
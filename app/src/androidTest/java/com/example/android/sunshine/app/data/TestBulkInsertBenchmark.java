@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+
+/*
+    Compares the compiled statement behind WeatherProvider.bulkInsert against the path it
+    replaced, one db.insert and one Time per row, for a sync sized batch and two larger ones.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testCompiledInsertStoresNormalizedRows() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = createRows(locationRowId, 14);
+        // Off midnight, so the dates have to be normalized
+        for (ContentValues value : values) {
+            value.put(WeatherEntry.COLUMN_DATE, value.getAsLong(WeatherEntry.COLUMN_DATE) + 5000);
+        }
+
+        int inserted = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        assertEquals(14, inserted);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals(14, cursor.getCount());
+            int i = 0;
+            while (cursor.moveToNext()) {
+                ContentValues expected = new ContentValues(values[i++]);
+                expected.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                        expected.getAsLong(WeatherEntry.COLUMN_DATE)));
+                TestUtilities.validateCurrentRecord("Error: Row " + i + " doesn't match",
+                        cursor, expected);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testCompiledInsertSkipsIncompleteRows() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = createRows(locationRowId, 3);
+        values[1].remove(WeatherEntry.COLUMN_SHORT_DESC);
+
+        assertEquals(2, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+    }
+
+    public void testBenchmark14Rows() {
+        benchmark(14, 20);
+    }
+
+    public void testBenchmark1kRows() {
+        benchmark(1000, 3);
+    }
+
+    public void testBenchmark100kRows() {
+        benchmark(100000, 1);
+    }
+
+    private void benchmark(int rows, int iterations) {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = createRows(locationRowId, rows);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        long legacyNanos = 0;
+        long compiledNanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            deleteWeather();
+            long start = System.nanoTime();
+            assertEquals(rows, legacyBulkInsert(db, values));
+            legacyNanos += System.nanoTime() - start;
+
+            deleteWeather();
+            start = System.nanoTime();
+            assertEquals(rows, mContext.getContentResolver().bulkInsert(
+                    WeatherEntry.CONTENT_URI, values));
+            compiledNanos += System.nanoTime() - start;
+        }
+        dbHelper.close();
+
+        Log.d(LOG_TAG, String.format(Locale.US,
+                "%d rows: db.insert %.0f rows/s, compiled statement %.0f rows/s",
+                rows, rowsPerSecond(rows * iterations, legacyNanos),
+                rowsPerSecond(rows * iterations, compiledNanos)));
+    }
+
+    // The bulkInsert this replaced
+    private static int legacyBulkInsert(SQLiteDatabase db, ContentValues[] values) {
+        db.beginTransaction();
+        int returnCount = 0;
+        try {
+            for (ContentValues value : values) {
+                Time time = new Time();
+                long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+                time.set(date);
+                value.put(WeatherEntry.COLUMN_DATE,
+                        time.setJulianDay(Time.getJulianDay(date, time.gmtoff)));
+                if (db.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    private static ContentValues[] createRows(long locationRowId, int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues value = TestUtilities.createWeatherValues(locationRowId);
+            value.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            value.put(WeatherEntry.COLUMN_MAX_TEMP, 75.0 + i % 10);
+            values[i] = value;
+        }
+        return values;
+    }
+
+    private static double rowsPerSecond(long rows, long nanos) {
+        return rows * 1e9 / Math.max(1, nanos);
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private void deleteAllRecords() {
+        deleteWeather();
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+/*
+    Checks the city suggestions: prefixes of the bundled cities and of the saved locations,
+    saved locations first, and the saved index following the location table.
+ */
+public class TestCitySearch extends AndroidTestCase {
+
+    private ContentResolver mResolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testBuildMatch() {
+        assertEquals("san* fr*", CityIndex.buildMatch("San Fr"));
+        // The query syntax is only a separator
+        assertEquals("san* fr*", CityIndex.buildMatch("\"san\" -fr*"));
+        assertNull(CityIndex.buildMatch(" ,* "));
+    }
+
+    public void testPrefixFindsBundledCity() {
+        Cursor cursor = search("lond", 10);
+        try {
+            assertTrue("Error: London should be suggested for \"lond\"", cursor.moveToFirst());
+            assertEquals("London", cursor.getString(
+                    cursor.getColumnIndexOrThrow(CityEntry.COLUMN_CITY_NAME)));
+            assertEquals("London,GB", cursor.getString(
+                    cursor.getColumnIndexOrThrow(CityEntry.COLUMN_LOCATION_SETTING)));
+            assertEquals(0, cursor.getInt(cursor.getColumnIndexOrThrow(CityEntry.COLUMN_SAVED)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testEveryWordIsAPrefix() {
+        Cursor cursor = search("san fr", 10);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("San Francisco", cursor.getString(
+                    cursor.getColumnIndexOrThrow(CityEntry.COLUMN_CITY_NAME)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testSavedLocationsComeFirst() {
+        insertLocation("London,GB", "London");
+        insertLocation("94043", "Mountain View");
+
+        Cursor cursor = search("lo", 10);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(1, cursor.getInt(cursor.getColumnIndexOrThrow(CityEntry.COLUMN_SAVED)));
+            assertEquals("London,GB", cursor.getString(
+                    cursor.getColumnIndexOrThrow(CityEntry.COLUMN_LOCATION_SETTING)));
+            // The bundled London is the saved one, so it isn't suggested again
+            while (cursor.moveToNext()) {
+                assertFalse("London,GB".equals(cursor.getString(
+                        cursor.getColumnIndexOrThrow(CityEntry.COLUMN_LOCATION_SETTING))));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // A setting is searchable too, e.g. a zip code
+        assertEquals(1, count(search("9404", 10)));
+    }
+
+    public void testSavedIndexFollowsLocations() {
+        long id = insertLocation("99705", "North Pole");
+        Cursor cursor = search("north po", 10);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("99705", cursor.getString(
+                    cursor.getColumnIndexOrThrow(CityEntry.COLUMN_LOCATION_SETTING)));
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Santa Claus House");
+        mResolver.update(LocationEntry.CONTENT_URI, renamed, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(id)});
+        assertEquals(1, count(search("santa cl", 10)));
+
+        mResolver.delete(LocationEntry.CONTENT_URI, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(id)});
+        assertEquals(0, count(search("santa cl", 10)));
+    }
+
+    public void testLimit() {
+        assertEquals(3, count(search("s", 3)));
+        // Nothing to match, nothing suggested
+        assertEquals(0, count(search("-", 3)));
+    }
+
+    private Cursor search(String prefix, int limit) {
+        return mResolver.query(CityEntry.buildCitySearch(prefix, limit), null, null, null, null);
+    }
+
+    private static int count(Cursor cursor) {
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long insertLocation(String setting, String cityName) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, setting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+        values.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        values.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+        return ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private void deleteAllRecords() {
+        mResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
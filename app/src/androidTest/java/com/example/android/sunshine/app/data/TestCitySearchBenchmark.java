@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/*
+    Times building the city index from a list of 200k made up cities, about the size of a
+    world list of every town of some thousand people, and the suggestion queries typing a
+    name into it makes: one per keystroke of the first four letters.
+ */
+public class TestCitySearchBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestCitySearchBenchmark.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "city_benchmark.db";
+
+    private static final int CITIES = 200000;
+    private static final int NAMES_TYPED = 250;
+    private static final int TARGET_MILLIS = 5;
+
+    private static final String[] SYLLABLES = {
+            "san", "ta", "ber", "lin", "mo", "ko", "ri", "vo", "new", "port", "ham", "burg",
+            "ville", "ca", "sa", "na", "do", "ra", "mi", "ton", "ley", "stad", "grad", "pur",
+            "a", "el", "ma", "go", "ci", "ty", "ka", "shi", "ro", "hal", "wes", "tes"
+    };
+
+    private SQLiteDatabase mDb;
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, DATABASE_NAME);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testBenchmark200kCities() throws Exception {
+        Random random = new Random(42);
+        String[] names = new String[CITIES];
+        StringBuilder list = new StringBuilder(CITIES * 24);
+        for (int i = 0; i < CITIES; i++) {
+            names[i] = createName(random);
+            list.append(names[i]).append('\t').append(names[i]).append(",XX\n");
+        }
+
+        long start = System.nanoTime();
+        int loaded = CityIndex.load(mDb, new BufferedReader(new StringReader(list.toString())));
+        long buildMillis = (System.nanoTime() - start) / 1000000;
+        assertEquals(CITIES, loaded);
+        Log.d(LOG_TAG, String.format(Locale.US, "Indexed %d cities in %dms, %.0f cities/s",
+                CITIES, buildMillis, CITIES * 1000.0 / Math.max(1, buildMillis)));
+
+        String sql = CityIndex.buildSearchSql(null, CityIndex.DEFAULT_LIMIT);
+        long[] nanos = new long[NAMES_TYPED * 4];
+        int queries = 0;
+        for (int i = 0; i < NAMES_TYPED; i++) {
+            String name = names[random.nextInt(CITIES)];
+            for (int typed = 1; typed <= 4 && typed <= name.length(); typed++) {
+                String match = CityIndex.buildMatch(name.substring(0, typed));
+                start = System.nanoTime();
+                Cursor cursor = mDb.rawQuery(sql, new String[]{match});
+                try {
+                    // The query runs when the cursor fills its window
+                    assertTrue(cursor.getCount() > 0);
+                } finally {
+                    cursor.close();
+                }
+                nanos[queries++] = System.nanoTime() - start;
+            }
+        }
+        nanos = Arrays.copyOf(nanos, queries);
+        Arrays.sort(nanos);
+        double p50 = nanos[queries / 2] / 1e6;
+        double p99 = nanos[queries * 99 / 100] / 1e6;
+        Log.d(LOG_TAG, String.format(Locale.US,
+                "%d prefix queries: p50 %.2fms, p99 %.2fms, max %.2fms (target %dms)",
+                queries, p50, p99, nanos[queries - 1] / 1e6, TARGET_MILLIS));
+    }
+
+    private static String createName(Random random) {
+        StringBuilder name = new StringBuilder();
+        int words = random.nextInt(4) == 0 ? 2 : 1;
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                name.append(' ');
+            }
+            int syllables = 2 + random.nextInt(3);
+            int start = name.length();
+            for (int s = 0; s < syllables; s++) {
+                name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            name.setCharAt(start, Character.toUpperCase(name.charAt(start)));
+        }
+        return name.toString();
+    }
+}
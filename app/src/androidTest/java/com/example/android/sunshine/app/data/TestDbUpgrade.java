@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/*
+    Builds databases as every earlier version of the app left them and opens them with the
+    current WeatherDbHelper. The schemas below are frozen copies of what those versions
+    created, and must never be changed to follow the current one.
+ */
+public class TestDbUpgrade extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbUpgrade.class.getSimpleName();
+
+    private static final String OLD_DATABASE_NAME = "weather-upgrade-test.db";
+    private static final String FRESH_DATABASE_NAME = "weather-fresh-test.db";
+
+    // A generous bound, upgrading happens on the first query after an update
+    private static final long MAX_UPGRADE_MILLIS = 5000;
+
+    private static final String V2_CREATE_LOCATION = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );";
+
+    private static final String V2_CREATE_WEATHER = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    private static final String V3_CREATE_HOURLY = "CREATE TABLE hourly (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+            "timestamp INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+            "temp REAL NOT NULL, humidity REAL NOT NULL, pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (location_id, timestamp) ON CONFLICT REPLACE);";
+
+    private static final String V4_CREATE_INDEX = "CREATE INDEX IF NOT EXISTS " +
+            "weather_location_date ON weather (location_id, date, short_desc, max, min, " +
+            "weather_id);";
+
+    private static final String V5_CREATE_ARCHIVE = "CREATE TABLE archive (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+            "period INTEGER NOT NULL, start_date INTEGER NOT NULL, days INTEGER NOT NULL, " +
+            "max REAL NOT NULL, min REAL NOT NULL, mean_max REAL NOT NULL, " +
+            "mean_min REAL NOT NULL, weather_id INTEGER, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (location_id, period, start_date) ON CONFLICT ABORT);";
+
+    private static final String V6_CREATE_LOCATION = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL, " +
+            "geohash TEXT );";
+
+    private static final String V6_CREATE_GEOHASH_INDEX = "CREATE INDEX IF NOT EXISTS " +
+            "location_geohash ON location (geohash);";
+
+    // Version 1 kept the date as text
+    private static final String V1_CREATE_WEATHER = V2_CREATE_WEATHER.replace(
+            "date INTEGER NOT NULL", "date TEXT NOT NULL");
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(OLD_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(OLD_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testUpgradeFromVersion1Rebuilds() {
+        SQLiteDatabase db = createOldDatabase(1, V2_CREATE_LOCATION, V1_CREATE_WEATHER);
+        db.execSQL("INSERT INTO weather (location_id, date, short_desc, weather_id, min, max, " +
+                "humidity, pressure, wind, degrees) VALUES (1, '20141220', 'Snow', 600, " +
+                "0, 1, 2, 3, 4, 5)");
+        db.close();
+
+        SQLiteDatabase upgraded = openUpgraded();
+        assertSchemaIsCurrent(upgraded);
+        assertEquals("Error: Text dates can't be carried over", 0, count(upgraded, "weather"));
+        upgraded.close();
+    }
+
+    public void testUpgradeFromVersion2KeepsForecasts() {
+        SQLiteDatabase db = createOldDatabase(2, V2_CREATE_LOCATION, V2_CREATE_WEATHER);
+        ContentValues weather = insertForecast(db);
+        db.close();
+
+        SQLiteDatabase upgraded = openUpgraded();
+        assertSchemaIsCurrent(upgraded);
+        assertForecastKept(upgraded, weather);
+        assertEquals(0, count(upgraded, HourlyEntry.TABLE_NAME));
+        assertEquals("Error: The saved locations should be searchable",
+                count(upgraded, LocationEntry.TABLE_NAME),
+                count(upgraded, WeatherContract.CityEntry.SAVED_TABLE_NAME));
+        upgraded.close();
+    }
+
+    public void testUpgradeFromVersion3KeepsForecasts() {
+        SQLiteDatabase db = createOldDatabase(3, V2_CREATE_LOCATION, V2_CREATE_WEATHER,
+                V3_CREATE_HOURLY);
+        ContentValues weather = insertForecast(db);
+        insertHourly(db, weather.getAsLong(WeatherEntry.COLUMN_LOC_KEY));
+        db.close();
+
+        SQLiteDatabase upgraded = openUpgraded();
+        assertSchemaIsCurrent(upgraded);
+        assertForecastKept(upgraded, weather);
+        assertEquals(1, count(upgraded, HourlyEntry.TABLE_NAME));
+        upgraded.close();
+    }
+
+    public void testUpgradeFromVersion4KeepsForecasts() {
+        SQLiteDatabase db = createOldDatabase(4, V2_CREATE_LOCATION, V2_CREATE_WEATHER,
+                V3_CREATE_HOURLY, V4_CREATE_INDEX);
+        ContentValues weather = insertForecast(db);
+        insertHourly(db, weather.getAsLong(WeatherEntry.COLUMN_LOC_KEY));
+        db.close();
+
+        SQLiteDatabase upgraded = openUpgraded();
+        assertSchemaIsCurrent(upgraded);
+        assertForecastKept(upgraded, weather);
+        assertEquals(1, count(upgraded, HourlyEntry.TABLE_NAME));
+        assertEquals(0, count(upgraded, ArchiveEntry.TABLE_NAME));
+        upgraded.close();
+    }
+
+    public void testUpgradeFromVersion5AddsGeohashes() {
+        SQLiteDatabase db = createOldDatabase(5, V2_CREATE_LOCATION, V2_CREATE_WEATHER,
+                V3_CREATE_HOURLY, V4_CREATE_INDEX, V5_CREATE_ARCHIVE);
+        ContentValues weather = insertForecast(db);
+        db.execSQL("INSERT INTO location (location_setting, city_name, coord_lat, coord_long) " +
+                "VALUES ('2000', 'Sydney', -33.8688, 151.2093)");
+        db.close();
+
+        SQLiteDatabase upgraded = openUpgraded();
+        assertSchemaIsCurrent(upgraded);
+        assertForecastKept(upgraded, weather);
+
+        Cursor c = upgraded.query(LocationEntry.TABLE_NAME, new String[]{
+                LocationEntry.COLUMN_COORD_LAT, LocationEntry.COLUMN_COORD_LONG,
+                LocationEntry.COLUMN_GEOHASH}, null, null, null, null, null);
+        try {
+            assertEquals(2, c.getCount());
+            while (c.moveToNext()) {
+                assertEquals("Error: A location wasn't given its geohash",
+                        GeoHash.encode(c.getDouble(0), c.getDouble(1)), c.getString(2));
+            }
+        } finally {
+            c.close();
+        }
+
+        // Only the location in the cells around the point is a candidate
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        c = queryNear(upgraded, northPole.getAsDouble(LocationEntry.COLUMN_COORD_LAT),
+                northPole.getAsDouble(LocationEntry.COLUMN_COORD_LONG));
+        try {
+            assertEquals("Error: The upgraded location isn't found near itself", 1, c.getCount());
+            c.moveToFirst();
+            assertEquals(TestUtilities.TEST_LOCATION, c.getString(
+                    c.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        } finally {
+            c.close();
+        }
+        upgraded.close();
+    }
+
+    public void testUpgradeFromVersion6MakesLocationsSearchable() {
+        SQLiteDatabase db = createOldDatabase(6, V6_CREATE_LOCATION, V2_CREATE_WEATHER,
+                V3_CREATE_HOURLY, V4_CREATE_INDEX, V5_CREATE_ARCHIVE, V6_CREATE_GEOHASH_INDEX);
+        ContentValues weather = insertForecast(db);
+        db.close();
+
+        SQLiteDatabase upgraded = openUpgraded();
+        assertSchemaIsCurrent(upgraded);
+        assertForecastKept(upgraded, weather);
+
+        // "North Pole" by the first letters of its name, through the city/* query
+        Cursor c = upgraded.rawQuery(WeatherProvider.buildQuerySql(
+                WeatherContract.CityEntry.buildCitySearch("nor", CityIndex.DEFAULT_LIMIT),
+                null, null, null), new String[]{CityIndex.buildMatch("nor")});
+        try {
+            boolean found = false;
+            while (c.moveToNext()) {
+                if (c.getInt(c.getColumnIndex(WeatherContract.CityEntry.COLUMN_SAVED)) == 1) {
+                    assertEquals(TestUtilities.TEST_LOCATION, c.getString(c.getColumnIndex(
+                            WeatherContract.CityEntry.COLUMN_LOCATION_SETTING)));
+                    found = true;
+                }
+            }
+            assertTrue("Error: The saved location isn't found by a prefix", found);
+        } finally {
+            c.close();
+        }
+        upgraded.close();
+    }
+
+    public void testUpgradeOfLargeTableIsQuick() {
+        SQLiteDatabase db = createOldDatabase(2, V2_CREATE_LOCATION, V2_CREATE_WEATHER);
+        int locations = 100;
+        int days = 1000;
+        db.beginTransaction();
+        try {
+            for (int l = 1; l <= locations; l++) {
+                db.execSQL("INSERT INTO location (_id, location_setting, city_name, coord_lat, " +
+                        "coord_long) VALUES (" + l + ", 'loc" + l + "', 'City', 0, 0)");
+                for (int d = 0; d < days; d++) {
+                    db.execSQL("INSERT INTO weather (location_id, date, short_desc, weather_id, " +
+                            "min, max, humidity, pressure, wind, degrees) VALUES (" + l + ", " +
+                            d * 86400000L + ", 'Clear', 800, 10, 20, 50, 1000, 5, 180)");
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+
+        long start = System.nanoTime();
+        SQLiteDatabase upgraded = openUpgraded();
+        long millis = (System.nanoTime() - start) / 1000000;
+        Log.d(LOG_TAG, "Upgraded " + locations * days + " weather rows in " + millis + "ms");
+
+        assertEquals(locations * days, count(upgraded, WeatherEntry.TABLE_NAME));
+        upgraded.close();
+        assertTrue("Error: Upgrading took " + millis + "ms", millis < MAX_UPGRADE_MILLIS);
+    }
+
+    private SQLiteDatabase createOldDatabase(int version, String... createStatements) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(OLD_DATABASE_NAME, 0, null);
+        for (String sql : createStatements) {
+            db.execSQL(sql);
+        }
+        db.setVersion(version);
+        return db;
+    }
+
+    private SQLiteDatabase openUpgraded() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext, OLD_DATABASE_NAME).getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        return db;
+    }
+
+    private ContentValues insertForecast(SQLiteDatabase db) {
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(locationRowId != -1);
+        ContentValues weather = TestUtilities.createWeatherValues(locationRowId);
+        assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, weather) != -1);
+        return weather;
+    }
+
+    // The candidates WeatherProvider reads for a location/near query, run on the upgraded
+    // database instead of the provider's own
+    private static Cursor queryNear(SQLiteDatabase db, double latitude, double longitude) {
+        double radius = 5000;
+        Set<String> prefixes = GeoHash.coveringPrefixes(latitude, longitude, radius);
+        assertNotNull(prefixes);
+        List<String> args = new ArrayList<String>();
+        for (String prefix : prefixes) {
+            args.add(prefix);
+            args.add(prefix + GeoHash.PREFIX_END);
+        }
+        return db.rawQuery(WeatherProvider.buildQuerySql(
+                LocationEntry.buildLocationNear(latitude, longitude, radius), null, null, null),
+                args.toArray(new String[args.size()]));
+    }
+
+    private static void insertHourly(SQLiteDatabase db, long locationRowId) {
+        db.execSQL("INSERT INTO hourly (location_id, timestamp, short_desc, weather_id, temp, " +
+                "humidity, pressure, wind, degrees) VALUES (" + locationRowId +
+                ", 1419033600000, 'Snow', 600, -10, 80, 1000, 3, 90)");
+    }
+
+    private void assertForecastKept(SQLiteDatabase db, ContentValues weather) {
+        TestUtilities.validateCursor("Error: The location was lost in the upgrade",
+                db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null),
+                TestUtilities.createNorthPoleLocationValues());
+        TestUtilities.validateCursor("Error: The forecast was lost in the upgrade",
+                db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null),
+                weather);
+    }
+
+    // The tables, their columns and the indexes must be those of a database created new
+    private void assertSchemaIsCurrent(SQLiteDatabase upgraded) {
+        SQLiteDatabase fresh = new WeatherDbHelper(mContext, FRESH_DATABASE_NAME)
+                .getReadableDatabase();
+        try {
+            assertEquals(describeSchema(fresh), describeSchema(upgraded));
+        } finally {
+            fresh.close();
+        }
+    }
+
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<String>();
+        Cursor c = db.rawQuery("SELECT type, name, tbl_name FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_sequence' AND name NOT LIKE 'android_%' " +
+                "ORDER BY name", null);
+        try {
+            while (c.moveToNext()) {
+                schema.add(c.getString(0) + " " + c.getString(1) + " on " + c.getString(2));
+                if ("table".equals(c.getString(0))) {
+                    Cursor columns = db.rawQuery("PRAGMA table_info(" + c.getString(1) + ")",
+                            null);
+                    try {
+                        while (columns.moveToNext()) {
+                            schema.add("  " + columns.getString(columns.getColumnIndex("name"))
+                                    + " " + columns.getString(columns.getColumnIndex("type"))
+                                    + " notnull=" + columns.getInt(
+                                    columns.getColumnIndex("notnull")));
+                        }
+                    } finally {
+                        columns.close();
+                    }
+                }
+            }
+        } finally {
+            c.close();
+        }
+        return schema;
+    }
+
+    private static int count(SQLiteDatabase db, String table) {
+        Cursor c = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            c.moveToFirst();
+            return c.getInt(0);
+        } finally {
+            c.close();
+        }
+    }
+}
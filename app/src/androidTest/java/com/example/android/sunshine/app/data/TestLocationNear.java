@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.Set;
+
+/*
+    Checks the geohashes kept with the locations and the location/near lookup built on them.
+ */
+public class TestLocationNear extends AndroidTestCase {
+
+    // Fairbanks, about 15 km from the North Pole test location, and Anchorage, about 420 km
+    private static final double FAIRBANKS_LAT = 64.8378;
+    private static final double FAIRBANKS_LON = -147.7164;
+    private static final double ANCHORAGE_LAT = 61.2181;
+    private static final double ANCHORAGE_LON = -149.9003;
+
+    private ContentResolver mResolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        mResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testEncode() {
+        // The example of the geohash description
+        assertEquals("ezs42", GeoHash.encode(42.6, -5.6, 5));
+        assertEquals(GeoHash.PRECISION, GeoHash.encode(0, 0).length());
+    }
+
+    public void testCoveringPrefixes() {
+        Set<String> prefixes = GeoHash.coveringPrefixes(64.7488, -147.353, 5000);
+        assertNotNull(prefixes);
+        String point = GeoHash.encode(64.7488, -147.353);
+        boolean coversPoint = false;
+        for (String prefix : prefixes) {
+            coversPoint |= point.startsWith(prefix);
+        }
+        assertTrue("Error: The cell of the point itself isn't covered", coversPoint);
+
+        // Across the antimeridian the neighbours wrap around
+        assertNotNull(GeoHash.coveringPrefixes(0, 179.99, 5000));
+        // Half the earth is every location
+        assertNull(GeoHash.coveringPrefixes(0, 0, 20000000));
+    }
+
+    public void testGeohashIsKept() {
+        long id = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        assertEquals(GeoHash.encode(64.7488, -147.353), getGeohash(id));
+
+        ContentValues moved = new ContentValues();
+        moved.put(LocationEntry.COLUMN_COORD_LAT, ANCHORAGE_LAT);
+        moved.put(LocationEntry.COLUMN_COORD_LONG, ANCHORAGE_LON);
+        mResolver.update(LocationEntry.CONTENT_URI, moved, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(id)});
+        assertEquals(GeoHash.encode(ANCHORAGE_LAT, ANCHORAGE_LON), getGeohash(id));
+    }
+
+    public void testNearestFirst() {
+        long northPole = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        long fairbanks = insertLocation("fairbanks", FAIRBANKS_LAT, FAIRBANKS_LON);
+        insertLocation("anchorage", ANCHORAGE_LAT, ANCHORAGE_LON);
+
+        Cursor cursor = mResolver.query(LocationEntry.buildLocationNear(
+                FAIRBANKS_LAT + 0.001, FAIRBANKS_LON, 50000), null, null, null, null);
+        try {
+            assertEquals("Error: Only the locations within the radius should be found",
+                    2, cursor.getCount());
+            int idColumn = cursor.getColumnIndexOrThrow(LocationEntry._ID);
+            int distanceColumn = cursor.getColumnIndexOrThrow(LocationEntry.COLUMN_DISTANCE);
+            cursor.moveToFirst();
+            assertEquals(fairbanks, cursor.getLong(idColumn));
+            assertTrue(cursor.getDouble(distanceColumn) < 200);
+            cursor.moveToNext();
+            assertEquals(northPole, cursor.getLong(idColumn));
+        } finally {
+            cursor.close();
+        }
+
+        // Nothing but Anchorage within 5 km of it
+        cursor = mResolver.query(LocationEntry.buildLocationNear(ANCHORAGE_LAT, ANCHORAGE_LON,
+                5000), new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("anchorage", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testDistance() {
+        assertEquals(0, GeoHash.distanceMeters(10, 20, 10, 20), 0.001);
+        // A degree of latitude is about 111 km
+        assertEquals(111195, GeoHash.distanceMeters(0, 0, 1, 0), 10);
+    }
+
+    private long insertLocation(String setting, double latitude, double longitude) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, setting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, setting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, latitude);
+        values.put(LocationEntry.COLUMN_COORD_LONG, longitude);
+        return ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private String getGeohash(long id) {
+        Cursor cursor = mResolver.query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_GEOHASH}, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(id)}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.CountingContentObserver;
+
+/*
+    Checks that weather writes only notify the observers of the locations and days they change.
+    The observers watch descendants, as the cursors of the loaders do.
+ */
+public class TestNotificationScope extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int DAYS = 14;
+    private static final String OTHER_LOCATION = "94043";
+
+    private ContentResolver mResolver;
+    private long mLocationRowId;
+    private long mOtherLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        deleteAllRecords();
+        mLocationRowId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        ContentValues other = TestUtilities.createNorthPoleLocationValues();
+        other.put(LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION);
+        other.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        mOtherLocationRowId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                other));
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, createDays(mLocationRowId));
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, createDays(mOtherLocationRowId));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testSyncOfOtherLocationIsNotHeard() {
+        CountingContentObserver list = observe(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        CountingContentObserver today = observe(WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE));
+        CountingContentObserver otherList = observe(
+                WeatherEntry.buildWeatherLocation(OTHER_LOCATION));
+
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, createDays(mOtherLocationRowId));
+
+        list.assertCount(0);
+        today.assertCount(0);
+        otherList.assertCount(1);
+        unregister(list, today, otherList);
+    }
+
+    public void testWriteOfOneDayIsOnlyHeardByThatDay() {
+        CountingContentObserver list = observe(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        CountingContentObserver today = observe(WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE));
+        CountingContentObserver tomorrow = observe(WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE + DAY_IN_MILLIS));
+
+        ContentValues changed = TestUtilities.createWeatherValues(mLocationRowId);
+        changed.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + DAY_IN_MILLIS);
+        changed.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mResolver.insert(WeatherEntry.CONTENT_URI, changed);
+
+        list.assertCount(1);
+        today.assertCount(0);
+        tomorrow.assertCount(1);
+        unregister(list, today, tomorrow);
+    }
+
+    public void testDeleteIsScopedToItsDays() {
+        CountingContentObserver all = observe(WeatherEntry.CONTENT_URI);
+        CountingContentObserver today = observe(WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE));
+        CountingContentObserver otherToday = observe(WeatherEntry.buildWeatherLocationWithDate(
+                OTHER_LOCATION, TestUtilities.TEST_DATE));
+
+        // The first day of one location
+        mResolver.delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(mLocationRowId),
+                        Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE))});
+
+        all.assertCount(1);
+        today.assertCount(1);
+        otherToday.assertCount(0);
+        unregister(all, today, otherToday);
+    }
+
+    public void testDeleteMatchingNothingIsNotHeard() {
+        CountingContentObserver all = observe(WeatherEntry.CONTENT_URI);
+        mResolver.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{"0"});
+        all.assertCount(0);
+        unregister(all);
+    }
+
+    private CountingContentObserver observe(Uri uri) {
+        CountingContentObserver observer = CountingContentObserver.create();
+        mResolver.registerContentObserver(uri, true, observer);
+        return observer;
+    }
+
+    private void unregister(CountingContentObserver... observers) {
+        for (CountingContentObserver observer : observers) {
+            mResolver.unregisterContentObserver(observer);
+        }
+    }
+
+    private ContentValues[] createDays(long locationRowId) {
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues value = TestUtilities.createWeatherValues(locationRowId);
+            value.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            values[i] = value;
+        }
+        return values;
+    }
+
+    private void deleteAllRecords() {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -27,6 +27,7 @@ import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -56,6 +57,16 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                WeatherContract.ArchiveEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -512,4 +523,65 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    static private final int HOURLY_STEPS_TO_INSERT = 40;
+    static private final long THREE_HOURS_IN_MILLIS = 1000 * 60 * 60 * 3;
+    static ContentValues[] createBulkInsertHourlyValues(long locationRowId) {
+        ContentValues[] returnContentValues = new ContentValues[HOURLY_STEPS_TO_INSERT];
+        for (int i = 0; i < HOURLY_STEPS_TO_INSERT; i++) {
+            ContentValues hourlyValues = new ContentValues();
+            hourlyValues.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+            hourlyValues.put(HourlyEntry.COLUMN_TIMESTAMP,
+                    TestUtilities.TEST_DATE + i * THREE_HOURS_IN_MILLIS);
+            hourlyValues.put(HourlyEntry.COLUMN_WEATHER_ID, 321);
+            hourlyValues.put(HourlyEntry.COLUMN_SHORT_DESC, "Asteroids");
+            hourlyValues.put(HourlyEntry.COLUMN_TEMP, 70 - 0.5 * i);
+            hourlyValues.put(HourlyEntry.COLUMN_HUMIDITY, 1.2 + 0.01 * (float) i);
+            hourlyValues.put(HourlyEntry.COLUMN_PRESSURE, 1.3 - 0.01 * (float) i);
+            hourlyValues.put(HourlyEntry.COLUMN_WIND_SPEED, 5.5);
+            hourlyValues.put(HourlyEntry.COLUMN_DEGREES, 1.1);
+            returnContentValues[i] = hourlyValues;
+        }
+        return returnContentValues;
+    }
+
+    /*
+        The hourly feed is a time series: bulk insert a five day forecast, then read back a
+        one day window of it through the location range URI.
+     */
+    public void testHourlyRangeQuery() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] hourlyValues = createBulkInsertHourlyValues(locationRowId);
+
+        TestUtilities.TestContentObserver hourlyObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(HourlyEntry.CONTENT_URI, true, hourlyObserver);
+        int insertCount = mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, hourlyValues);
+        hourlyObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(hourlyObserver);
+        assertEquals(HOURLY_STEPS_TO_INSERT, insertCount);
+
+        // Inserting the same steps again replaces them rather than adding rows
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, hourlyValues);
+
+        // Steps 8 to 15 fall within the second day
+        long start = TestUtilities.TEST_DATE + 8 * THREE_HOURS_IN_MILLIS;
+        long end = start + 8 * THREE_HOURS_IN_MILLIS;
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithRange(TestUtilities.TEST_LOCATION, start, end),
+                null, null, null, null);
+        assertEquals("Error: The range query returned the wrong number of steps",
+                8, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 8; i < 16; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testHourlyRangeQuery. Error validating step " + i,
+                    cursor, hourlyValues[i]);
+        }
+        cursor.close();
+
+        // Without a range, every step of the location comes back
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION), null, null, null, null);
+        assertEquals(HOURLY_STEPS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
 }
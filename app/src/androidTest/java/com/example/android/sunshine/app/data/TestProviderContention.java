@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Reads the weather/<location> and weather/<location>/<date> URIs from several threads
+    while another thread keeps writing forecasts the way a sync does, and logs how long the
+    reads took.
+ */
+public class TestProviderContention extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestProviderContention.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final int READER_THREADS = 4;
+    private static final int SYNC_ROUNDS = 50;
+    // Each round writes a month of days, about as long a transaction as a sync's
+    private static final int DAYS_PER_ROUND = 30;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testDatabaseIsInWalMode() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor c = db.rawQuery("PRAGMA journal_mode", null);
+        try {
+            assertTrue(c.moveToFirst());
+            assertEquals("wal", c.getString(0).toLowerCase(Locale.US));
+        } finally {
+            c.close();
+        }
+        assertTrue(db.isWriteAheadLoggingEnabled());
+    }
+
+    public void testWriterCheckpointInterval() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        // Within a transaction every statement runs on the writer connection.
+        db.beginTransaction();
+        try {
+            Cursor c = db.rawQuery("PRAGMA wal_autocheckpoint", null);
+            try {
+                assertTrue(c.moveToFirst());
+                assertEquals(WeatherDbHelper.WAL_AUTOCHECKPOINT_PAGES, c.getInt(0));
+            } finally {
+                c.close();
+            }
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void testCheckpoint() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createDays(locationRowId, 0, DAYS_PER_ROUND));
+
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_CHECKPOINT, null, null);
+        assertNotNull(result);
+        assertTrue(result.containsKey(WeatherContract.EXTRA_WAL_FRAMES));
+        // With no one reading, everything in the log makes it into the database
+        assertEquals(result.getInt(WeatherContract.EXTRA_WAL_FRAMES),
+                result.getInt(WeatherContract.EXTRA_CHECKPOINTED_FRAMES));
+    }
+
+    public void testBenchmarkReadsDuringSync() throws Throwable {
+        final long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        final ContentResolver resolver = mContext.getContentResolver();
+        resolver.bulkInsert(WeatherEntry.CONTENT_URI, createDays(locationRowId, 0, DAYS_PER_ROUND));
+
+        final AtomicBoolean syncing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<long[]> readerLatencies = new ArrayList<long[]>();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < READER_THREADS; t++) {
+            final long[] latencies = new long[100000];
+            readerLatencies.add(latencies);
+            final boolean byDate = t % 2 == 1;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        int i = 0;
+                        // The last slot is kept for the count
+                        while (syncing.get() && i < latencies.length - 1) {
+                            Uri uri = byDate
+                                    ? WeatherEntry.buildWeatherLocationWithDate(
+                                            TestUtilities.TEST_LOCATION,
+                                            TestUtilities.TEST_DATE + (i % DAYS_PER_ROUND) * DAY_IN_MILLIS)
+                                    : WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+                            long begin = System.nanoTime();
+                            Cursor cursor = resolver.query(uri, null, null, null, null);
+                            // The query only runs when the cursor is first moved
+                            cursor.moveToFirst();
+                            cursor.close();
+                            latencies[i++] = System.nanoTime() - begin;
+                        }
+                        latencies[latencies.length - 1] = i;
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        // The simulated sync: replace the days, then drop the oldest, like ForecastIngester
+        start.countDown();
+        long syncStart = System.nanoTime();
+        for (int round = 1; round <= SYNC_ROUNDS; round++) {
+            resolver.bulkInsert(WeatherEntry.CONTENT_URI,
+                    createDays(locationRowId, round, DAYS_PER_ROUND));
+            resolver.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(TestUtilities.TEST_DATE + round * DAY_IN_MILLIS)});
+        }
+        long syncMillis = (System.nanoTime() - syncStart) / 1000000;
+        syncing.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        for (int t = 0; t < READER_THREADS; t++) {
+            long[] latencies = readerLatencies.get(t);
+            int count = (int) latencies[latencies.length - 1];
+            assertTrue("Error: Reader " + t + " never got to read", count > 0);
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            Log.d(LOG_TAG, String.format(Locale.US,
+                    "reader %d (%s): %d queries, p50 %.2fms p99 %.2fms max %.2fms",
+                    t, t % 2 == 1 ? "weather/*/#" : "weather/*", count,
+                    sorted[count / 2] / 1e6, sorted[Math.min(count - 1, count * 99 / 100)] / 1e6,
+                    sorted[count - 1] / 1e6));
+        }
+        Log.d(LOG_TAG, SYNC_ROUNDS + " sync rounds took " + syncMillis + "ms");
+    }
+
+    private static ContentValues[] createDays(long locationRowId, int firstDay, int days) {
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            ContentValues value = TestUtilities.createWeatherValues(locationRowId);
+            value.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + (firstDay + i) * DAY_IN_MILLIS);
+            values[i] = value;
+        }
+        return values;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that repeated weather/<location> and weather/<location>/<date> queries are answered
+    from the provider's cache, and that writes drop exactly the results they change.
+ */
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    // The projections the sync fan-out asks for today's forecast with
+    private static final String[][] FAN_OUT_PROJECTIONS = {
+            // notification
+            {WeatherEntry.COLUMN_WEATHER_ID, WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.COLUMN_SHORT_DESC},
+            // watch face
+            {WeatherEntry.COLUMN_WEATHER_ID, WeatherEntry.COLUMN_DATE,
+                    WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_MIN_TEMP},
+            // detail screen
+            {WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID, WeatherEntry.COLUMN_DATE,
+                    WeatherEntry.COLUMN_SHORT_DESC, WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherEntry.COLUMN_PRESSURE, WeatherEntry.COLUMN_WIND_SPEED,
+                    WeatherEntry.COLUMN_DEGREES, WeatherEntry.COLUMN_WEATHER_ID,
+                    LocationEntry.COLUMN_LOCATION_SETTING}
+    };
+
+    private ContentResolver mResolver;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        deleteAllRecords();
+        mLocationRowId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, createDays(0, 14));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testFanOutIsOneRead() {
+        Uri today = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        Bundle before = stats();
+        for (String[] projection : FAN_OUT_PROJECTIONS) {
+            Cursor cursor = mResolver.query(today, projection, null, null, null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals(projection.length, cursor.getColumnCount());
+            if (projection[0].startsWith(WeatherEntry.TABLE_NAME + ".")) {
+                assertEquals("Error: weather._id should come back as _id",
+                        0, cursor.getColumnIndex(WeatherEntry._ID));
+            }
+            assertEquals(321, cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+            cursor.close();
+        }
+        Bundle after = stats();
+        assertEquals(1, delta(before, after, WeatherContract.EXTRA_CACHE_MISSES));
+        assertEquals(FAN_OUT_PROJECTIONS.length - 1,
+                delta(before, after, WeatherContract.EXTRA_CACHE_HITS));
+    }
+
+    public void testCachedResultMatchesDatabase() {
+        Uri list = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+        Cursor first = mResolver.query(list, null, null, null, sortOrder);
+        Cursor second = mResolver.query(list, null, null, null, sortOrder);
+        try {
+            assertEquals(14, second.getCount());
+            assertEquals(first.getColumnCount(), second.getColumnCount());
+            while (first.moveToNext()) {
+                assertTrue(second.moveToNext());
+                for (int i = 0; i < first.getColumnCount(); i++) {
+                    assertEquals(first.getColumnName(i), second.getColumnName(i));
+                    assertEquals(first.getString(i), second.getString(i));
+                }
+            }
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    public void testWriteToOtherDayKeepsResult() {
+        Uri today = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        query(today);
+
+        // Days after the first two weeks don't touch today's result
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, createDays(14, 2));
+        Bundle before = stats();
+        query(today);
+        assertEquals(1, delta(before, stats(), WeatherContract.EXTRA_CACHE_HITS));
+    }
+
+    public void testWriteToSameDayDropsResult() {
+        Uri today = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        query(today);
+
+        ContentValues[] changed = createDays(0, 1);
+        changed[0].put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, changed);
+
+        Bundle before = stats();
+        Cursor cursor = mResolver.query(today,
+                new String[]{WeatherEntry.COLUMN_WEATHER_ID}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: A stale result was served", 800, cursor.getInt(0));
+        cursor.close();
+        assertEquals(1, delta(before, stats(), WeatherContract.EXTRA_CACHE_MISSES));
+    }
+
+    public void testDeleteDropsResultsItCovers() {
+        Uri today = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        Uri lastDay = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE + 13 * DAY_IN_MILLIS);
+        query(today);
+        query(lastDay);
+
+        // Expire the first day, as a sync does
+        mResolver.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE))});
+
+        Bundle before = stats();
+        assertEquals(0, query(today));
+        assertEquals(1, query(lastDay));
+        Bundle after = stats();
+        assertEquals(1, delta(before, after, WeatherContract.EXTRA_CACHE_MISSES));
+        assertEquals(1, delta(before, after, WeatherContract.EXTRA_CACHE_HITS));
+    }
+
+    public void testLocationChangeDropsEverything() {
+        Uri today = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        query(today);
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        mResolver.update(LocationEntry.CONTENT_URI, renamed,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(mLocationRowId)});
+        assertEquals(0, stats().getInt(WeatherContract.EXTRA_CACHE_SIZE));
+    }
+
+    private int query(Uri uri) {
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Bundle stats() {
+        return mResolver.call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_QUERY_CACHE_STATS, null, null);
+    }
+
+    private static long delta(Bundle before, Bundle after, String key) {
+        return after.getLong(key) - before.getLong(key);
+    }
+
+    private ContentValues[] createDays(int firstDay, int days) {
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            ContentValues value = TestUtilities.createWeatherValues(mLocationRowId);
+            value.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + (firstDay + i) * DAY_IN_MILLIS);
+            values[i] = value;
+        }
+        return values;
+    }
+
+    private void deleteAllRecords() {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
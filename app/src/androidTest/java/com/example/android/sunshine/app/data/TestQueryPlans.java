@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs the SQL behind every URI of the provider through EXPLAIN QUERY PLAN, and fails if
+    any of it reads a whole table or index. The plain table URIs are checked with the
+    selections the app actually queries them with; without a selection they are full scans
+    by definition.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+
+    // The projection of the forecast list, see ForecastFragment
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String FORECAST_SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testIndexesExist() {
+        Cursor c = mDb.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE});
+        try {
+            assertTrue("Error: The weather location/date index wasn't created", c.moveToFirst());
+        } finally {
+            c.close();
+        }
+    }
+
+    public void testWeatherWithLocation() {
+        assertUsesIndexes(WeatherEntry.buildWeatherLocation(TEST_LOCATION),
+                FORECAST_COLUMNS, null, FORECAST_SORT_ORDER);
+    }
+
+    public void testWeatherWithLocationAndStartDate() {
+        assertUsesIndexes(WeatherEntry.buildWeatherLocationWithStartDate(
+                TEST_LOCATION, TestUtilities.TEST_DATE), FORECAST_COLUMNS, null,
+                FORECAST_SORT_ORDER);
+    }
+
+    public void testForecastListIsCovered() {
+        // Everything the list reads from the weather table is in the index, so the
+        // weather rows themselves are never visited.
+        List<String> plan = explain(WeatherEntry.buildWeatherLocationWithStartDate(
+                TEST_LOCATION, TestUtilities.TEST_DATE), FORECAST_COLUMNS, null,
+                FORECAST_SORT_ORDER);
+        boolean covered = false;
+        for (String detail : plan) {
+            covered |= detail.contains("COVERING INDEX "
+                    + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        }
+        assertTrue("Error: The forecast list isn't served from the covering index " + plan,
+                covered);
+    }
+
+    public void testWeatherWithLocationAndDate() {
+        assertUsesIndexes(WeatherEntry.buildWeatherLocationWithDate(
+                TEST_LOCATION, TestUtilities.TEST_DATE), null, null, null);
+    }
+
+    public void testWeather() {
+        // As ForecastIngester reads back the stored days of a location
+        assertUsesIndexes(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                null);
+    }
+
+    public void testLocation() {
+        // As the sync adapter looks a location up
+        assertUsesIndexes(LocationEntry.CONTENT_URI, new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", null);
+    }
+
+    public void testLocationNear() {
+        // As the sync adapter looks for a saved location near a picked place
+        assertUsesIndexes(LocationEntry.buildLocationNear(64.7488, -147.353, 5000),
+                null, null, null);
+    }
+
+    public void testHourlyWithLocation() {
+        assertUsesIndexes(HourlyEntry.buildHourlyLocationWithRange(
+                TEST_LOCATION, TestUtilities.TEST_DATE, Long.MAX_VALUE), null, null, null);
+    }
+
+    public void testHourly() {
+        assertUsesIndexes(HourlyEntry.CONTENT_URI, null,
+                HourlyEntry.COLUMN_LOC_KEY + " = ? AND " + HourlyEntry.COLUMN_TIMESTAMP + " >= ?",
+                null);
+    }
+
+    public void testArchiveWithLocation() {
+        // A trend, e.g. the daily highs of the last 90 days
+        assertUsesIndexes(ArchiveEntry.buildArchiveLocation(TEST_LOCATION,
+                ArchiveEntry.PERIOD_DAY, TestUtilities.TEST_DATE), null, null, null);
+    }
+
+    public void testCitySearch() {
+        assertUsesIndexes(WeatherContract.CityEntry.buildCitySearch("san", 10), null, null, null);
+    }
+
+    private void assertUsesIndexes(Uri uri, String[] projection, String selection,
+                                   String sortOrder) {
+        List<String> plan = explain(uri, projection, selection, sortOrder);
+        assertFalse("Error: Empty query plan for " + uri, plan.isEmpty());
+        for (String detail : plan) {
+            // "SCAN TABLE t" or, on newer SQLite, "SCAN t", with or without an index: either
+            // way every row is read. "SEARCH" is a lookup through an index. A full-text
+            // table is always a "SCAN ... VIRTUAL TABLE INDEX n:", where n is 0 when it
+            // doesn't use the full-text index.
+            assertFalse("Error: " + uri + " reads every row: " + plan,
+                    detail.startsWith("SCAN") && !(detail.contains("VIRTUAL TABLE INDEX")
+                            && !detail.contains("VIRTUAL TABLE INDEX 0:")));
+        }
+    }
+
+    private List<String> explain(Uri uri, String[] projection, String selection,
+                                 String sortOrder) {
+        String sql = WeatherProvider.buildQuerySql(uri, projection, selection, sortOrder);
+        // Unbound arguments are NULL, which doesn't change the plan
+        Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        List<String> plan = new ArrayList<String>();
+        try {
+            int detailColumn = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext()) {
+                plan.add(c.getString(detailColumn));
+            }
+        } finally {
+            c.close();
+        }
+        return plan;
+    }
+}
@@ -36,6 +36,21 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/hourly"
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR =
+            WeatherContract.HourlyEntry.buildHourlyLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE + 1);
+    // content://com.example.android.sunshine.app/location/near?lat=..&lon=..&radius=.."
+    private static final Uri TEST_LOCATION_NEAR_DIR =
+            WeatherContract.LocationEntry.buildLocationNear(64.7488, -147.353, 5000);
+    // content://com.example.android.sunshine.app/city/san?limit=10"
+    private static final Uri TEST_CITY_SEARCH_DIR =
+            WeatherContract.CityEntry.buildCitySearch("san", 10);
+    // content://com.example.android.sunshine.app/archive"
+    private static final Uri TEST_ARCHIVE_DIR = WeatherContract.ArchiveEntry.CONTENT_URI;
+    private static final Uri TEST_ARCHIVE_WITH_LOCATION_DIR =
+            WeatherContract.ArchiveEntry.buildArchiveLocation(LOCATION_QUERY,
+                    WeatherContract.ArchiveEntry.PERIOD_WEEK, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +68,17 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION NEAR URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAR_DIR), WeatherProvider.LOCATION_NEAR);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WITH_LOCATION);
+        assertEquals("Error: The ARCHIVE URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_DIR), WeatherProvider.ARCHIVE);
+        assertEquals("Error: The ARCHIVE WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_WITH_LOCATION_DIR), WeatherProvider.ARCHIVE_WITH_LOCATION);
+        assertEquals("Error: The CITY SEARCH URI was matched incorrectly.",
+                testMatcher.match(TEST_CITY_SEARCH_DIR), WeatherProvider.CITY_SEARCH);
     }
 }
@@ -17,6 +17,9 @@ package com.example.android.sunshine.app.data;
 
 import android.net.Uri;
 import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /*
     Students: This is NOT a complete test for the WeatherContract --- just for the functions
@@ -42,4 +45,37 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    // The Time based normalization normalizeDate replaced
+    private static long normalizeWithTime(long date) {
+        Time time = new Time();
+        time.set(date);
+        int julianDay = Time.getJulianDay(date, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    public void testNormalizeDateMatchesTime() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        // Zones either side of UTC, with and without daylight saving
+        String[] zones = {"UTC", "America/Los_Angeles", "Europe/London", "Asia/Kolkata",
+                "Australia/Lord_Howe", "Pacific/Kiritimati"};
+        try {
+            for (String zone : zones) {
+                TimeZone.setDefault(TimeZone.getTimeZone(zone));
+                WeatherContract.resetDayCache();
+                // Every 37 minutes over two years, which crosses every transition in them
+                long start = TEST_WEATHER_DATE * 1000;
+                for (long date = start; date < start + 2 * 366 * DAY_IN_MILLIS;
+                     date += 37 * 60 * 1000) {
+                    assertEquals("Error: Wrong day for " + date + " in " + zone,
+                            normalizeWithTime(date), WeatherContract.normalizeDate(date));
+                }
+            }
+        } finally {
+            TimeZone.setDefault(defaultZone);
+            WeatherContract.resetDayCache();
+        }
+    }
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+public class TestCircuitBreaker extends AndroidTestCase {
+
+    static final int TEST_THRESHOLD = 3;
+    static final long TEST_OPEN_MS = 1000;
+
+    /**
+     * A breaker whose clock only moves when the test says so.
+     */
+    static class ManualClockBreaker extends CircuitBreaker {
+        long mNow;
+
+        ManualClockBreaker() {
+            super(TEST_THRESHOLD, TEST_OPEN_MS);
+        }
+
+        @Override
+        long now() {
+            return mNow;
+        }
+    }
+
+    public void testOpensAfterConsecutiveFailures() {
+        ManualClockBreaker breaker = new ManualClockBreaker();
+        for (int i = 0; i < TEST_THRESHOLD - 1; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.onFailure();
+        }
+        // A success resets the run of failures.
+        breaker.onSuccess();
+        for (int i = 0; i < TEST_THRESHOLD; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getTimesOpened());
+    }
+
+    public void testHalfOpenLetsOneTrialThrough() {
+        ManualClockBreaker breaker = new ManualClockBreaker();
+        for (int i = 0; i < TEST_THRESHOLD; i++) {
+            breaker.onFailure();
+        }
+        breaker.mNow += TEST_OPEN_MS;
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+        assertFalse("Only one trial request at a time", breaker.allowRequest());
+
+        // A failed trial re-opens the breaker straight away.
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(2, breaker.getTimesOpened());
+
+        breaker.mNow += TEST_OPEN_MS;
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    public void testNeutralOutcomeKeepsTheFailureCount() {
+        ManualClockBreaker breaker = new ManualClockBreaker();
+        for (int i = 0; i < TEST_THRESHOLD - 1; i++) {
+            breaker.onFailure();
+        }
+        // e.g. a 404 for one location in between the 5xx of the others
+        assertTrue(breaker.allowRequest());
+        breaker.onNeutral();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+
+        // A neutral trial neither closes the breaker nor keeps it from trying again.
+        breaker.mNow += TEST_OPEN_MS;
+        assertTrue(breaker.allowRequest());
+        breaker.onNeutral();
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+        assertTrue("The trial should have been released", breaker.allowRequest());
+    }
+
+    public void testRetryDelaysAreBounded() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, new Random(42));
+        for (int attempt = 1; attempt <= policy.getMaxAttempts(); attempt++) {
+            long ceiling = Math.min(1000, 100L << (attempt - 1));
+            for (int i = 0; i < 50; i++) {
+                long delay = policy.computeDelay(attempt);
+                assertTrue("Delay " + delay + " for attempt " + attempt,
+                        delay >= 0 && delay < ceiling);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestFanOutTracker extends AndroidTestCase {
+
+    static final String TEST_LOCATION = "99705";
+    static final String TEST_OTHER_LOCATION = "94043";
+    static final long TEST_DATE = 1419033600000L;  // December 20th, 2014
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private FanOutTracker mTracker;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTracker = new FanOutTracker(mContext);
+        mTracker.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mTracker.reset();
+        super.tearDown();
+    }
+
+    public void testUnchangedForecastIsNotSentTwice() {
+        assertTrue("Error: Nothing was sent yet", mTracker.isDue(
+                FanOutTracker.CONSUMER_TODAY, TEST_LOCATION, TEST_DATE, false));
+        mTracker.markSent(FanOutTracker.CONSUMER_TODAY, TEST_LOCATION, TEST_DATE);
+        assertFalse(mTracker.isDue(
+                FanOutTracker.CONSUMER_TODAY, TEST_LOCATION, TEST_DATE, false));
+        assertTrue(mTracker.isDue(
+                FanOutTracker.CONSUMER_TODAY, TEST_LOCATION, TEST_DATE, true));
+    }
+
+    public void testSwitchingLocationIsSent() {
+        mTracker.markSent(FanOutTracker.CONSUMER_WIDGETS, TEST_LOCATION, TEST_DATE);
+        // e.g. a saved location whose forecast came back unchanged
+        assertTrue(mTracker.isDue(
+                FanOutTracker.CONSUMER_WIDGETS, TEST_OTHER_LOCATION, TEST_DATE, false));
+    }
+
+    public void testNewDayIsSent() {
+        mTracker.markSent(FanOutTracker.CONSUMER_TODAY, TEST_LOCATION, TEST_DATE);
+        // Today's row was already stored yesterday, so it didn't change at midnight.
+        assertTrue("Error: The watch face would keep showing yesterday", mTracker.isDue(
+                FanOutTracker.CONSUMER_TODAY, TEST_LOCATION, TEST_DATE + DAY_IN_MILLIS, false));
+        // Consumers are kept apart.
+        mTracker.markSent(FanOutTracker.CONSUMER_WIDGETS, TEST_LOCATION,
+                TEST_DATE + DAY_IN_MILLIS);
+        assertTrue(mTracker.isDue(
+                FanOutTracker.CONSUMER_TODAY, TEST_LOCATION, TEST_DATE + DAY_IN_MILLIS, false));
+    }
+}
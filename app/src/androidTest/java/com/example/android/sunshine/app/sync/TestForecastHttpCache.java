@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Runs the forecast cache against a stub HTTP server on the loopback interface, so that we can
+    see how many bytes a conditional request saves us and how long a round trip takes.
+ */
+public class TestForecastHttpCache extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastHttpCache.class.getSimpleName();
+
+    static final String TEST_KEY = "99705";
+    static final String TEST_ETAG = "\"forecast-v1\"";
+    static final String TEST_BODY = "{\"cod\":\"200\",\"list\":[]}";
+
+    private File mCacheDir;
+    private StubServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCacheDir = new File(mContext.getCacheDir(), "test-forecast");
+        deleteCacheDir();
+        mServer = new StubServer();
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        deleteCacheDir();
+        super.tearDown();
+    }
+
+    private void deleteCacheDir() {
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        mCacheDir.delete();
+    }
+
+    public void testConditionalRequestReturnsNotModified() throws IOException {
+        mServer.mSendEtag = true;
+        ForecastHttpCache cache = new ForecastHttpCache(mCacheDir);
+
+        long start = System.nanoTime();
+        ForecastHttpCache.Response first = cache.fetch(mServer.getUrl(), TEST_KEY);
+        assertEquals(TEST_BODY, readBody(first));
+        long firstNanos = System.nanoTime() - start;
+        assertEquals("Error: First fetch should be a full download",
+                ForecastHttpCache.RESULT_MODIFIED, first.getResult());
+        assertEquals(TEST_BODY.length(), first.getBytesReceived());
+
+        start = System.nanoTime();
+        ForecastHttpCache.Response second = cache.fetch(mServer.getUrl(), TEST_KEY);
+        second.close();
+        long secondNanos = System.nanoTime() - start;
+        assertEquals("Error: The ETag wasn't sent back to the server",
+                TEST_ETAG, mServer.mLastIfNoneMatch);
+        assertEquals(ForecastHttpCache.RESULT_NOT_MODIFIED, second.getResult());
+        assertFalse("Error: A 304 has no body to read", second.hasBody());
+        assertEquals(0, second.getBytesReceived());
+
+        assertEquals(1, cache.getNotModifiedCount());
+        Log.d(LOG_TAG, "Full fetch " + firstNanos / 1000 + "us, conditional fetch "
+                + secondNanos / 1000 + "us");
+    }
+
+    public void testIdenticalBodyIsReportedUnchanged() throws IOException {
+        // Without validators the server always sends the whole body.
+        mServer.mSendEtag = false;
+        ForecastHttpCache cache = new ForecastHttpCache(mCacheDir);
+
+        ForecastHttpCache.Response first = cache.fetch(mServer.getUrl(), TEST_KEY);
+        readBody(first);
+        assertTrue(first.isModified());
+        ForecastHttpCache.Response second = cache.fetch(mServer.getUrl(), TEST_KEY);
+        readBody(second);
+        assertEquals(ForecastHttpCache.RESULT_UNCHANGED_BODY, second.getResult());
+        assertFalse(second.isModified());
+        assertEquals(1, cache.getUnchangedBodyCount());
+
+        // Evicting the entry makes the next fetch look new again.
+        cache.evict(TEST_KEY);
+        ForecastHttpCache.Response third = cache.fetch(mServer.getUrl(), TEST_KEY);
+        readBody(third);
+        assertTrue(third.isModified());
+    }
+
+    public void testUnfinishedResponseKeepsTheEntry() throws IOException {
+        mServer.mSendEtag = true;
+        ForecastHttpCache cache = new ForecastHttpCache(mCacheDir);
+
+        // e.g. the body didn't parse, so what it stands for was never stored
+        ForecastHttpCache.Response abandoned = cache.fetch(mServer.getUrl(), TEST_KEY);
+        abandoned.close();
+
+        ForecastHttpCache.Response next = cache.fetch(mServer.getUrl(), TEST_KEY);
+        assertNull("Error: The validators of an unused body were kept",
+                mServer.mLastIfNoneMatch);
+        assertTrue(next.hasBody());
+        assertEquals(TEST_BODY, readBody(next));
+    }
+
+    public void testGzipBodyIsDecompressedAndCounted() throws IOException {
+        // A forecast-like body, repetitive enough to compress well.
+        StringBuilder body = new StringBuilder("{\"cod\":\"200\",\"list\":[");
+        for (int i = 0; i < 14; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"temp\":{\"min\":11.5,\"max\":19.2},")
+                    .append("\"weather\":[{\"id\":800,\"main\":\"Clear\"}]}");
+        }
+        body.append("]}");
+        mServer.mBody = body.toString();
+        mServer.mGzip = true;
+        ForecastHttpClient client = new ForecastHttpClient();
+        ForecastHttpCache cache = new ForecastHttpCache(mCacheDir, client);
+
+        ForecastHttpCache.Response response = cache.fetch(mServer.getUrl(), TEST_KEY);
+        assertNotNull("Error: gzip wasn't offered", mServer.mLastAcceptEncoding);
+        assertEquals("Error: The body should be decompressed",
+                body.toString(), readBody(response));
+        assertEquals(body.length(), client.getDecompressedBytes());
+        assertEquals(client.getCompressedBytes(), response.getBytesReceived());
+        assertTrue("Error: Compressed " + client.getCompressedBytes() + " bytes, plain "
+                + body.length(), client.getCompressedBytes() < body.length());
+        Log.d(LOG_TAG, "Transport: " + client);
+    }
+
+    /*
+        Reads the body the way the sync does, straight off the connection, and finishes the
+        response.
+     */
+    private static String readBody(ForecastHttpCache.Response response) throws IOException {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(response.getBody()));
+            String body = reader.readLine();
+            response.finish();
+            return body;
+        } finally {
+            response.close();
+        }
+    }
+
+    /*
+        A one-connection-at-a-time HTTP/1.0 server that serves mBody, honouring
+        If-None-Match when it is asked to hand out an ETag and gzipping when asked to and offered.
+     */
+    static class StubServer extends Thread {
+        final ServerSocket mSocket;
+        volatile boolean mSendEtag;
+        volatile boolean mGzip;
+        volatile String mBody = TEST_BODY;
+        volatile String mLastIfNoneMatch;
+        volatile String mLastAcceptEncoding;
+
+        StubServer() throws IOException {
+            mSocket = new ServerSocket(0);
+        }
+
+        URL getUrl() throws IOException {
+            return new URL("http://127.0.0.1:" + mSocket.getLocalPort() + "/data/2.5/forecast/daily");
+        }
+
+        void close() throws IOException {
+            mSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!mSocket.isClosed()) {
+                try {
+                    Socket client = mSocket.accept();
+                    try {
+                        serve(client);
+                    } finally {
+                        client.close();
+                    }
+                } catch (IOException e) {
+                    // the socket was closed by tearDown
+                }
+            }
+        }
+
+        private void serve(Socket client) throws IOException {
+            InputStream in = client.getInputStream();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+            String ifNoneMatch = null;
+            String acceptEncoding = null;
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                if (line.regionMatches(true, 0, "If-None-Match:", 0, 14)) {
+                    ifNoneMatch = line.substring(14).trim();
+                } else if (line.regionMatches(true, 0, "Accept-Encoding:", 0, 16)) {
+                    acceptEncoding = line.substring(16).trim();
+                }
+            }
+            mLastIfNoneMatch = ifNoneMatch;
+            mLastAcceptEncoding = acceptEncoding;
+
+            byte[] body = mBody.getBytes("UTF-8");
+            boolean gzip = mGzip && acceptEncoding != null && acceptEncoding.contains("gzip");
+            if (gzip) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream gzipOut = new GZIPOutputStream(compressed);
+                gzipOut.write(body);
+                gzipOut.close();
+                body = compressed.toByteArray();
+            }
+
+            StringBuilder response = new StringBuilder();
+            boolean notModified = mSendEtag && TEST_ETAG.equals(ifNoneMatch);
+            if (notModified) {
+                response.append("HTTP/1.0 304 Not Modified\r\n");
+                response.append("ETag: ").append(TEST_ETAG).append("\r\n\r\n");
+            } else {
+                response.append("HTTP/1.0 200 OK\r\n");
+                if (mSendEtag) {
+                    response.append("ETag: ").append(TEST_ETAG).append("\r\n");
+                }
+                if (gzip) {
+                    response.append("Content-Encoding: gzip\r\n");
+                }
+                response.append("Content-Type: application/json\r\n");
+                response.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+            }
+            OutputStream out = client.getOutputStream();
+            out.write(response.toString().getBytes("UTF-8"));
+            if (!notModified) {
+                out.write(body);
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.CountingContentObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastIngester extends AndroidTestCase {
+
+    static final long TEST_DATE = 1419033600000L;  // December 20th, 2014
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    static final int DAYS = 7;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.ArchiveEntry.CONTENT_URI, null, null);
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, "99705");
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location);
+        mLocationId = ContentUris.parseId(locationUri);
+    }
+
+    static List<ContentValues> createDays(double maxTempOnDayTwo) {
+        List<ContentValues> days = new ArrayList<ContentValues>();
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues day = new ContentValues();
+            day.put(WeatherEntry.COLUMN_DATE, TEST_DATE + i * DAY_IN_MILLIS);
+            day.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            day.put(WeatherEntry.COLUMN_HUMIDITY, 12);
+            day.put(WeatherEntry.COLUMN_PRESSURE, 1013.5);
+            day.put(WeatherEntry.COLUMN_MAX_TEMP, i == 2 ? maxTempOnDayTwo : 20.5 + i);
+            day.put(WeatherEntry.COLUMN_MIN_TEMP, 10.25 - i);
+            day.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            day.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            day.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+            days.add(day);
+        }
+        return days;
+    }
+
+    public void testOnlyChangedDaysAreReported() {
+        // An empty table takes every day as new.
+        ForecastIngester ingester = new ForecastIngester(mContext.getContentResolver());
+        ingester.add(mLocationId, createDays(30));
+        ForecastIngester.ChangeSet changes = ingester.commit(0);
+        assertEquals(DAYS, changes.getInsertedCount());
+        assertTrue(changes.hasChangedDay(mLocationId, TEST_DATE));
+
+        // The same forecast again changes nothing.
+        ingester = new ForecastIngester(mContext.getContentResolver());
+        ingester.add(mLocationId, createDays(30));
+        changes = ingester.commit(0);
+        assertTrue("Error: An identical forecast should not change anything: " + changes,
+                changes.isEmpty());
+        assertEquals(DAYS, changes.getUnchangedCount());
+        assertFalse(changes.hasChanges(mLocationId));
+
+        // Only the day that differs is written.
+        ingester = new ForecastIngester(mContext.getContentResolver());
+        ingester.add(mLocationId, createDays(31));
+        changes = ingester.commit(0);
+        assertEquals(1, changes.getChangedCount());
+        assertEquals(0, changes.getInsertedCount());
+        assertTrue(changes.hasChangedDay(mLocationId, TEST_DATE + 2 * DAY_IN_MILLIS));
+        assertFalse(changes.hasChangedDay(mLocationId, TEST_DATE));
+    }
+
+    public void testExpiredDaysAreCounted() {
+        ForecastIngester ingester = new ForecastIngester(mContext.getContentResolver());
+        ingester.add(mLocationId, createDays(30));
+        ingester.commit(0);
+
+        ingester = new ForecastIngester(mContext.getContentResolver());
+        ForecastIngester.ChangeSet changes = ingester.commit(
+                WeatherContract.normalizeDate(TEST_DATE + DAY_IN_MILLIS));
+        assertEquals(2, changes.getExpiredCount());
+        assertFalse(changes.isEmpty());
+    }
+
+    public void testNewLocationGoesInWithItsForecast() {
+        ForecastIngester ingester = new ForecastIngester(mContext.getContentResolver());
+        long key = ingester.addLocation(createLocation("94043"));
+        ingester.add(key, createDays(30));
+        ForecastIngester.ChangeSet changes = ingester.commit(0);
+        assertFalse(changes.hasFailed());
+        assertEquals(DAYS, changes.getInsertedCount());
+        assertTrue(changes.hasChanges(key));
+        assertEquals(DAYS, countDays("94043"));
+    }
+
+    public void testFailedBatchWritesNothing() {
+        ForecastIngester ingester = new ForecastIngester(mContext.getContentResolver());
+        long key = ingester.addLocation(createLocation("94043"));
+        List<ContentValues> days = createDays(30);
+        // Breaks the NOT NULL constraint on the last insert of the batch
+        days.get(DAYS - 1).remove(WeatherEntry.COLUMN_SHORT_DESC);
+        ingester.add(key, days);
+        ForecastIngester.ChangeSet changes = ingester.commit(0);
+        assertTrue(changes.hasFailed());
+        assertTrue(changes.isEmpty());
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"94043"}, null);
+        try {
+            assertEquals("Error: The location was stored without its forecast",
+                    0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues createLocation(String locationSetting) {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 37.4056);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -122.0775);
+        return location;
+    }
+
+    private int countDays(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(locationSetting), null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testCommitNotifiesOnce() {
+        // The forecast list reloads on every notification, so a sync should send only one.
+        CountingContentObserver observer = CountingContentObserver.create();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.CONTENT_URI, true, observer);
+        ForecastIngester ingester = new ForecastIngester(mContext.getContentResolver());
+        ingester.add(mLocationId, createDays(30));
+        ingester.commit(WeatherContract.normalizeDate(TEST_DATE - DAY_IN_MILLIS));
+        observer.assertCount(1);
+        mContext.getContentResolver().unregisterContentObserver(observer);
+    }
+}
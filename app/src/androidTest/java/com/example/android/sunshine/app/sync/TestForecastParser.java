@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.FakeWeatherServer;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+public class TestForecastParser extends AndroidTestCase {
+
+    // 2015-12-23, the first day of the recorded forecast
+    static final int TEST_JULIAN_DAY = 2457380;
+
+    private static InputStream body(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testParsesRecordedForecast() throws Exception {
+        ForecastParser.Forecast forecast = new ForecastParser(TEST_JULIAN_DAY)
+                .parse(body(FakeWeatherServer.RECORDED_DAILY));
+
+        assertTrue(forecast.isOk());
+        assertEquals("Mountain View", forecast.cityName);
+        assertEquals(37.386051, forecast.cityLatitude, 1e-6);
+        assertEquals(-122.083847, forecast.cityLongitude, 1e-6);
+        assertEquals(7, forecast.days.size());
+
+        Time dayTime = new Time();
+        for (int i = 0; i < forecast.days.size(); i++) {
+            assertEquals("Days follow each other from the start day",
+                    dayTime.setJulianDay(TEST_JULIAN_DAY + i),
+                    (long) forecast.days.get(i).getAsLong(WeatherEntry.COLUMN_DATE));
+        }
+
+        ContentValues first = forecast.days.get(0);
+        assertEquals(500, (int) first.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals("Rain", first.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals(5.07, first.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP), 1e-9);
+        assertEquals(12.43, first.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), 1e-9);
+        assertEquals(76, first.getAsDouble(WeatherEntry.COLUMN_HUMIDITY), 1e-9);
+        assertEquals(1006.09, first.getAsDouble(WeatherEntry.COLUMN_PRESSURE), 1e-9);
+        assertEquals(2.46, first.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED), 1e-9);
+        assertEquals(290, first.getAsDouble(WeatherEntry.COLUMN_DEGREES), 1e-9);
+        assertFalse("The location key is added when storing",
+                first.containsKey(WeatherEntry.COLUMN_LOC_KEY));
+    }
+
+    public void testErrorCodeIsReturned() throws Exception {
+        ForecastParser.Forecast forecast = new ForecastParser(TEST_JULIAN_DAY)
+                .parse(body("{\"cod\":\"404\",\"message\":\"city not found\"}"));
+
+        assertFalse(forecast.isOk());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, forecast.code);
+        assertTrue(forecast.days.isEmpty());
+    }
+
+    public void testTruncatedBodyIsInvalid() throws Exception {
+        String truncated = FakeWeatherServer.RECORDED_DAILY.substring(0,
+                FakeWeatherServer.RECORDED_DAILY.length() / 2);
+        try {
+            new ForecastParser(TEST_JULIAN_DAY).parse(body(truncated));
+            fail("A truncated body should be reported as invalid");
+        } catch (JSONException e) {
+            // expected, reported as LOCATION_STATUS_SERVER_INVALID
+        }
+    }
+
+    public void testEmptyBodyIsAStreamFailure() throws Exception {
+        try {
+            new ForecastParser(TEST_JULIAN_DAY).parse(body(""));
+            fail("An empty body should be reported as a stream failure");
+        } catch (IOException e) {
+            // expected, reported as LOCATION_STATUS_SERVER_DOWN
+        }
+    }
+
+    public void testMissingColumnIsInvalid() throws Exception {
+        String withoutPressure = FakeWeatherServer.RECORDED_DAILY
+                .replaceFirst("\"pressure\":1006.09,", "");
+        assertFalse(withoutPressure.equals(FakeWeatherServer.RECORDED_DAILY));
+        try {
+            new ForecastParser(TEST_JULIAN_DAY).parse(body(withoutPressure));
+            fail("A day without a pressure should be reported as invalid");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.FakeWeatherServer;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Random;
+
+/*
+    Drives the whole sync, fetch -> parse -> provider write -> fan-out, against the local fake
+    server. The functional tests check the outcome of each kind of response, and the benchmarks
+    log the time of a sync and the per-stage breakdown from SyncMetrics for a range of payload
+    sizes and server latencies.
+ */
+public class TestSyncBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncBenchmark.class.getSimpleName();
+
+    static final int BENCHMARK_ITERATIONS = 5;
+
+    private FakeWeatherServer mServer;
+    private File mCacheDir;
+    private ForecastSyncEngine mEngine;
+    private SunshineSyncAdapter mAdapter;
+    private boolean mNotificationsEnabled;
+    private String mPreferredLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeWeatherServer();
+        mServer.start();
+        mCacheDir = new File(mContext.getCacheDir(), "test-benchmark");
+        deleteCacheDir();
+        deleteAllRecords();
+
+        // Keep the daily notification, and its artwork download, out of the measurements.
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String notificationsKey = mContext.getString(R.string.pref_enable_notifications_key);
+        mNotificationsEnabled = prefs.getBoolean(notificationsKey, true);
+        prefs.edit().putBoolean(notificationsKey, false).commit();
+        mPreferredLocation = Utility.getPreferredLocation(mContext);
+        new FanOutTracker(mContext).reset();
+
+        // Retry quickly, and never let the breaker get in the way of a test.
+        mEngine = new ForecastSyncEngine(mContext, mServer.getBaseUrl(),
+                new ForecastHttpCache(mCacheDir), new RetryPolicy(2, 10, 50, new Random(1)),
+                new CircuitBreaker(Integer.MAX_VALUE, 0));
+        mAdapter = new SunshineSyncAdapter(mContext, false, mEngine);
+        SyncMetrics.getInstance().reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mEngine.shutdown();
+        mServer.close();
+        deleteCacheDir();
+        deleteAllRecords();
+        Utility.resetLocationStatus(mContext);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putBoolean(mContext.getString(R.string.pref_enable_notifications_key),
+                        mNotificationsEnabled)
+                .commit();
+        setPreferredLocation(mPreferredLocation);
+        new FanOutTracker(mContext).reset();
+        super.tearDown();
+    }
+
+    public void testRecordedPayloadIsStored() {
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+        assertEquals("Error: Every recorded day should be stored", 7, countWeatherRows());
+    }
+
+    public void testChunkedGzippedPayloadIsStored() {
+        mServer.setDailyPayload(FakeWeatherServer.syntheticDaily(14, 1));
+        mServer.setChunkSize(512);
+        mServer.setGzip(true);
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+        assertEquals(14, countWeatherRows());
+    }
+
+    public void testNotFoundMarksLocationInvalid() {
+        mServer.setErrorCode(404);
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                Utility.getLocationStatus(mContext));
+        assertEquals(0, countWeatherRows());
+    }
+
+    public void testServerErrorIsRetriedThenMarksServerDown() {
+        mServer.setErrorCode(500);
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+        // Two attempts each for the daily and the hourly forecast of the one location
+        assertEquals(4, mServer.getRequestCount());
+    }
+
+    public void testUnchangedForecastIsNotRewritten() {
+        mServer.setEtags(true);
+        sync();
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        long inserted = metrics.getCounter(SyncMetrics.COUNTER_ROWS_INSERTED);
+
+        sync();
+        assertEquals("Error: A 304 shouldn't write anything",
+                inserted, metrics.getCounter(SyncMetrics.COUNTER_ROWS_INSERTED));
+        assertEquals(1, metrics.getHistogram(SyncMetrics.STAGE_PARSE).getCount());
+    }
+
+    public void testSwitchingToASyncedLocationUpdatesTheWidgets() {
+        mServer.setEtags(true);
+        sync();
+        // The first location is synced as a saved one from now on.
+        setPreferredLocation("94043");
+        sync();
+
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        long fanOuts = metrics.getHistogram(SyncMetrics.STAGE_FANOUT_WIDGETS).getCount();
+        setPreferredLocation(mPreferredLocation);
+        sync();
+        assertEquals("Error: The widgets would keep showing the other location",
+                fanOuts + 1, metrics.getHistogram(SyncMetrics.STAGE_FANOUT_WIDGETS).getCount());
+
+        // Nothing changed since, and the widgets show it already.
+        sync();
+        assertEquals(fanOuts + 1,
+                metrics.getHistogram(SyncMetrics.STAGE_FANOUT_WIDGETS).getCount());
+    }
+
+    public void testBenchmarkPayloadSizes() {
+        for (int days : new int[]{7, 14, 16}) {
+            benchmark("days=" + days + " latency=0", days, 0, 0);
+        }
+    }
+
+    public void testBenchmarkLatencyAndChunking() {
+        benchmark("days=14 latency=50ms", 14, 50, 0);
+        benchmark("days=14 latency=50ms chunked", 14, 50, 256);
+    }
+
+    private void benchmark(String label, int days, int latencyMillis, int chunkSize) {
+        mServer.setLatencyMillis(latencyMillis);
+        mServer.setChunkSize(chunkSize);
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        metrics.reset();
+
+        long totalNanos = 0;
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            // A new forecast every time, so every sync goes all the way to the fan-out.
+            mServer.setDailyPayload(FakeWeatherServer.syntheticDaily(days, i));
+            mServer.setHourlyPayload(
+                    FakeWeatherServer.syntheticHourly(ForecastSyncEngine.HOURLY_STEPS, i));
+            long start = System.nanoTime();
+            sync();
+            totalNanos += System.nanoTime() - start;
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                    Utility.getLocationStatus(mContext));
+        }
+
+        StringWriter dump = new StringWriter();
+        metrics.dump(new PrintWriter(dump));
+        Log.d(LOG_TAG, label + ": mean sync " + totalNanos / BENCHMARK_ITERATIONS / 1000
+                + "us over " + BENCHMARK_ITERATIONS + " syncs\n" + dump);
+    }
+
+    private void setPreferredLocation(String locationSetting) {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), locationSetting)
+                .commit();
+    }
+
+    private void sync() {
+        mAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                new SyncResult());
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(
+                        Utility.getPreferredLocation(mContext)),
+                null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private void deleteCacheDir() {
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        mCacheDir.delete();
+    }
+}
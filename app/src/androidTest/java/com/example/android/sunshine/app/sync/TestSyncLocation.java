@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.List;
+
+public class TestSyncLocation extends AndroidTestCase {
+
+    static final String TEST_PREFERRED = "99705";
+
+    private SharedPreferences mPrefs;
+    private String mPreferredLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mPreferredLocation = Utility.getPreferredLocation(mContext);
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_location_key), TEST_PREFERRED)
+                .remove(mContext.getString(R.string.pref_location_latitude))
+                .remove(mContext.getString(R.string.pref_location_longitude))
+                .commit();
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_location_key), mPreferredLocation)
+                .commit();
+        super.tearDown();
+    }
+
+    private void insertLocation(String setting, long lastUsed) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, setting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, "City " + setting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, 40.0);
+        values.put(LocationEntry.COLUMN_COORD_LONG, -100.0);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        String key = Utility.getLocationLastUsedKey(mContext, setting);
+        if (lastUsed == -1) {
+            mPrefs.edit().remove(key).commit();
+        } else {
+            mPrefs.edit().putLong(key, lastUsed).commit();
+        }
+    }
+
+    public void testExpiredLocationsAreNotSynced() {
+        long now = System.currentTimeMillis();
+        insertLocation("recent", now - 1000);
+        insertLocation("expired", now - SyncLocation.SAVED_LOCATION_EXPIRY - 1000);
+        // Saved before the time was kept
+        insertLocation("untracked", -1);
+
+        List<SyncLocation> locations = SyncLocation.loadAll(mContext);
+        assertEquals(3, locations.size());
+        assertEquals(TEST_PREFERRED, locations.get(0).locationSetting);
+        assertTrue(locations.get(0).preferred);
+        for (SyncLocation location : locations) {
+            assertFalse("Error: An expired location was synced",
+                    "expired".equals(location.locationSetting));
+        }
+        assertTrue("Error: The preferred location wasn't marked as used",
+                mPrefs.getLong(Utility.getLocationLastUsedKey(mContext, TEST_PREFERRED), 0)
+                        >= now);
+    }
+
+    public void testPickedPlaceSharesANearbyLocation() {
+        long now = System.currentTimeMillis();
+        insertLocation("saved", now);
+        // About a kilometre from the saved location
+        mPrefs.edit()
+                .putFloat(mContext.getString(R.string.pref_location_latitude), 40.01f)
+                .putFloat(mContext.getString(R.string.pref_location_longitude), -100.0f)
+                .commit();
+
+        List<SyncLocation> locations = SyncLocation.loadAll(mContext);
+        assertEquals("saved", locations.get(0).nearbySetting);
+        // The saved location keeps its setting, and is synced as before.
+        assertEquals(2, locations.size());
+        assertEquals("saved", locations.get(1).locationSetting);
+        assertNull(locations.get(1).nearbySetting);
+
+        mPrefs.edit()
+                .remove(mContext.getString(R.string.pref_location_latitude))
+                .remove(mContext.getString(R.string.pref_location_longitude))
+                .commit();
+    }
+
+    public void testSavedLocationsAreCappedMostRecentFirst() {
+        long now = System.currentTimeMillis();
+        int saved = SyncLocation.MAX_SAVED_LOCATIONS + 3;
+        for (int i = 0; i < saved; i++) {
+            insertLocation("saved" + i, now - i * 60 * 1000);
+        }
+
+        List<SyncLocation> locations = SyncLocation.loadAll(mContext);
+        assertEquals(SyncLocation.MAX_SAVED_LOCATIONS + 1, locations.size());
+        for (int i = 1; i < locations.size(); i++) {
+            assertEquals("saved" + (i - 1), locations.get(i).locationSetting);
+            assertFalse(locations.get(i).preferred);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class TestSyncMetrics extends AndroidTestCase {
+
+    public void testHistogramPercentiles() {
+        SyncMetrics.Histogram histogram = new SyncMetrics.Histogram(100);
+        for (int i = 100; i >= 1; i--) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getPercentileNanos(50));
+        assertEquals(90, histogram.getPercentileNanos(90));
+        assertEquals(100, histogram.getPercentileNanos(100));
+        assertEquals(50, histogram.getMeanNanos());
+        assertEquals(100, histogram.getMaxNanos());
+    }
+
+    public void testHistogramWindowRolls() {
+        SyncMetrics.Histogram histogram = new SyncMetrics.Histogram(4);
+        for (int i = 0; i < 4; i++) {
+            histogram.record(1000);
+        }
+        // Only the four most recent samples count towards the percentiles...
+        for (int i = 0; i < 4; i++) {
+            histogram.record(1);
+        }
+        assertEquals(1, histogram.getPercentileNanos(99));
+        // ...while the count and the max cover everything.
+        assertEquals(8, histogram.getCount());
+        assertEquals(1000, histogram.getMaxNanos());
+    }
+
+    public void testDumpListsStagesAndCounters() {
+        SyncMetrics metrics = new SyncMetrics();
+        metrics.record(SyncMetrics.STAGE_PARSE, 2000000);
+        metrics.increment(SyncMetrics.COUNTER_ROWS_INSERTED, 14);
+
+        StringWriter out = new StringWriter();
+        metrics.dump(new PrintWriter(out));
+        String dump = out.toString();
+        assertTrue(dump, dump.contains(SyncMetrics.STAGE_PARSE));
+        assertTrue(dump, dump.contains(SyncMetrics.STAGE_FANOUT_WEARABLE));
+        assertEquals(14, metrics.getCounter(SyncMetrics.COUNTER_ROWS_INSERTED));
+
+        metrics.reset();
+        assertEquals(0, metrics.getHistogram(SyncMetrics.STAGE_PARSE).getCount());
+        assertEquals(0, metrics.getCounter(SyncMetrics.COUNTER_ROWS_INSERTED));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class TestSyncSimulator extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncSimulator.class.getSimpleName();
+
+    static final long TEST_SEED = 4004L;
+    static final int TEST_DAYS = 14;
+
+    public void testSimulationIsDeterministic() {
+        SyncPolicy policy = new AdaptiveSyncPolicy(SunshineSyncAdapter.SYNC_INTERVAL);
+        SyncSimulator.Report first = new SyncSimulator(TEST_SEED, TEST_DAYS).run(policy);
+        SyncSimulator.Report second = new SyncSimulator(TEST_SEED, TEST_DAYS).run(policy);
+
+        assertEquals(first.changes, second.changes);
+        assertEquals(first.wakeups, second.wakeups);
+        assertEquals(first.totalStalenessMinutes, second.totalStalenessMinutes);
+    }
+
+    public void testFixedPolicyWakesUpEveryInterval() {
+        SyncSimulator.Report report = new SyncSimulator(TEST_SEED, TEST_DAYS)
+                .run(new FixedSyncPolicy(SunshineSyncAdapter.SYNC_INTERVAL));
+
+        // The last sync would land exactly on the end of the simulation, so it isn't counted.
+        int expected = TEST_DAYS * 24 * 60 / (SunshineSyncAdapter.SYNC_INTERVAL / 60) - 1;
+        assertEquals(expected, report.wakeups);
+    }
+
+    public void testAdaptivePolicyAgainstFixedInterval() {
+        SyncSimulator simulator = new SyncSimulator(TEST_SEED, TEST_DAYS);
+        SyncSimulator.Report fixed =
+                simulator.run(new FixedSyncPolicy(SunshineSyncAdapter.SYNC_INTERVAL));
+        SyncSimulator.Report adaptive =
+                simulator.run(new AdaptiveSyncPolicy(SunshineSyncAdapter.SYNC_INTERVAL));
+        Log.d(LOG_TAG, "Fixed: " + fixed);
+        Log.d(LOG_TAG, "Adaptive: " + adaptive);
+
+        assertEquals(fixed.changes, adaptive.changes);
+        // Every interval stays within the policy's bounds.
+        assertTrue(adaptive.wakeups <= TEST_DAYS * 24 * 60 / (AdaptiveSyncPolicy.MIN_INTERVAL / 60));
+        assertTrue(adaptive.wakeups >= TEST_DAYS * 24 * 60 / (AdaptiveSyncPolicy.MAX_INTERVAL / 60) - 1);
+    }
+
+    public void testNightEndsByTheMorning() {
+        // Stable weather, nothing on screen, at 01:00: everything stretches the interval.
+        SyncConditions night = new SyncConditions(1, 0f, false, false, false, false);
+        int interval = new AdaptiveSyncPolicy(SunshineSyncAdapter.SYNC_INTERVAL)
+                .computeInterval(night);
+        assertTrue("Error: The next sync is " + interval / 60 + " minutes away",
+                interval <= (AdaptiveSyncPolicy.NIGHT_END_HOUR - 1) * 60 * 60);
+        // The same late in the evening, when the night hasn't started yet.
+        SyncConditions evening = new SyncConditions(23, 0f, false, false, false, false);
+        interval = new AdaptiveSyncPolicy(SunshineSyncAdapter.SYNC_INTERVAL)
+                .computeInterval(evening);
+        assertTrue(interval <= (AdaptiveSyncPolicy.NIGHT_END_HOUR + 1) * 60 * 60);
+
+        SyncSimulator.Report report = new SyncSimulator(TEST_SEED, TEST_DAYS)
+                .run(new AdaptiveSyncPolicy(SunshineSyncAdapter.SYNC_INTERVAL));
+        Log.d(LOG_TAG, "Adaptive: " + report);
+        // The weather goes on screen at 07:00.
+        assertTrue("Error: A morning went without a sync until "
+                        + report.latestMorningSyncMinute + " minutes past midnight",
+                report.latestMorningSyncMinute < 7 * 60);
+    }
+
+    public void testChangeRateHistory() {
+        String history = "";
+        for (int i = 0; i < SyncScheduler.HISTORY_LENGTH * 2; i++) {
+            history = SyncScheduler.appendHistory(history, i % 4 == 0);
+        }
+        assertEquals(SyncScheduler.HISTORY_LENGTH, history.length());
+        assertEquals(0.25f, SyncScheduler.changeRate(history));
+    }
+}
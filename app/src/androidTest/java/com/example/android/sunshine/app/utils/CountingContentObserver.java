@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import junit.framework.Assert;
+
+/**
+ * A ContentObserver that counts its notifications, for tests of how many a write sends.
+ * Notifications are delivered on a thread of its own, as the tests run off the main thread.
+ */
+public class CountingContentObserver extends ContentObserver {
+    // How long to keep listening for notifications beyond the expected ones
+    private static final long QUIET_MILLIS = 500;
+
+    private final HandlerThread mHT;
+    private int mCount;
+
+    public static CountingContentObserver create() {
+        HandlerThread ht = new HandlerThread("CountingContentObserverThread");
+        ht.start();
+        return new CountingContentObserver(ht);
+    }
+
+    private CountingContentObserver(HandlerThread ht) {
+        super(new Handler(ht.getLooper()));
+        mHT = ht;
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        onChange(selfChange, null);
+    }
+
+    @Override
+    public synchronized void onChange(boolean selfChange, Uri uri) {
+        mCount++;
+    }
+
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Wait for the expected number of notifications, then a while longer to make sure no more
+     * arrive, and stop the observer's thread.
+     */
+    public void assertCount(final int expected) {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return getCount() >= expected;
+            }
+        }.run();
+        try {
+            Thread.sleep(QUIET_MILLIS);
+        } catch (InterruptedException e) {
+            Assert.fail("unexpected InterruptedException");
+        }
+        mHT.quit();
+        Assert.assertEquals("Wrong number of notifications", expected, getCount());
+    }
+}
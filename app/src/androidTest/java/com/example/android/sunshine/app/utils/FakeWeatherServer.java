@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A local stand-in for api.openweathermap.org, so that the sync can be run and timed offline.
+    It serves forecast/daily and forecast (3-hour step) from the payloads it is given, which can
+    be the recorded response below or synthetic ones of any size. Each response can be delayed,
+    sent in chunks, gzipped, or replaced by an OWM style error.
+
+    It speaks enough HTTP/1.1 for keep-alive, each connection getting its own thread, and
+    honours If-None-Match when it hands out ETags.
+ */
+public class FakeWeatherServer extends Thread {
+
+    public static final String BASE_PATH = "/data/2.5/";
+    private static final String DAILY_PATH = BASE_PATH + "forecast/daily";
+    private static final String HOURLY_PATH = BASE_PATH + "forecast";
+
+    private static final String[] CONDITIONS = {"Clear", "Clouds", "Rain", "Snow", "Drizzle"};
+    private static final int[] CONDITION_IDS = {800, 802, 501, 601, 301};
+
+    private final ServerSocket mSocket;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+
+    private volatile String mDailyPayload = RECORDED_DAILY;
+    private volatile String mHourlyPayload = syntheticHourly(40, 0);
+    private volatile int mLatencyMillis;
+    private volatile int mErrorCode;
+    private volatile int mChunkSize;
+    private volatile boolean mGzip;
+    private volatile boolean mEtags;
+
+    public FakeWeatherServer() throws IOException {
+        super("FakeWeatherServer");
+        mSocket = new ServerSocket(0);
+    }
+
+    /**
+     * @return the API root to hand to the sync engine.
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mSocket.getLocalPort() + BASE_PATH;
+    }
+
+    public void setDailyPayload(String payload) {
+        mDailyPayload = payload;
+    }
+
+    public void setHourlyPayload(String payload) {
+        mHourlyPayload = payload;
+    }
+
+    /** Wait this long before sending each response. */
+    public void setLatencyMillis(int latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /** Answer every request with this OWM error, e.g. 404 or 500. 0 serves payloads again. */
+    public void setErrorCode(int errorCode) {
+        mErrorCode = errorCode;
+    }
+
+    /** Send bodies with chunked transfer encoding in chunks of this size. 0 sends them whole. */
+    public void setChunkSize(int chunkSize) {
+        mChunkSize = chunkSize;
+    }
+
+    /** Gzip bodies for clients that accept it. */
+    public void setGzip(boolean gzip) {
+        mGzip = gzip;
+    }
+
+    /** Hand out ETags, and answer 304 when they come back unchanged. */
+    public void setEtags(boolean etags) {
+        mEtags = etags;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+    @Override
+    public void run() {
+        while (!mSocket.isClosed()) {
+            try {
+                final Socket client = mSocket.accept();
+                mConnectionCount.incrementAndGet();
+                new Thread("FakeWeatherServer connection") {
+                    @Override
+                    public void run() {
+                        try {
+                            InputStream in = new BufferedInputStream(client.getInputStream());
+                            OutputStream out = client.getOutputStream();
+                            while (serve(in, out)) {
+                                // keep the connection alive for the next request
+                            }
+                        } catch (IOException e) {
+                            // the client went away
+                        } finally {
+                            try {
+                                client.close();
+                            } catch (IOException e) {
+                                // nothing left to do
+                            }
+                        }
+                    }
+                }.start();
+            } catch (IOException e) {
+                // the socket was closed
+            }
+        }
+    }
+
+    /**
+     * @return false once the client has closed the connection.
+     */
+    private boolean serve(InputStream in, OutputStream out) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+            return false;
+        }
+        String ifNoneMatch = null;
+        boolean acceptsGzip = false;
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            if (line.regionMatches(true, 0, "If-None-Match:", 0, 14)) {
+                ifNoneMatch = line.substring(14).trim();
+            } else if (line.regionMatches(true, 0, "Accept-Encoding:", 0, 16)) {
+                acceptsGzip = line.contains("gzip");
+            }
+        }
+        mRequestCount.incrementAndGet();
+
+        String[] parts = requestLine.split(" ");
+        String path = parts.length > 1 ? parts[1] : "/";
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+
+        if (mLatencyMillis > 0) {
+            try {
+                Thread.sleep(mLatencyMillis);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+
+        int status;
+        String body;
+        if (mErrorCode != 0) {
+            status = mErrorCode;
+            body = "{\"cod\":\"" + mErrorCode + "\",\"message\":\"" + reason(mErrorCode) + "\"}";
+        } else if (DAILY_PATH.equals(path)) {
+            status = 200;
+            body = mDailyPayload;
+        } else if (HOURLY_PATH.equals(path)) {
+            status = 200;
+            body = mHourlyPayload;
+        } else {
+            status = 404;
+            body = "{\"cod\":\"404\",\"message\":\"Internal error\"}";
+        }
+
+        StringBuilder headers = new StringBuilder();
+        String etag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+        if (status == 200 && mEtags && etag.equals(ifNoneMatch)) {
+            headers.append("HTTP/1.1 304 Not Modified\r\n");
+            headers.append("ETag: ").append(etag).append("\r\n\r\n");
+            out.write(headers.toString().getBytes("UTF-8"));
+            out.flush();
+            return true;
+        }
+
+        byte[] bytes = body.getBytes("UTF-8");
+        headers.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        headers.append("Content-Type: application/json; charset=utf-8\r\n");
+        if (status == 200 && mEtags) {
+            headers.append("ETag: ").append(etag).append("\r\n");
+        }
+        if (mGzip && acceptsGzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzipOut = new GZIPOutputStream(compressed);
+            gzipOut.write(bytes);
+            gzipOut.close();
+            bytes = compressed.toByteArray();
+            headers.append("Content-Encoding: gzip\r\n");
+        }
+
+        int chunkSize = mChunkSize;
+        if (chunkSize > 0) {
+            headers.append("Transfer-Encoding: chunked\r\n\r\n");
+            out.write(headers.toString().getBytes("UTF-8"));
+            for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+                int length = Math.min(chunkSize, bytes.length - offset);
+                out.write((Integer.toHexString(length) + "\r\n").getBytes("UTF-8"));
+                out.write(bytes, offset, length);
+                out.write("\r\n".getBytes("UTF-8"));
+                out.flush();
+            }
+            out.write("0\r\n\r\n".getBytes("UTF-8"));
+        } else {
+            headers.append("Content-Length: ").append(bytes.length).append("\r\n\r\n");
+            out.write(headers.toString().getBytes("UTF-8"));
+            out.write(bytes);
+        }
+        out.flush();
+        return true;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 404:
+                return "city not found";
+            case 429:
+                return "Too Many Requests";
+            case 500:
+                return "Internal Server Error";
+            default:
+                return "Error";
+        }
+    }
+
+    /*
+        A daily forecast for Mountain View as OWM sends it, trimmed to 7 days.
+     */
+    public static final String RECORDED_DAILY = "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\","
+            + "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\",\"population\":0},"
+            + "\"cod\":\"200\",\"message\":0.0078,\"cnt\":7,\"list\":["
+            + "{\"dt\":1450900800,\"temp\":{\"day\":12.43,\"min\":5.07,\"max\":12.43,\"night\":5.07,\"eve\":10.83,\"morn\":12.43},"
+            + "\"pressure\":1006.09,\"humidity\":76,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],"
+            + "\"speed\":2.46,\"deg\":290,\"clouds\":8,\"rain\":0.31},"
+            + "{\"dt\":1450987200,\"temp\":{\"day\":9.61,\"min\":1.94,\"max\":10.39,\"night\":3.5,\"eve\":8.62,\"morn\":1.94},"
+            + "\"pressure\":1010.64,\"humidity\":78,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],"
+            + "\"speed\":1.71,\"deg\":315,\"clouds\":0},"
+            + "{\"dt\":1451073600,\"temp\":{\"day\":10.04,\"min\":0.94,\"max\":10.74,\"night\":3.39,\"eve\":8.97,\"morn\":0.94},"
+            + "\"pressure\":1012.43,\"humidity\":71,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],"
+            + "\"speed\":1.66,\"deg\":335,\"clouds\":0},"
+            + "{\"dt\":1451160000,\"temp\":{\"day\":9.28,\"min\":1.55,\"max\":10.17,\"night\":4.21,\"eve\":8.66,\"morn\":1.55},"
+            + "\"pressure\":1013.54,\"humidity\":75,\"weather\":[{\"id\":802,\"main\":\"Clouds\",\"description\":\"scattered clouds\",\"icon\":\"03d\"}],"
+            + "\"speed\":1.56,\"deg\":298,\"clouds\":32},"
+            + "{\"dt\":1451246400,\"temp\":{\"day\":8.94,\"min\":3.56,\"max\":8.94,\"night\":3.56,\"eve\":7.75,\"morn\":4.84},"
+            + "\"pressure\":1009.89,\"humidity\":0,\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],"
+            + "\"speed\":3.71,\"deg\":304,\"clouds\":63,\"rain\":4.19},"
+            + "{\"dt\":1451332800,\"temp\":{\"day\":8.31,\"min\":1.25,\"max\":8.31,\"night\":1.25,\"eve\":6.42,\"morn\":3.82},"
+            + "\"pressure\":1014.61,\"humidity\":0,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],"
+            + "\"speed\":2.31,\"deg\":341,\"clouds\":4},"
+            + "{\"dt\":1451419200,\"temp\":{\"day\":9.89,\"min\":2.91,\"max\":9.89,\"night\":2.91,\"eve\":7.86,\"morn\":3.32},"
+            + "\"pressure\":1016.2,\"humidity\":0,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],"
+            + "\"speed\":1.25,\"deg\":12,\"clouds\":0}"
+            + "]}";
+
+    /**
+     * A daily forecast of the given number of days. The same seed always gives the same
+     * forecast, and different seeds give different ones.
+     */
+    public static String syntheticDaily(int days, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(256 + days * 320);
+        sb.append("{\"city\":{\"id\":1,\"name\":\"Synthetic City\",")
+                .append("\"coord\":{\"lon\":-122.08,\"lat\":37.39},\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.01,\"cnt\":").append(days).append(",\"list\":[");
+        long dt = 1450900800L;
+        for (int i = 0; i < days; i++, dt += 24 * 60 * 60) {
+            int condition = random.nextInt(CONDITIONS.length);
+            double min = round(random.nextDouble() * 15);
+            double max = round(min + random.nextDouble() * 12);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"dt\":").append(dt)
+                    .append(",\"temp\":{\"day\":").append(max).append(",\"min\":").append(min)
+                    .append(",\"max\":").append(max).append(",\"night\":").append(min)
+                    .append(",\"eve\":").append(max).append(",\"morn\":").append(min).append('}')
+                    .append(",\"pressure\":").append(round(990 + random.nextDouble() * 40))
+                    .append(",\"humidity\":").append(random.nextInt(100))
+                    .append(",\"weather\":[{\"id\":").append(CONDITION_IDS[condition])
+                    .append(",\"main\":\"").append(CONDITIONS[condition])
+                    .append("\",\"description\":\"").append(CONDITIONS[condition].toLowerCase(Locale.US))
+                    .append("\",\"icon\":\"01d\"}]")
+                    .append(",\"speed\":").append(round(random.nextDouble() * 10))
+                    .append(",\"deg\":").append(random.nextInt(360))
+                    .append(",\"clouds\":").append(random.nextInt(100)).append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * A 3-hour step forecast with the given number of steps, 40 being what OWM sends.
+     */
+    public static String syntheticHourly(int steps, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(256 + steps * 400);
+        sb.append("{\"cod\":\"200\",\"message\":0.01,\"cnt\":").append(steps).append(",\"list\":[");
+        long dt = System.currentTimeMillis() / 1000;
+        dt -= dt % (3 * 60 * 60);
+        for (int i = 0; i < steps; i++, dt += 3 * 60 * 60) {
+            int condition = random.nextInt(CONDITIONS.length);
+            double temp = round(random.nextDouble() * 25);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"dt\":").append(dt)
+                    .append(",\"main\":{\"temp\":").append(temp)
+                    .append(",\"temp_min\":").append(temp).append(",\"temp_max\":").append(temp)
+                    .append(",\"pressure\":").append(round(990 + random.nextDouble() * 40))
+                    .append(",\"humidity\":").append(random.nextInt(100)).append('}')
+                    .append(",\"weather\":[{\"id\":").append(CONDITION_IDS[condition])
+                    .append(",\"main\":\"").append(CONDITIONS[condition])
+                    .append("\",\"description\":\"").append(CONDITIONS[condition].toLowerCase(Locale.US))
+                    .append("\",\"icon\":\"01d\"}]")
+                    .append(",\"clouds\":{\"all\":").append(random.nextInt(100)).append('}')
+                    .append(",\"wind\":{\"speed\":").append(round(random.nextDouble() * 10))
+                    .append(",\"deg\":").append(random.nextInt(360)).append('}')
+                    .append(",\"dt_txt\":\"synthetic\"}");
+        }
+        return sb.append("],\"city\":{\"id\":1,\"name\":\"Synthetic City\"}}").toString();
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
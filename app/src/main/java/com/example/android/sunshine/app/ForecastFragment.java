@@ -444,7 +444,7 @@ public class ForecastFragment extends Fragment implements
 
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if (key.equals(getString(R.string.pref_location_status_key))) {
+        if (Utility.isLocationStatusKey(getActivity(), key)) {
             updateEmptyView();
         }
     }
@@ -577,26 +577,66 @@ public class Utility {
                 activeNetwork.isConnectedOrConnecting();
     }
 
+    /**
+     * @param c Context used to get the resources
+     * @param locationSetting The location the status belongs to
+     * @return the key the status of the location is stored under in the SharedPreferences
+     */
+    static public String getLocationStatusKey(Context c, String locationSetting) {
+        return c.getString(R.string.pref_location_status_key) + "/" + locationSetting;
+    }
+
+    /**
+     * @param c Context used to get the resources
+     * @param locationSetting The location the time belongs to
+     * @return the key the last time the location was the preferred one is stored under in the
+     * SharedPreferences
+     */
+    static public String getLocationLastUsedKey(Context c, String locationSetting) {
+        return c.getString(R.string.pref_location_last_used_key) + "/" + locationSetting;
+    }
+
+    /**
+     * @param c Context used to get the resources
+     * @param key A SharedPreferences key
+     * @return true if the key holds the status of a location
+     */
+    static public boolean isLocationStatusKey(Context c, String key) {
+        return key != null && key.startsWith(c.getString(R.string.pref_location_status_key));
+    }
+
+    /**
+     *
+     * @param c Context used to get the SharedPreferences
+     * @return the location status integer type of the preferred location
+     */
+    static public @SunshineSyncAdapter.LocationStatus
+    int getLocationStatus(Context c){
+        return getLocationStatus(c, getPreferredLocation(c));
+    }
+
     /**
      *
      * @param c Context used to get the SharedPreferences
+     * @param locationSetting The location to get the status of
      * @return the location status integer type
      */
     @SuppressWarnings("ResourceType")
     static public @SunshineSyncAdapter.LocationStatus
-    int getLocationStatus(Context c){
+    int getLocationStatus(Context c, String locationSetting){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        return sp.getInt(getLocationStatusKey(c, locationSetting), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
     }
 
     /**
-     * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
+     * Resets the status of the preferred location.  (Sets it to
+     * SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
      * @param c Context used to get the SharedPreferences
      */
     static public void resetLocationStatus(Context c){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        spe.putInt(getLocationStatusKey(c, getPreferredLocation(c)), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
         spe.apply();
     }
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Locale;
+
+/**
+ * The full-text indexes behind the city suggestions. The tables are FTS4 with prefix indexes
+ * for the first one to three characters of each word, so the short prefixes of the first few
+ * keystrokes, which match the most names, are answered from a ready list instead of by
+ * walking every term that starts with them.
+ *
+ * FTS4 returns matches in docid order. The bundled list is stored most populous city first,
+ * so the first matches are the likeliest ones and a query can stop at its limit without
+ * sorting every match.
+ */
+class CityIndex {
+
+    private static final String LOG_TAG = CityIndex.class.getSimpleName();
+
+    static final int DEFAULT_LIMIT = 10;
+
+    // The default tokenizer folds ASCII case only; unicode61 needs a newer SQLite than API 19
+    // has.
+    private static final String FTS_OPTIONS = CityEntry.COLUMN_CITY_NAME + ", "
+            + CityEntry.COLUMN_LOCATION_SETTING + ", prefix=\"1,2,3\"";
+
+    private static final String SQL_INSERT_CITY = "INSERT INTO " + CityEntry.TABLE_NAME + " ("
+            + CityEntry.COLUMN_CITY_NAME + ", " + CityEntry.COLUMN_LOCATION_SETTING
+            + ") VALUES (?, ?)";
+
+    private CityIndex() {
+    }
+
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + CityEntry.TABLE_NAME + " USING fts4("
+                + FTS_OPTIONS + ")");
+        db.execSQL("CREATE VIRTUAL TABLE " + CityEntry.SAVED_TABLE_NAME + " USING fts4("
+                + FTS_OPTIONS + ")");
+
+        db.execSQL("CREATE TRIGGER location_search_insert AFTER INSERT ON "
+                + LocationEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + CityEntry.SAVED_TABLE_NAME + " (docid, "
+                + CityEntry.COLUMN_CITY_NAME + ", " + CityEntry.COLUMN_LOCATION_SETTING
+                + ") VALUES (new." + LocationEntry._ID + ", new."
+                + LocationEntry.COLUMN_CITY_NAME + ", new."
+                + LocationEntry.COLUMN_LOCATION_SETTING + "); END");
+        db.execSQL("CREATE TRIGGER location_search_update AFTER UPDATE OF "
+                + LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_LOCATION_SETTING
+                + " ON " + LocationEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + CityEntry.SAVED_TABLE_NAME + " SET "
+                + CityEntry.COLUMN_CITY_NAME + " = new." + LocationEntry.COLUMN_CITY_NAME + ", "
+                + CityEntry.COLUMN_LOCATION_SETTING + " = new."
+                + LocationEntry.COLUMN_LOCATION_SETTING
+                + " WHERE docid = old." + LocationEntry._ID + "; END");
+        db.execSQL("CREATE TRIGGER location_search_delete AFTER DELETE ON "
+                + LocationEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + CityEntry.SAVED_TABLE_NAME
+                + " WHERE docid = old." + LocationEntry._ID + "; END");
+
+        // The locations saved before the index existed
+        db.execSQL("INSERT INTO " + CityEntry.SAVED_TABLE_NAME + " (docid, "
+                + CityEntry.COLUMN_CITY_NAME + ", " + CityEntry.COLUMN_LOCATION_SETTING
+                + ") SELECT " + LocationEntry._ID + ", " + LocationEntry.COLUMN_CITY_NAME + ", "
+                + LocationEntry.COLUMN_LOCATION_SETTING + " FROM " + LocationEntry.TABLE_NAME);
+    }
+
+    static void dropTables(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + CityEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + CityEntry.SAVED_TABLE_NAME);
+    }
+
+    /**
+     * Fill the city table with the list that comes with the app. Without it the suggestions
+     * still cover the saved locations.
+     */
+    static void seed(Context context, SQLiteDatabase db) {
+        Reader reader = new InputStreamReader(
+                context.getResources().openRawResource(R.raw.cities));
+        try {
+            load(db, new BufferedReader(reader));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the city list", e);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing the city list", e);
+            }
+        }
+    }
+
+    /**
+     * Add the cities of a list with a line per city, the name and the location setting
+     * separated by a tab, in one transaction, and merge the index into one segment so a query
+     * reads a single b-tree.
+     *
+     * @return how many cities were added.
+     */
+    static int load(SQLiteDatabase db, BufferedReader reader) throws IOException {
+        int loaded = 0;
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_CITY);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0 || tab == line.length() - 1) {
+                    continue;
+                }
+                insert.bindString(1, line.substring(0, tab));
+                insert.bindString(2, line.substring(tab + 1));
+                insert.executeInsert();
+                loaded++;
+            }
+            db.execSQL("INSERT INTO " + CityEntry.TABLE_NAME + " (" + CityEntry.TABLE_NAME
+                    + ") VALUES ('optimize')");
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+        return loaded;
+    }
+
+    /**
+     * @return the MATCH expression for what has been typed so far, each word as a prefix, e.g.
+     * "san fr" is "san* fr*", or null if there is no word in it. Anything but letters and
+     * digits only separates words, so the query syntax can't be typed in.
+     */
+    static String buildMatch(String typed) {
+        StringBuilder match = new StringBuilder();
+        int length = typed.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(typed.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(typed.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(typed.substring(start, i).toLowerCase(Locale.US)).append('*');
+            }
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    /**
+     * The suggestions for a MATCH expression, ?1, the saved locations first and then the
+     * bundled cities that aren't saved, at most limit of them.
+     */
+    static String buildSearchSql(String[] projection, int limit) {
+        StringBuilder columns = new StringBuilder();
+        if (projection == null) {
+            columns.append('*');
+        } else {
+            for (String column : projection) {
+                if (columns.length() > 0) {
+                    columns.append(", ");
+                }
+                columns.append(column);
+            }
+        }
+        return "SELECT " + columns + " FROM ("
+                + "SELECT docid AS " + CityEntry._ID + ", " + CityEntry.COLUMN_CITY_NAME + ", "
+                + CityEntry.COLUMN_LOCATION_SETTING + ", 1 AS " + CityEntry.COLUMN_SAVED
+                + " FROM " + CityEntry.SAVED_TABLE_NAME
+                + " WHERE " + CityEntry.SAVED_TABLE_NAME + " MATCH ?1"
+                + " UNION ALL "
+                // Negative, so the ids of the two tables don't collide in a list adapter
+                + "SELECT -docid, " + CityEntry.COLUMN_CITY_NAME + ", "
+                + CityEntry.COLUMN_LOCATION_SETTING + ", 0"
+                + " FROM " + CityEntry.TABLE_NAME
+                + " WHERE " + CityEntry.TABLE_NAME + " MATCH ?1"
+                + " AND " + CityEntry.COLUMN_LOCATION_SETTING + " NOT IN (SELECT "
+                + LocationEntry.COLUMN_LOCATION_SETTING + " FROM " + LocationEntry.TABLE_NAME
+                + ")) LIMIT " + limit;
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.sunshine.app.data;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Geohashes of the locations, which let the location table answer "what is near here" through
+ * an ordinary index. A geohash interleaves the bits of the longitude and the latitude, so the
+ * points inside one cell share the prefix of the cell, and each further character narrows
+ * the cell down by a factor of 32.
+ */
+class GeoHash {
+
+    // The length stored with each location, a cell of about 5 by 5 meters
+    static final int PRECISION = 9;
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+    // Sorts after every character of BASE32, to end a prefix range
+    static final char PREFIX_END = '{';
+
+    private static final double EARTH_RADIUS_METERS = 6371000;
+    private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS_METERS / 180;
+
+    private GeoHash() {
+    }
+
+    static String encode(double latitude, double longitude) {
+        return encode(latitude, longitude, PRECISION);
+    }
+
+    static String encode(double latitude, double longitude, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean lonBit = true;
+        int bits = 0;
+        int value = 0;
+        while (hash.length() < precision) {
+            if (lonBit) {
+                double mid = (minLon + maxLon) / 2;
+                if (longitude >= mid) {
+                    value = (value << 1) | 1;
+                    minLon = mid;
+                } else {
+                    value <<= 1;
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (latitude >= mid) {
+                    value = (value << 1) | 1;
+                    minLat = mid;
+                } else {
+                    value <<= 1;
+                    maxLat = mid;
+                }
+            }
+            lonBit = !lonBit;
+            if (++bits == 5) {
+                hash.append(BASE32.charAt(value));
+                bits = 0;
+                value = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    /**
+     * The prefixes of the cells that together cover every point within radiusMeters of a
+     * point: the cell of the point and its eight neighbours, of the smallest size that is
+     * still at least radiusMeters across.
+     *
+     * @return the prefixes, or null if the radius is so large that every location is a
+     * candidate.
+     */
+    static Set<String> coveringPrefixes(double latitude, double longitude, double radiusMeters) {
+        // Degrees of longitude are shortest at the edge of the circle nearest the pole
+        double polewardLatitude = Math.min(90,
+                Math.abs(latitude) + radiusMeters / METERS_PER_DEGREE);
+        int precision = PRECISION;
+        while (precision > 0 && (getCellHeightMeters(precision) < radiusMeters
+                || getCellWidthMeters(precision, polewardLatitude) < radiusMeters)) {
+            precision--;
+        }
+        if (precision == 0) {
+            return null;
+        }
+        double height = getCellHeightMeters(precision) / METERS_PER_DEGREE;
+        double width = 360.0 / (1L << getLongitudeBits(precision));
+        Set<String> prefixes = new LinkedHashSet<String>(9);
+        for (int dLat = -1; dLat <= 1; dLat++) {
+            // Past a pole there is nothing to cover
+            double lat = Math.max(-90, Math.min(90, latitude + dLat * height));
+            for (int dLon = -1; dLon <= 1; dLon++) {
+                prefixes.add(encode(lat, wrapLongitude(longitude + dLon * width), precision));
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * @return the great circle distance between two points, in meters.
+     */
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    private static int getLongitudeBits(int precision) {
+        return (5 * precision + 1) / 2;
+    }
+
+    private static double getCellHeightMeters(int precision) {
+        return 180.0 / (1L << (5 * precision / 2)) * METERS_PER_DEGREE;
+    }
+
+    // Cells narrow towards the poles, so this is their width at the given latitude
+    private static double getCellWidthMeters(int precision, double latitude) {
+        return 360.0 / (1L << getLongitudeBits(precision)) * METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(latitude));
+    }
+
+    private static double wrapLongitude(double longitude) {
+        if (longitude >= 180) {
+            return longitude - 360;
+        }
+        if (longitude < -180) {
+            return longitude + 360;
+        }
+        return longitude;
+    }
+}
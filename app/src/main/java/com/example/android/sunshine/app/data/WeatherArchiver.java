@@ -0,0 +1,203 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+import java.util.Map;
+
+/**
+ * Moves past days out of the weather table into the archive, so the live table only holds
+ * the forecast and stays small. A day keeps its highs, lows and weather id, and is rolled up
+ * into its week and its month. Archived days are dropped after a year, while the weeks and
+ * months stay.
+ *
+ * The work is done in chunks of at most {@link #CHUNK_DAYS} days, each in a transaction of
+ * its own, so a sync or a reader never waits for more than one chunk.
+ */
+class WeatherArchiver {
+
+    static final int CHUNK_DAYS = 64;
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    static final long DAY_RETENTION_MILLIS = 366 * DAY_IN_MILLIS;
+
+    private static final String[] ARCHIVED_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    // these indices must match the projection
+    private static final int COL_ID = 0;
+    private static final int COL_LOC_KEY = 1;
+    private static final int COL_DATE = 2;
+    private static final int COL_WEATHER_ID = 3;
+    private static final int COL_MAX_TEMP = 4;
+    private static final int COL_MIN_TEMP = 5;
+
+    // A day that is already archived is left as it is, so it isn't counted twice in its week
+    // and month.
+    private static final String SQL_INSERT_DAY = "INSERT OR IGNORE INTO "
+            + ArchiveEntry.TABLE_NAME + " ("
+            + ArchiveEntry.COLUMN_LOC_KEY + ", "
+            + ArchiveEntry.COLUMN_PERIOD + ", "
+            + ArchiveEntry.COLUMN_START_DATE + ", "
+            + ArchiveEntry.COLUMN_DAYS + ", "
+            + ArchiveEntry.COLUMN_MAX_TEMP + ", "
+            + ArchiveEntry.COLUMN_MIN_TEMP + ", "
+            + ArchiveEntry.COLUMN_MEAN_MAX_TEMP + ", "
+            + ArchiveEntry.COLUMN_MEAN_MIN_TEMP + ", "
+            + ArchiveEntry.COLUMN_WEATHER_ID + ") VALUES (?, "
+            + ArchiveEntry.PERIOD_DAY + ", ?, 1, ?, ?, ?, ?, ?)";
+
+    // An empty period for the day to be rolled into, unless there is one already. SQLite
+    // before 3.24 has no upsert.
+    private static final String SQL_INSERT_PERIOD = "INSERT OR IGNORE INTO "
+            + ArchiveEntry.TABLE_NAME + " ("
+            + ArchiveEntry.COLUMN_LOC_KEY + ", "
+            + ArchiveEntry.COLUMN_PERIOD + ", "
+            + ArchiveEntry.COLUMN_START_DATE + ", "
+            + ArchiveEntry.COLUMN_DAYS + ", "
+            + ArchiveEntry.COLUMN_MAX_TEMP + ", "
+            + ArchiveEntry.COLUMN_MIN_TEMP + ", "
+            + ArchiveEntry.COLUMN_MEAN_MAX_TEMP + ", "
+            + ArchiveEntry.COLUMN_MEAN_MIN_TEMP + ") VALUES (?, ?, ?, 0, ?, ?, 0, 0)";
+
+    // The right hand sides all see the row as it was, so the means use the old day count
+    private static final String SQL_ROLL_UP = "UPDATE " + ArchiveEntry.TABLE_NAME + " SET "
+            + ArchiveEntry.COLUMN_MAX_TEMP + " = MAX(" + ArchiveEntry.COLUMN_MAX_TEMP + ", ?1), "
+            + ArchiveEntry.COLUMN_MIN_TEMP + " = MIN(" + ArchiveEntry.COLUMN_MIN_TEMP + ", ?2), "
+            + ArchiveEntry.COLUMN_MEAN_MAX_TEMP + " = (" + ArchiveEntry.COLUMN_MEAN_MAX_TEMP
+            + " * " + ArchiveEntry.COLUMN_DAYS + " + ?1) / (" + ArchiveEntry.COLUMN_DAYS + " + 1), "
+            + ArchiveEntry.COLUMN_MEAN_MIN_TEMP + " = (" + ArchiveEntry.COLUMN_MEAN_MIN_TEMP
+            + " * " + ArchiveEntry.COLUMN_DAYS + " + ?2) / (" + ArchiveEntry.COLUMN_DAYS + " + 1), "
+            + ArchiveEntry.COLUMN_DAYS + " = " + ArchiveEntry.COLUMN_DAYS + " + 1"
+            + " WHERE " + ArchiveEntry.COLUMN_LOC_KEY + " = ?3 AND "
+            + ArchiveEntry.COLUMN_PERIOD + " = ?4 AND "
+            + ArchiveEntry.COLUMN_START_DATE + " = ?5";
+
+    private static final String SQL_DELETE_WEATHER = "DELETE FROM " + WeatherEntry.TABLE_NAME
+            + " WHERE " + WeatherEntry._ID + " = ?";
+
+    private final SQLiteDatabase mDb;
+    // For the first days of weeks and months, in the zone the dates were normalized in
+    private final Calendar mCalendar = Calendar.getInstance();
+
+    WeatherArchiver(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Archive the oldest days up to and including archiveUpTo, at most {@link #CHUNK_DAYS} of
+     * them, in one transaction.
+     *
+     * @param dates collects the location and dates of the days moved
+     * @return how many days were moved, which is CHUNK_DAYS if there may be more.
+     */
+    int archiveChunk(long archiveUpTo, Map<Long, long[]> dates) {
+        int archived = 0;
+        mDb.beginTransactionNonExclusive();
+        try {
+            // Through the UNIQUE (date, location_id) index, oldest first
+            Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME, ARCHIVED_COLUMNS,
+                    WeatherEntry.COLUMN_DATE + " <= ?",
+                    new String[]{Long.toString(archiveUpTo)},
+                    null, null, WeatherEntry.COLUMN_DATE + " ASC", Integer.toString(CHUNK_DAYS));
+            SQLiteStatement insertDay = mDb.compileStatement(SQL_INSERT_DAY);
+            SQLiteStatement insertPeriod = mDb.compileStatement(SQL_INSERT_PERIOD);
+            SQLiteStatement rollUp = mDb.compileStatement(SQL_ROLL_UP);
+            SQLiteStatement delete = mDb.compileStatement(SQL_DELETE_WEATHER);
+            try {
+                while (cursor.moveToNext()) {
+                    long locationId = cursor.getLong(COL_LOC_KEY);
+                    long date = cursor.getLong(COL_DATE);
+                    double max = cursor.getDouble(COL_MAX_TEMP);
+                    double min = cursor.getDouble(COL_MIN_TEMP);
+
+                    insertDay.bindLong(1, locationId);
+                    insertDay.bindLong(2, date);
+                    insertDay.bindDouble(3, max);
+                    insertDay.bindDouble(4, min);
+                    insertDay.bindDouble(5, max);
+                    insertDay.bindDouble(6, min);
+                    insertDay.bindLong(7, cursor.getLong(COL_WEATHER_ID));
+                    if (insertDay.executeInsert() != -1) {
+                        rollUp(insertPeriod, rollUp, locationId, ArchiveEntry.PERIOD_WEEK,
+                                getWeekStart(date), max, min);
+                        rollUp(insertPeriod, rollUp, locationId, ArchiveEntry.PERIOD_MONTH,
+                                getMonthStart(date), max, min);
+                    }
+
+                    delete.bindLong(1, cursor.getLong(COL_ID));
+                    delete.executeUpdateDelete();
+                    WeatherProvider.addWeatherDate(dates, locationId, date);
+                    archived++;
+                }
+            } finally {
+                cursor.close();
+                insertDay.close();
+                insertPeriod.close();
+                rollUp.close();
+                delete.close();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return archived;
+    }
+
+    /**
+     * Drop the archived days that are more than a year older than archiveUpTo.
+     *
+     * @return how many were dropped.
+     */
+    int trimDays(long archiveUpTo) {
+        return mDb.delete(ArchiveEntry.TABLE_NAME,
+                ArchiveEntry.COLUMN_PERIOD + " = ? AND " + ArchiveEntry.COLUMN_START_DATE + " < ?",
+                new String[]{Integer.toString(ArchiveEntry.PERIOD_DAY),
+                        Long.toString(archiveUpTo - DAY_RETENTION_MILLIS)});
+    }
+
+    private static void rollUp(SQLiteStatement insertPeriod, SQLiteStatement rollUp,
+                               long locationId, int period, long startDate, double max,
+                               double min) {
+        insertPeriod.bindLong(1, locationId);
+        insertPeriod.bindLong(2, period);
+        insertPeriod.bindLong(3, startDate);
+        insertPeriod.bindDouble(4, max);
+        insertPeriod.bindDouble(5, min);
+        insertPeriod.executeInsert();
+
+        rollUp.bindDouble(1, max);
+        rollUp.bindDouble(2, min);
+        rollUp.bindLong(3, locationId);
+        rollUp.bindLong(4, period);
+        rollUp.bindLong(5, startDate);
+        rollUp.executeUpdateDelete();
+    }
+
+    // The Monday of the week of a normalized date
+    long getWeekStart(long date) {
+        mCalendar.setTimeInMillis(date);
+        // Sunday is 1 and Monday 2
+        int daysSinceMonday = (mCalendar.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+        mCalendar.add(Calendar.DAY_OF_MONTH, -daysSinceMonday);
+        return WeatherContract.normalizeDate(mCalendar.getTimeInMillis());
+    }
+
+    // The first of the month of a normalized date
+    long getMonthStart(long date) {
+        mCalendar.setTimeInMillis(date);
+        mCalendar.set(Calendar.DAY_OF_MONTH, 1);
+        return WeatherContract.normalizeDate(mCalendar.getTimeInMillis());
+    }
+}
@@ -19,7 +19,8 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +44,85 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_CITY = "city";
+
+    // Provider call() method that checkpoints the write-ahead log into the database, without
+    // waiting for readers. The result carries the frames in the log and those checkpointed.
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+    public static final String EXTRA_WAL_FRAMES = "wal_frames";
+    public static final String EXTRA_CHECKPOINTED_FRAMES = "checkpointed_frames";
+
+    // Provider call() method that reports on the cache of weather query results, in counts
+    // since the provider started.
+    public static final String METHOD_QUERY_CACHE_STATS = "query_cache_stats";
+    public static final String EXTRA_CACHE_HITS = "cache_hits";
+    public static final String EXTRA_CACHE_MISSES = "cache_misses";
+    public static final String EXTRA_CACHE_INVALIDATIONS = "cache_invalidations";
+    public static final String EXTRA_CACHE_SIZE = "cache_size";
+
+    // Provider call() method that moves the days up to and including the date in arg, in
+    // milliseconds, out of the weather table and into the archive. It works in short
+    // transactions of its own and stops after a time budget. The result carries how many days
+    // it moved and whether there are more to move.
+    public static final String METHOD_ARCHIVE = "archive";
+    public static final String EXTRA_ARCHIVED_DAYS = "archived_days";
+    public static final String EXTRA_ARCHIVE_PENDING = "archive_pending";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        // normalize the start date to the beginning of the day. This runs for every row that
+        // is written, so rather than a Time per call it keeps the bounds of the last day it
+        // saw, and dates within it cost two comparisons.
+        synchronized (sDayLock) {
+            long now = System.currentTimeMillis();
+            if (sDayZone == null || now - sDayZoneCheckedAt >= ZONE_CHECK_MILLIS
+                    || now < sDayZoneCheckedAt) {
+                // TimeZone.getDefault() hands out a copy, so only look now and then
+                sDayZone = TimeZone.getDefault();
+                sDayZoneCheckedAt = now;
+                sDayStart = Long.MAX_VALUE;
+                sDayEnd = Long.MIN_VALUE;
+            }
+            if (startDate < sDayStart || startDate >= sDayEnd) {
+                long offset = sDayZone.getOffset(startDate);
+                long localMidnight = floorDiv(startDate + offset, DAY_IN_MILLIS) * DAY_IN_MILLIS;
+                sDayStart = toUtc(localMidnight, offset);
+                sDayEnd = toUtc(localMidnight + DAY_IN_MILLIS, offset);
+            }
+            return sDayStart;
+        }
+    }
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    // How long normalizeDate trusts the time zone it last looked up
+    private static final long ZONE_CHECK_MILLIS = 60 * 1000;
+
+    private static final Object sDayLock = new Object();
+    private static TimeZone sDayZone;
+    private static long sDayZoneCheckedAt;
+    private static long sDayStart = Long.MAX_VALUE;
+    private static long sDayEnd = Long.MIN_VALUE;
+
+    // Forget the cached day and time zone, for tests that change the default zone
+    static void resetDayCache() {
+        synchronized (sDayLock) {
+            sDayZone = null;
+        }
+    }
+
+    // Local wall clock millis to UTC. The offset is the one of a nearby instant, which differs
+    // from the one at localMillis across a daylight saving change, so look it up again there.
+    private static long toUtc(long localMillis, long nearbyOffset) {
+        return localMillis - sDayZone.getOffset(localMillis - nearbyOffset);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,9 +152,47 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Geohash of the coordinates, which the provider keeps up to date itself. It is what
+        // the location/near queries look nearby locations up by.
+        public static final String COLUMN_GEOHASH = "geohash";
+
+        // Not stored: the distance in meters from the point of a location/near query
+        public static final String COLUMN_DISTANCE = "distance";
+
+        public static final String PATH_NEAR = "near";
+
+        // Query parameters of location/near: the point, in degrees, and the radius in meters
+        public static final String PARAM_LAT = "lat";
+        public static final String PARAM_LON = "lon";
+        public static final String PARAM_RADIUS = "radius";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * @return the uri of the locations within radiusMeters of a point, nearest first.
+         */
+        public static Uri buildLocationNear(double latitude, double longitude,
+                                            double radiusMeters) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAR)
+                    .appendQueryParameter(PARAM_LAT, Double.toString(latitude))
+                    .appendQueryParameter(PARAM_LON, Double.toString(longitude))
+                    .appendQueryParameter(PARAM_RADIUS, Double.toString(radiusMeters))
+                    .build();
+        }
+
+        public static double getLatitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_LAT));
+        }
+
+        public static double getLongitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_LON));
+        }
+
+        public static double getRadiusFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_RADIUS));
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -165,4 +274,216 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the hourly (3-hour step) forecast table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the forecast period, stored as long in milliseconds since the epoch.
+        // Unlike weather dates these are not normalized, OWM sends one every 3 hours.
+        public static final String COLUMN_TIMESTAMP = "timestamp";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Short description of the weather, as provided by API, e.g "Clear"
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+
+        // Temperature at that time (stored as a float)
+        public static final String COLUMN_TEMP = "temp";
+
+        // Humidity is stored as a float representing percentage
+        public static final String COLUMN_HUMIDITY = "humidity";
+
+        // Pressure is stored as a float, in hPa
+        public static final String COLUMN_PRESSURE = "pressure";
+
+        // Windspeed is stored as a float
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // Query parameters bounding a range query, both in milliseconds since the epoch.
+        // The start is inclusive and the end exclusive.
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        public static Uri buildHourlyUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyLocationWithRange(
+                String locationSetting, long startTime, long endTime) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(startTime))
+                    .appendQueryParameter(PARAM_END, Long.toString(endTime)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the start of the range, or 0 if the uri doesn't set one.
+         */
+        public static long getStartTimeFromUri(Uri uri) {
+            return getTimeParameter(uri, PARAM_START, 0);
+        }
+
+        /**
+         * @return the end of the range, or Long.MAX_VALUE if the uri doesn't set one.
+         */
+        public static long getEndTimeFromUri(Uri uri) {
+            return getTimeParameter(uri, PARAM_END, Long.MAX_VALUE);
+        }
+
+        private static long getTimeParameter(Uri uri, String name, long defaultValue) {
+            String value = uri.getQueryParameter(name);
+            if (null != value && value.length() > 0)
+                return Long.parseLong(value);
+            else
+                return defaultValue;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the archive of past days. Each day is
+        kept as a compact row of its own and is also rolled up into its week and its month,
+        which are kept after the days themselves are dropped.
+     */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "archive";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // One of the PERIOD_ constants
+        public static final String COLUMN_PERIOD = "period";
+        // First day of the period, normalized like the weather dates. Weeks start on Monday.
+        public static final String COLUMN_START_DATE = "start_date";
+        // How many days of the period have been archived
+        public static final String COLUMN_DAYS = "days";
+
+        // The highest high and the lowest low of the period (stored as floats)
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_MIN_TEMP = "min";
+        // The mean of the daily highs and of the daily lows (stored as floats)
+        public static final String COLUMN_MEAN_MAX_TEMP = "mean_max";
+        public static final String COLUMN_MEAN_MIN_TEMP = "mean_min";
+
+        // Weather id of the day, null for weeks and months
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        public static final int PERIOD_DAY = 0;
+        public static final int PERIOD_WEEK = 1;
+        public static final int PERIOD_MONTH = 2;
+
+        // Query parameters of a trend: the period, and the first date, inclusive
+        public static final String PARAM_PERIOD = "period";
+        public static final String PARAM_START = "start";
+
+        public static Uri buildArchiveLocation(String locationSetting, int period,
+                                               long startDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_PERIOD, Integer.toString(period))
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the period, or PERIOD_DAY if the uri doesn't set one.
+         */
+        public static int getPeriodFromUri(Uri uri) {
+            String period = uri.getQueryParameter(PARAM_PERIOD);
+            if (null != period && period.length() > 0)
+                return Integer.parseInt(period);
+            else
+                return PERIOD_DAY;
+        }
+
+        /**
+         * @return the first date, or 0 if the uri doesn't set one.
+         */
+        public static long getStartDateFromUri(Uri uri) {
+            String start = uri.getQueryParameter(PARAM_START);
+            if (null != start && start.length() > 0)
+                return Long.parseLong(start);
+            else
+                return 0;
+        }
+    }
+
+    /*
+        The names locations can be searched by as they are typed: every saved location, and
+        the cities of a list that comes with the app. Both are full-text indexes, so a prefix
+        of any word of a name finds it.
+     */
+    public static final class CityEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CITY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CITY;
+
+        // The bundled cities, most populous first
+        public static final String TABLE_NAME = "city";
+        // The saved locations, kept up to date with the location table by triggers. The docid
+        // of a row is the _id of its location.
+        public static final String SAVED_TABLE_NAME = "saved_city";
+
+        public static final String COLUMN_CITY_NAME = "city_name";
+        // The setting to store when a suggestion is picked, e.g. "London,GB"
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // Whether a suggestion is a saved location, computed. Saved locations come first.
+        public static final String COLUMN_SAVED = "saved";
+
+        // How many suggestions to return at most
+        public static final String PARAM_LIMIT = "limit";
+
+        public static Uri buildCitySearch(String prefix, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(prefix)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        public static String getPrefixFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the limit, or defaultLimit if the uri doesn't set one.
+         */
+        public static int getLimitFromUri(Uri uri, int defaultLimit) {
+            String limit = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limit && limit.length() > 0)
+                return Integer.parseInt(limit);
+            else
+                return defaultLimit;
+        }
+    }
 }
@@ -15,10 +15,14 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -28,12 +32,30 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 7;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Pages the write-ahead log may grow to before a commit checkpoints it, SQLite's own
+    // default. A sync adds a few dozen pages, so the log is folded back every few syncs rather
+    // than every hundred pages or so, as the platform sets it.
+    static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    // For the city list the city search is seeded with
+    private final Context mContext;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // For tests, which upgrade databases of their own
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        mContext = context;
+        // The sync writes while the list, the widgets and Muzei read. With a write-ahead log
+        // readers see the last committed state instead of waiting for the sync's transaction,
+        // and the platform opens a pool of reader connections next to the one writer.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -45,7 +67,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_GEOHASH + " TEXT" +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -81,18 +104,194 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        createHourlyTable(sqLiteDatabase);
+        createIndexes(sqLiteDatabase);
+        createArchiveTable(sqLiteDatabase);
+        createGeohashIndex(sqLiteDatabase);
+        CityIndex.createTables(sqLiteDatabase);
+        CityIndex.seed(mContext, sqLiteDatabase);
+    }
+
+    // The hourly table is a time series: one row per location and 3-hour step. The unique
+    // constraint leads with the location, so its index also serves range queries over the
+    // timestamps of one location. Added in version 3.
+    private static void createHourlyTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+                HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                // A newer forecast for the same step replaces the old one
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_TIMESTAMP + ") ON CONFLICT REPLACE);";
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+    }
+
+    // The forecast list asks for one location's days from a date on, sorted by date. The
+    // UNIQUE (date, location_id) index leads with the date, so it can't find one location's
+    // days without reading every location's. This index leads with the location and carries
+    // the columns of the list, so a list query never has to read the table rows.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    // Added in version 4
+    private static void createIndexes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_LOCATION_DATE +
+                " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ");");
+    }
+
+    // One row per location, period and first day of the period. The unique constraint leads
+    // with the location and the period, so its index serves the trend queries, which ask for
+    // one location's periods of one kind from a date on. Added in version 5.
+    private static void createArchiveTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                ArchiveEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+                ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_START_DATE + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+
+                ArchiveEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_MEAN_MAX_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_MEAN_MIN_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER, " +
+
+                " FOREIGN KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                // A period is rolled up into, never replaced
+                " UNIQUE (" + ArchiveEntry.COLUMN_LOC_KEY + ", " +
+                ArchiveEntry.COLUMN_PERIOD + ", " +
+                ArchiveEntry.COLUMN_START_DATE + ") ON CONFLICT ABORT);";
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+    }
+
+    // Nearby locations are looked up by the prefixes of the cells around a point, which are
+    // ranges of this index. Added in version 6.
+    static final String INDEX_LOCATION_GEOHASH = "location_geohash";
+
+    private static void createGeohashIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_LOCATION_GEOHASH +
+                " ON " + LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_GEOHASH + ");");
+    }
+
+    // The locations stored before version 6 get their geohash here, later ones from the
+    // provider.
+    private static void addGeohashes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                LocationEntry.COLUMN_GEOHASH + " TEXT");
+        Cursor cursor = sqLiteDatabase.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_COORD_LAT,
+                        LocationEntry.COLUMN_COORD_LONG},
+                null, null, null, null, null);
+        try {
+            ContentValues values = new ContentValues(1);
+            while (cursor.moveToNext()) {
+                values.put(LocationEntry.COLUMN_GEOHASH,
+                        GeoHash.encode(cursor.getDouble(1), cursor.getDouble(2)));
+                sqLiteDatabase.update(LocationEntry.TABLE_NAME, values,
+                        LocationEntry._ID + " = ?", new String[]{cursor.getString(0)});
+            }
+        } finally {
+            cursor.close();
+        }
+        createGeohashIndex(sqLiteDatabase);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Only the writer checkpoints, so the interval is set on its connection: a PRAGMA
+        // runs on the primary connection, and takes effect as it is prepared.
+        if (!db.isReadOnly() && db.isWriteAheadLoggingEnabled()) {
+            Cursor cursor = db.rawQuery("PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES,
+                    null);
+            cursor.close();
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        // The first launch after an update would otherwise show an empty list and sync every
+        // location again, so the database is upgraded in place, one version at a time. The
+        // whole upgrade runs in one transaction, so it either completes or leaves the old
+        // version as it was.
+        if (oldVersion < OLDEST_UPGRADABLE_VERSION) {
+            // Version 1 kept its dates in another format, there is nothing worth keeping.
+            dropTables(sqLiteDatabase);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            upgradeFrom(sqLiteDatabase, version);
+        }
+        if (oldVersion < 7) {
+            CityIndex.seed(mContext, sqLiteDatabase);
+        }
+    }
+
+    // The oldest version onUpgrade carries the data over from
+    static final int OLDEST_UPGRADABLE_VERSION = 2;
+
+    /**
+     * Upgrade a database of the given version to the next one. A schema change goes into
+     * onCreate and into a new case here, which must only add to what the earlier versions
+     * built.
+     */
+    private static void upgradeFrom(SQLiteDatabase sqLiteDatabase, int version) {
+        switch (version) {
+            case 2:
+                createHourlyTable(sqLiteDatabase);
+                break;
+            case 3:
+                createIndexes(sqLiteDatabase);
+                break;
+            case 4:
+                createArchiveTable(sqLiteDatabase);
+                break;
+            case 5:
+                addGeohashes(sqLiteDatabase);
+                break;
+            case 6:
+                CityIndex.createTables(sqLiteDatabase);
+                break;
+            default:
+                throw new IllegalStateException("No upgrade from version " + version);
+        }
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // This database is only a cache for online data, so a schema from a newer version of
+        // the app, which this one can't know, is discarded and the data synced again.
+        dropTables(sqLiteDatabase);
+        onCreate(sqLiteDatabase);
+    }
+
+    private static void dropTables(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
+        CityIndex.dropTables(sqLiteDatabase);
     }
 }
@@ -17,25 +17,57 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private final WeatherQueryCache mQueryCache = new WeatherQueryCache();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int LOCATION_NEAR = 301;
+    static final int HOURLY = 400;
+    static final int HOURLY_WITH_LOCATION = 401;
+    static final int ARCHIVE = 500;
+    static final int ARCHIVE_WITH_LOCATION = 501;
+    static final int CITY_SEARCH = 600;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sArchiveByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,6 +81,26 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        //archive INNER JOIN location ON archive.location_id = location._id
+        sArchiveByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sArchiveByLocationSettingQueryBuilder.setTables(
+                WeatherContract.ArchiveEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.ArchiveEntry.TABLE_NAME +
+                        "." + WeatherContract.ArchiveEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
@@ -68,6 +120,23 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND timestamp >= ? AND timestamp < ?
+    private static final String sLocationSettingWithTimeRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIMESTAMP + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIMESTAMP + " < ? ";
+
+    //location.location_setting = ? AND period = ? AND start_date >= ?
+    private static final String sLocationSettingWithPeriodSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.ArchiveEntry.COLUMN_PERIOD + " = ? AND " +
+                    WeatherContract.ArchiveEntry.COLUMN_START_DATE + " >= ? ";
+
+    private static final String sArchiveSortOrder =
+            WeatherContract.ArchiveEntry.COLUMN_START_DATE + " ASC";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -108,6 +177,396 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long startTime = WeatherContract.HourlyEntry.getStartTimeFromUri(uri);
+        long endTime = WeatherContract.HourlyEntry.getEndTimeFromUri(uri);
+
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithTimeRangeSelection,
+                new String[]{locationSetting, Long.toString(startTime), Long.toString(endTime)},
+                null,
+                null,
+                sortOrder == null ? WeatherContract.HourlyEntry.COLUMN_TIMESTAMP + " ASC" : sortOrder
+        );
+    }
+
+    // A trend, e.g. the daily highs of the last 90 days: one location's periods of one kind
+    // from a date on, oldest first
+    private Cursor getArchiveByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+        int period = WeatherContract.ArchiveEntry.getPeriodFromUri(uri);
+        long startDate = WeatherContract.ArchiveEntry.getStartDateFromUri(uri);
+
+        return sArchiveByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithPeriodSelection,
+                new String[]{locationSetting, Integer.toString(period), Long.toString(startDate)},
+                null,
+                null,
+                sortOrder == null ? sArchiveSortOrder : sortOrder
+        );
+    }
+
+    // What a location/near query reads of each candidate, to measure and answer with
+    private static final String[] NEAR_CANDIDATE_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final int NEAR_COL_COORD_LAT = 3;
+    private static final int NEAR_COL_COORD_LONG = 4;
+
+    // The columns a location/near result can have, the candidate columns and the distance
+    private static final String[] NEAR_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_DISTANCE
+    };
+
+    private static Set<String> getNearPrefixes(Uri uri) {
+        return GeoHash.coveringPrefixes(
+                WeatherContract.LocationEntry.getLatitudeFromUri(uri),
+                WeatherContract.LocationEntry.getLongitudeFromUri(uri),
+                WeatherContract.LocationEntry.getRadiusFromUri(uri));
+    }
+
+    //(geohash >= ? AND geohash < ?) OR ..., a range of the geohash index per prefix
+    private static String buildPrefixSelection(int prefixes) {
+        StringBuilder selection = new StringBuilder();
+        for (int i = 0; i < prefixes; i++) {
+            if (i > 0) {
+                selection.append(" OR ");
+            }
+            selection.append('(').append(WeatherContract.LocationEntry.COLUMN_GEOHASH)
+                    .append(" >= ? AND ").append(WeatherContract.LocationEntry.COLUMN_GEOHASH)
+                    .append(" < ?)");
+        }
+        return selection.toString();
+    }
+
+    /**
+     * The locations within the radius of the point of a location/near uri, nearest first.
+     * The geohash index narrows them down to those in the cells around the point, and of
+     * those only the ones that are close enough are kept.
+     */
+    private Cursor queryLocationsNear(Uri uri, String[] projection) {
+        double latitude = WeatherContract.LocationEntry.getLatitudeFromUri(uri);
+        double longitude = WeatherContract.LocationEntry.getLongitudeFromUri(uri);
+        double radius = WeatherContract.LocationEntry.getRadiusFromUri(uri);
+        if (projection == null) {
+            projection = NEAR_COLUMNS;
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = Arrays.asList(NEAR_COLUMNS).indexOf(projection[i]);
+            if (columns[i] == -1) {
+                throw new IllegalArgumentException("Unknown column " + projection[i]
+                        + " for " + uri);
+            }
+        }
+
+        Set<String> prefixes = GeoHash.coveringPrefixes(latitude, longitude, radius);
+        String selection = null;
+        String[] selectionArgs = null;
+        if (prefixes != null) {
+            selection = buildPrefixSelection(prefixes.size());
+            selectionArgs = new String[prefixes.size() * 2];
+            int i = 0;
+            for (String prefix : prefixes) {
+                selectionArgs[i++] = prefix;
+                selectionArgs[i++] = prefix + GeoHash.PREFIX_END;
+            }
+        }
+        List<Object[]> rows = new ArrayList<Object[]>();
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME, NEAR_CANDIDATE_COLUMNS, selection,
+                selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                double distance = GeoHash.distanceMeters(latitude, longitude,
+                        cursor.getDouble(NEAR_COL_COORD_LAT),
+                        cursor.getDouble(NEAR_COL_COORD_LONG));
+                if (distance <= radius) {
+                    rows.add(new Object[]{cursor.getLong(0), cursor.getString(1),
+                            cursor.getString(2), cursor.getDouble(3), cursor.getDouble(4),
+                            distance});
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        final int distanceColumn = NEAR_COLUMNS.length - 1;
+        Collections.sort(rows, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] lhs, Object[] rhs) {
+                return Double.compare((Double) lhs[distanceColumn], (Double) rhs[distanceColumn]);
+            }
+        });
+
+        MatrixCursor result = new MatrixCursor(projection, rows.size());
+        for (Object[] row : rows) {
+            Object[] projected = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                projected[i] = row[columns[i]];
+            }
+            result.addRow(projected);
+        }
+        return result;
+    }
+
+    // The columns of a city suggestion
+    private static final String[] CITY_COLUMNS = {
+            WeatherContract.CityEntry._ID,
+            WeatherContract.CityEntry.COLUMN_CITY_NAME,
+            WeatherContract.CityEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.CityEntry.COLUMN_SAVED
+    };
+
+    private Cursor searchCities(Uri uri, String[] projection) {
+        String match = CityIndex.buildMatch(WeatherContract.CityEntry.getPrefixFromUri(uri));
+        if (match == null) {
+            // Nothing typed that could match a name
+            return new MatrixCursor(projection == null ? CITY_COLUMNS : projection, 0);
+        }
+        return mOpenHelper.getReadableDatabase().rawQuery(
+                buildQuerySql(uri, projection, null, null), new String[]{match});
+    }
+
+    private static void putGeohash(ContentValues values) {
+        Double latitude = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        Double longitude = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        if (latitude != null && longitude != null) {
+            values.put(WeatherContract.LocationEntry.COLUMN_GEOHASH,
+                    GeoHash.encode(latitude, longitude));
+        }
+    }
+
+    /**
+     * The SQL that query() runs for a URI, with the arguments left as placeholders. This is
+     * what the tests hand to EXPLAIN QUERY PLAN, so it must stay in step with query().
+     */
+    static String buildQuerySql(Uri uri, String[] projection, String selection,
+                                String sortOrder) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return sWeatherByLocationSettingQueryBuilder.buildQuery(projection,
+                        sLocationSettingAndDaySelection, null, null, sortOrder, null);
+            case WEATHER_WITH_LOCATION:
+                return sWeatherByLocationSettingQueryBuilder.buildQuery(projection,
+                        WeatherContract.WeatherEntry.getStartDateFromUri(uri) == 0
+                                ? sLocationSettingSelection
+                                : sLocationSettingWithStartDateSelection,
+                        null, null, sortOrder, null);
+            case WEATHER:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.WeatherEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case LOCATION:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.LocationEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case LOCATION_NEAR: {
+                Set<String> prefixes = getNearPrefixes(uri);
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.LocationEntry.TABLE_NAME, NEAR_CANDIDATE_COLUMNS,
+                        prefixes == null ? null : buildPrefixSelection(prefixes.size()),
+                        null, null, null, null);
+            }
+            case HOURLY_WITH_LOCATION:
+                return sHourlyByLocationSettingQueryBuilder.buildQuery(projection,
+                        sLocationSettingWithTimeRangeSelection, null, null,
+                        sortOrder == null
+                                ? WeatherContract.HourlyEntry.COLUMN_TIMESTAMP + " ASC"
+                                : sortOrder,
+                        null);
+            case HOURLY:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.HourlyEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case ARCHIVE_WITH_LOCATION:
+                return sArchiveByLocationSettingQueryBuilder.buildQuery(projection,
+                        sLocationSettingWithPeriodSelection, null, null,
+                        sortOrder == null ? sArchiveSortOrder : sortOrder, null);
+            case ARCHIVE:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.ArchiveEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case CITY_SEARCH:
+                return CityIndex.buildSearchSql(projection, WeatherContract.CityEntry
+                        .getLimitFromUri(uri, CityIndex.DEFAULT_LIMIT));
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
+    /**
+     * Answer a weather/&lt;location&gt; or weather/&lt;location&gt;/&lt;date&gt; query from the
+     * query cache, or read it with every cached column and keep it.
+     */
+    private Cursor queryWeatherCached(Uri uri, String[] projection, String sortOrder) {
+        int[] columns = WeatherQueryCache.mapProjection(projection);
+        boolean byDate = sUriMatcher.match(uri) == WEATHER_WITH_LOCATION_AND_DATE;
+        if (columns == null) {
+            return byDate
+                    ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                    : getWeatherByLocationSetting(uri, projection, sortOrder);
+        }
+
+        String key = WeatherQueryCache.key(uri.toString(), sortOrder);
+        Cursor cached = mQueryCache.get(key, columns);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mQueryCache.getGeneration();
+        if (byDate) {
+            long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+            return mQueryCache.put(key, generation, getWeatherByLocationSettingAndDate(
+                    uri, WeatherQueryCache.COLUMNS, sortOrder), columns, date, date);
+        }
+        return mQueryCache.put(key, generation, getWeatherByLocationSetting(
+                        uri, WeatherQueryCache.COLUMNS, sortOrder), columns,
+                WeatherContract.WeatherEntry.getStartDateFromUri(uri), Long.MAX_VALUE);
+    }
+
+    // For each location, the first and last date of the weather rows a selection matches
+    private static Map<Long, long[]> queryWeatherDates(
+            SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Map<Long, long[]> dates = new HashMap<Long, long[]>();
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        "MIN(" + WeatherContract.WeatherEntry.COLUMN_DATE + ")",
+                        "MAX(" + WeatherContract.WeatherEntry.COLUMN_DATE + ")"},
+                selection, selectionArgs, WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                null, null);
+        try {
+            while (cursor.moveToNext()) {
+                dates.put(cursor.getLong(0), new long[]{cursor.getLong(1), cursor.getLong(2)});
+            }
+        } finally {
+            cursor.close();
+        }
+        return dates;
+    }
+
+    static void addWeatherDate(Map<Long, long[]> dates, long locationId, long date) {
+        long[] range = dates.get(locationId);
+        if (range == null) {
+            dates.put(locationId, new long[]{date, date});
+        } else {
+            range[0] = Math.min(range[0], date);
+            range[1] = Math.max(range[1], date);
+        }
+    }
+
+    /**
+     * Drop the cached results holding the given dates of each location and notify their
+     * observers, or put both off until the batch being applied ends.
+     */
+    private void weatherChanged(Map<Long, long[]> dates) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            for (Map.Entry<Long, long[]> entry : dates.entrySet()) {
+                addWeatherDate(batch.weatherDates, entry.getKey(), entry.getValue()[0]);
+                addWeatherDate(batch.weatherDates, entry.getKey(), entry.getValue()[1]);
+            }
+            return;
+        }
+        invalidateWeather(dates);
+        notifyWeather(dates);
+    }
+
+    // For writes that can't tell which rows they moved where
+    private void allWeatherChanged() {
+        invalidateAllCached();
+        notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+    }
+
+    private void invalidateWeather(Map<Long, long[]> dates) {
+        for (Map.Entry<Long, long[]> entry : dates.entrySet()) {
+            mQueryCache.invalidate(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+        }
+    }
+
+    /**
+     * Notify the observers of the changed dates only, rather than of all the weather. When a
+     * single date of a location changed, that is weather/&lt;location&gt;/&lt;date&gt;, which
+     * leaves the detail screens of its other days alone. Otherwise it is weather/&lt;location&gt;
+     * once, which reaches its forecast list and all of its days. A notification reaches the
+     * observers of its descendants, so one per date would reload the list once per date.
+     */
+    private void notifyWeather(Map<Long, long[]> dates) {
+        if (dates.isEmpty()) {
+            return;
+        }
+        ContentResolver resolver = getContext().getContentResolver();
+        Map<Long, String> settings = queryLocationSettings(dates.keySet());
+        if (settings.size() < dates.size()) {
+            // A location went away with its weather, so there is no URI to scope it to
+            resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            return;
+        }
+        for (Map.Entry<Long, long[]> entry : dates.entrySet()) {
+            String setting = settings.get(entry.getKey());
+            long[] range = entry.getValue();
+            resolver.notifyChange(range[0] == range[1]
+                    ? WeatherContract.WeatherEntry.buildWeatherLocationWithDate(setting, range[0])
+                    : WeatherContract.WeatherEntry.buildWeatherLocation(setting), null);
+        }
+    }
+
+    // The location setting of each location id that still exists
+    private Map<Long, String> queryLocationSettings(Set<Long> locationIds) {
+        Map<Long, String> settings = new HashMap<Long, String>();
+        String[] args = new String[locationIds.size()];
+        StringBuilder selection = new StringBuilder(WeatherContract.LocationEntry._ID)
+                .append(" IN (");
+        int i = 0;
+        for (Long locationId : locationIds) {
+            selection.append(i == 0 ? "?" : ",?");
+            args[i++] = Long.toString(locationId);
+        }
+        selection.append(')');
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection.toString(), args, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                settings.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return settings;
+    }
+
+    private void invalidateAllCached() {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.invalidateAll = true;
+        } else {
+            mQueryCache.invalidateAll();
+        }
+    }
+
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.notifyUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +589,15 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_CITY + "/*", CITY_SEARCH);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_NEAR, LOCATION_NEAR);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
         return matcher;
     }
 
@@ -164,6 +632,18 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_NEAR:
+                return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case HOURLY:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case ARCHIVE:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case CITY_SEARCH:
+                return WeatherContract.CityEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -178,13 +658,9 @@ public class WeatherProvider extends ContentProvider {
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = queryWeatherCached(uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -213,6 +689,52 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/near"
+            case LOCATION_NEAR: {
+                retCursor = queryLocationsNear(uri, projection);
+                break;
+            }
+            // "city/*"
+            case CITY_SEARCH: {
+                retCursor = searchCities(uri, projection);
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION: {
+                retCursor = getArchiveByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "archive"
+            case ARCHIVE: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ArchiveEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -233,25 +755,44 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id = insertRow(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                        SQL_INSERT_WEATHER, WEATHER_INSERT_COLUMNS, WEATHER_INSERT_DATE_INDEX,
+                        values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                Map<Long, long[]> dates = new HashMap<Long, long[]>();
+                addWeatherDate(dates, values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                weatherChanged(dates);
                 break;
             }
             case LOCATION: {
+                putGeohash(values);
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                // Cached results carry location columns too
+                invalidateAllCached();
+                notifyChange(uri);
+                break;
+            }
+            case HOURLY: {
+                long _id = insertRow(db, WeatherContract.HourlyEntry.TABLE_NAME,
+                        SQL_INSERT_HOURLY, HOURLY_INSERT_COLUMNS, -1, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.HourlyEntry.buildHourlyUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyChange(uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
 
@@ -263,20 +804,41 @@ public class WeatherProvider extends ContentProvider {
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+            case WEATHER: {
+                // Find out what the selection covers, so only those cached results are dropped
+                // and only their observers are told
+                Map<Long, long[]> dates;
+                db.beginTransactionNonExclusive();
+                try {
+                    dates = queryWeatherDates(db, selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                weatherChanged(dates);
+                return rowsDeleted;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                invalidateAllCached();
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case ARCHIVE:
+                rowsDeleted = db.delete(
+                        WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -297,49 +859,335 @@ public class WeatherProvider extends ContentProvider {
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
+                Map<Long, long[]> dates;
+                db.beginTransactionNonExclusive();
+                try {
+                    dates = queryWeatherDates(db, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                    // Rows moved to other days or locations
+                    if (rowsUpdated != 0) {
+                        allWeatherChanged();
+                    }
+                } else {
+                    weatherChanged(dates);
+                }
+                return rowsUpdated;
+            }
             case LOCATION:
+                putGeohash(values);
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                invalidateAllCached();
+                if (rowsUpdated != 0 && values.containsKey(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)) {
+                    // The weather of the location is now found under another setting
+                    notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+                }
+                break;
+            case HOURLY:
+                rowsUpdated = db.update(WeatherContract.HourlyEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                return bulkInsertCompiled(uri, SQL_INSERT_WEATHER, WEATHER_INSERT_COLUMNS,
+                        WEATHER_INSERT_DATE_INDEX, values);
+            case HOURLY:
+                return bulkInsertCompiled(uri, SQL_INSERT_HOURLY, HOURLY_INSERT_COLUMNS, -1,
+                        values);
+            default:
+                return super.bulkInsert(uri, values);
+        }
+    }
+
+    /**
+     * A sync writes a batch of rows per location, so rather than one db.insert per row, which
+     * parses its SQL again every time, they are written through a single compiled statement,
+     * in one transaction. Rows that fail are skipped, as db.insert would.
+     * Weather observers are only told about the days written.
+     *
+     * @param dateIndex the index in columns of a date to normalize, or -1
+     */
+    private int bulkInsertCompiled(Uri uri, String sql, String[] columns, int dateIndex,
+                                   ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int returnCount = 0;
+        // The weather dates written, by location, to drop the cached results holding them
+        Map<Long, long[]> dates = new HashMap<Long, long[]>();
+        db.beginTransactionNonExclusive();
+        try {
+            SQLiteStatement statement = db.compileStatement(sql);
+            try {
+                for (ContentValues value : values) {
+                    bindRow(statement, columns, dateIndex, value);
+                    try {
+                        if (statement.executeInsert() != -1) {
                             returnCount++;
+                            if (dateIndex != -1) {
+                                addWeatherDate(dates, value.getAsLong(columns[0]),
+                                        WeatherContract.normalizeDate(
+                                                value.getAsLong(columns[dateIndex])));
+                            }
                         }
+                    } catch (SQLException e) {
+                        Log.e(LOG_TAG, "Error inserting " + value, e);
                     }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
-            default:
-                return super.bulkInsert(uri, values);
+            } finally {
+                statement.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (dateIndex != -1) {
+            weatherChanged(dates);
+        } else if (returnCount != 0) {
+            notifyChange(uri);
+        }
+        return returnCount;
+    }
+
+    // Columns of SQL_INSERT_WEATHER, in binding order
+    private static final String[] WEATHER_INSERT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final int WEATHER_INSERT_DATE_INDEX = 1;
+
+    private static final String SQL_INSERT_WEATHER = buildInsertSql(
+            WeatherContract.WeatherEntry.TABLE_NAME, WEATHER_INSERT_COLUMNS);
+
+    // Columns of SQL_INSERT_HOURLY, in binding order
+    private static final String[] HOURLY_INSERT_COLUMNS = {
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY,
+            WeatherContract.HourlyEntry.COLUMN_TIMESTAMP,
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+            WeatherContract.HourlyEntry.COLUMN_SHORT_DESC,
+            WeatherContract.HourlyEntry.COLUMN_TEMP,
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+            WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+            WeatherContract.HourlyEntry.COLUMN_DEGREES
+    };
+
+    private static final String SQL_INSERT_HOURLY = buildInsertSql(
+            WeatherContract.HourlyEntry.TABLE_NAME, HOURLY_INSERT_COLUMNS);
+
+    //INSERT INTO table (a, b, ...) VALUES (?, ?, ...)
+    private static String buildInsertSql(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (")
+                .append(TextUtils.join(", ", columns)).append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(")").toString();
+    }
+
+    private static void bindRow(SQLiteStatement statement, String[] columns, int dateIndex,
+                                ContentValues value) {
+        statement.clearBindings();
+        for (int i = 0; i < columns.length; i++) {
+            Object column = value.get(columns[i]);
+            if (column == null) {
+                // Leave it unbound, the NOT NULL constraint rejects the row
+                continue;
+            }
+            if (i == dateIndex) {
+                statement.bindLong(i + 1,
+                        WeatherContract.normalizeDate(((Number) column).longValue()));
+            } else if (column instanceof String) {
+                statement.bindString(i + 1, (String) column);
+            } else if (column instanceof Double || column instanceof Float) {
+                statement.bindDouble(i + 1, ((Number) column).doubleValue());
+            } else {
+                statement.bindLong(i + 1, ((Number) column).longValue());
+            }
+        }
+    }
+
+    /**
+     * What a batch has put off until it commits. Cached results are only dropped then, or a
+     * reader could store what it read before the commit, and observers are told once per URI.
+     */
+    private static class Batch {
+        final Set<Uri> notifyUris = new LinkedHashSet<Uri>();
+        final Map<Long, long[]> weatherDates = new HashMap<Long, long[]>();
+        boolean invalidateAll;
+        // Inserts of the batch reuse one compiled statement per table
+        final Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+    }
+
+    // The batch being applied on the calling thread, if any
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    /**
+     * Apply the operations in one transaction: either all of them take effect or none do.
+     * Observers get one notification per URI once the batch has committed, rather than one
+     * per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (mBatch.get() != null) {
+            // Already inside a batch, which this one simply joins
+            return super.applyBatch(operations);
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        mBatch.set(batch);
+        boolean successful = false;
+        db.beginTransactionNonExclusive();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+            return results;
+        } finally {
+            for (SQLiteStatement statement : batch.statements.values()) {
+                statement.close();
+            }
+            db.endTransaction();
+            mBatch.remove();
+            // Invalidate even after a rollback, it costs no more than a cache miss.
+            if (batch.invalidateAll) {
+                mQueryCache.invalidateAll();
+            } else {
+                invalidateWeather(batch.weatherDates);
+            }
+            if (successful) {
+                for (Uri uri : batch.notifyUris) {
+                    notifyChange(uri);
+                }
+                // Unless all the weather was notified already
+                if (!batch.notifyUris.contains(WeatherContract.WeatherEntry.CONTENT_URI)) {
+                    notifyWeather(batch.weatherDates);
+                }
+            }
+        }
+    }
+
+    /**
+     * Insert one row, through the batch's compiled statement when in a batch.
+     *
+     * @return the row id, or -1 on failure.
+     */
+    private long insertRow(SQLiteDatabase db, String table, String sql, String[] columns,
+                           int dateIndex, ContentValues values) {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            return db.insert(table, null, values);
+        }
+        SQLiteStatement statement = batch.statements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            batch.statements.put(sql, statement);
+        }
+        bindRow(statement, columns, dateIndex, values);
+        return statement.executeInsert();
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_CHECKPOINT.equals(method)) {
+            return checkpoint();
+        }
+        if (WeatherContract.METHOD_ARCHIVE.equals(method)) {
+            return archive(Long.parseLong(arg));
+        }
+        if (WeatherContract.METHOD_QUERY_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.EXTRA_CACHE_HITS, mQueryCache.getHits());
+            result.putLong(WeatherContract.EXTRA_CACHE_MISSES, mQueryCache.getMisses());
+            result.putLong(WeatherContract.EXTRA_CACHE_INVALIDATIONS,
+                    mQueryCache.getInvalidations());
+            result.putInt(WeatherContract.EXTRA_CACHE_SIZE, mQueryCache.size());
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    // How long one call to archive() may keep going, chunk after chunk
+    static final long ARCHIVE_BUDGET_MILLIS = 250;
+
+    /**
+     * Move the days up to and including archiveUpTo into the archive. Each chunk commits on
+     * its own, so a sync or a reader waits for one chunk at most, and once the time budget is
+     * spent the rest is left for the next call.
+     */
+    private Bundle archive(long archiveUpTo) {
+        WeatherArchiver archiver = new WeatherArchiver(mOpenHelper.getWritableDatabase());
+        Map<Long, long[]> dates = new HashMap<Long, long[]>();
+        int archived = 0;
+        boolean pending;
+        long deadline = SystemClock.elapsedRealtime() + ARCHIVE_BUDGET_MILLIS;
+        do {
+            int chunk = archiver.archiveChunk(archiveUpTo, dates);
+            archived += chunk;
+            pending = chunk == WeatherArchiver.CHUNK_DAYS;
+        } while (pending && SystemClock.elapsedRealtime() < deadline);
+        int trimmed = archiver.trimDays(archiveUpTo);
+
+        weatherChanged(dates);
+        if (archived != 0 || trimmed != 0) {
+            notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+        }
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ARCHIVED_DAYS, archived);
+        result.putBoolean(WeatherContract.EXTRA_ARCHIVE_PENDING, pending);
+        return result;
+    }
+
+    /**
+     * Commits checkpoint the log on their own, every
+     * {@link WeatherDbHelper#WAL_AUTOCHECKPOINT_PAGES} pages. This is for whoever needs the log
+     * folded back right away, e.g. a test. PASSIVE copies whatever pages no reader still needs
+     * and never blocks them.
+     */
+    private Bundle checkpoint() {
+        Bundle result = new Bundle();
+        Cursor cursor = mOpenHelper.getWritableDatabase().rawQuery(
+                "PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            // busy, log, checkpointed
+            if (cursor.moveToFirst()) {
+                result.putInt(WeatherContract.EXTRA_WAL_FRAMES, cursor.getInt(1));
+                result.putInt(WeatherContract.EXTRA_CHECKPOINTED_FRAMES, cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
         }
+        return result;
     }
 
     // You do not need to call this method. This is a method specifically to assist the testing
@@ -0,0 +1,253 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recent results of the weather/&lt;location&gt; and weather/&lt;location&gt;/&lt;date&gt;
+ * queries. After a sync, the notification, the watch face, the widget, Muzei and the detail
+ * screen all ask for today's forecast of the preferred location, each with a projection of
+ * its own. So a result is kept with every column of the join, and each caller's projection
+ * is picked out of it, which turns the whole fan-out into one read of the database.
+ *
+ * Results are immutable snapshots. An entry remembers the location id and the range of dates
+ * it covers, and writes drop only the entries whose location and dates they touch.
+ */
+class WeatherQueryCache {
+
+    // Every column a cached result holds, in this order. Callers ask for the ids qualified,
+    // since both tables of the join have one.
+    static final String[] COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final int COL_LOC_KEY = 1;
+
+    // The names the columns come back under, which is what SQLite calls them
+    private static final String[] COLUMN_NAMES = new String[COLUMNS.length];
+
+    static {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            COLUMN_NAMES[i] = COLUMNS[i].substring(COLUMNS[i].indexOf('.') + 1);
+        }
+    }
+
+    static final int MAX_ENTRIES = 32;
+    // A location's forecast is at most 16 days, with a day of history. Longer results are
+    // answered but not kept.
+    static final int MAX_ROWS = 32;
+
+    private static class Entry {
+        final Object[][] rows;
+        final long locationId;
+        final long firstDate;
+        final long lastDate;
+
+        Entry(Object[][] rows, long locationId, long firstDate, long lastDate) {
+            this.rows = rows;
+            this.locationId = locationId;
+            this.firstDate = firstDate;
+            this.lastDate = lastDate;
+        }
+    }
+
+    // In access order, so the least recently used entry is the first to go
+    private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    // Bumped by every invalidation, so a result read before a write can't be stored after it
+    private long mGeneration;
+
+    private long mHits;
+    private long mMisses;
+    private long mInvalidations;
+
+    /**
+     * @return the position in {@link #COLUMNS} of each column of the projection, or null if
+     * a cached result can't answer it, e.g. because it asks for an expression.
+     */
+    static int[] mapProjection(String[] projection) {
+        if (projection == null) {
+            int[] all = new int[COLUMNS.length];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = indexOf(projection[i]);
+            if (columns[i] == -1) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        // Unqualified, only if the name isn't in both tables
+        for (int i = 0; i < COLUMN_NAMES.length; i++) {
+            if (COLUMN_NAMES[i].equals(column) && !column.equals(WeatherEntry._ID)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String key(String uri, String sortOrder) {
+        return sortOrder == null ? uri : uri + "\n" + sortOrder;
+    }
+
+    /**
+     * @param columns the projection, as mapped by {@link #mapProjection(String[])}
+     * @return the cached result with the projection applied, or null on a miss.
+     */
+    synchronized Cursor get(String key, int[] columns) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return project(entry.rows, columns);
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Read a result holding every one of {@link #COLUMNS}, keep it unless a write has come
+     * in since generation was read, and answer the query with it. The cursor is closed.
+     *
+     * @param firstDate the first date the query covers
+     * @param lastDate the last date the query covers
+     */
+    Cursor put(String key, long generation, Cursor full, int[] columns, long firstDate,
+               long lastDate) {
+        Object[][] rows;
+        try {
+            rows = new Object[full.getCount()][];
+            int r = 0;
+            while (full.moveToNext()) {
+                Object[] row = new Object[COLUMNS.length];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = getValue(full, i);
+                }
+                rows[r++] = row;
+            }
+        } finally {
+            full.close();
+        }
+        // Nothing to tell which location an empty result belongs to, so it isn't kept.
+        if (rows.length > 0 && rows.length <= MAX_ROWS) {
+            long locationId = ((Number) rows[0][COL_LOC_KEY]).longValue();
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    mEntries.put(key, new Entry(rows, locationId, firstDate, lastDate));
+                }
+            }
+        }
+        return project(rows, columns);
+    }
+
+    /**
+     * Drop the results holding any date of a location between firstDate and lastDate.
+     */
+    synchronized void invalidate(long locationId, long firstDate, long lastDate) {
+        mGeneration++;
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.locationId == locationId
+                    && entry.firstDate <= lastDate && firstDate <= entry.lastDate) {
+                it.remove();
+                mInvalidations++;
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mInvalidations += mEntries.size();
+        mEntries.clear();
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    synchronized long getInvalidations() {
+        return mInvalidations;
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    private static Cursor project(Object[][] rows, int[] columns) {
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            names[i] = COLUMN_NAMES[columns[i]];
+        }
+        MatrixCursor cursor = new MatrixCursor(names, rows.length);
+        for (Object[] row : rows) {
+            Object[] projected = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                projected[i] = row[columns[i]];
+            }
+            cursor.addRow(projected);
+        }
+        return cursor;
+    }
+
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+}
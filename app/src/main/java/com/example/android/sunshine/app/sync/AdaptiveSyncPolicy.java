@@ -0,0 +1,66 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Stretches or shrinks a base interval depending on how often the forecast has been changing,
+ * the time of day, whether anyone is looking at the weather, and the power and network state.
+ * The result is always kept between {@link #MIN_INTERVAL} and {@link #MAX_INTERVAL}, and it
+ * never reaches past the end of the next night.
+ */
+public class AdaptiveSyncPolicy implements SyncPolicy {
+
+    // 60 seconds (1 minute) * 60 = 1 hour
+    static final int MIN_INTERVAL = 60 * 60;
+    // 60 seconds (1 minute) * 720 = 12 hours
+    static final int MAX_INTERVAL = 60 * 720;
+
+    /* Night hours, local time, during which forecasts are rarely looked at */
+    private static final int NIGHT_START_HOUR = 0;
+    static final int NIGHT_END_HOUR = 6;
+
+    /* Change rates above and below which the forecast counts as volatile or stable */
+    private static final float VOLATILE_CHANGE_RATE = 0.75f;
+    private static final float STABLE_CHANGE_RATE = 0.25f;
+
+    private final int mBaseInterval;
+
+    public AdaptiveSyncPolicy(int baseInterval) {
+        mBaseInterval = baseInterval;
+    }
+
+    @Override
+    public int computeInterval(SyncConditions conditions) {
+        float interval = mBaseInterval;
+
+        // Follow the weather: sync more when it keeps changing, less when it doesn't.
+        if (conditions.changeRate >= VOLATILE_CHANGE_RATE) {
+            interval /= 2;
+        } else if (conditions.changeRate <= STABLE_CHANGE_RATE) {
+            interval *= 2;
+        }
+
+        if (conditions.hourOfDay >= NIGHT_START_HOUR && conditions.hourOfDay < NIGHT_END_HOUR) {
+            interval *= 2;
+        }
+
+        // Nothing on screen shows the weather, so freshness matters less.
+        if (!conditions.displayed) {
+            interval *= 2;
+        }
+
+        if (conditions.batteryLow && !conditions.charging) {
+            interval *= 2;
+        } else if (conditions.charging && conditions.unmetered) {
+            // Syncing is close to free right now.
+            interval /= 2;
+        }
+
+        // The morning is when forecasts get read, so however long the interval got, the next
+        // sync comes by the end of the night, counted from the start of this hour.
+        int hoursToMorning = (NIGHT_END_HOUR - conditions.hourOfDay + 24) % 24;
+        if (hoursToMorning > 0) {
+            interval = Math.min(interval, hoursToMorning * 60 * 60);
+        }
+
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, Math.round(interval)));
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+/**
+ * Stops us from hammering a server that keeps failing. After a run of consecutive failures
+ * the breaker opens and rejects every request for a cool-down period. It then lets a single
+ * trial request through: success closes it again, failure re-opens it.
+ *
+ * One breaker is shared by every location, since they all talk to the same server.
+ */
+public class CircuitBreaker {
+
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+
+    private int mState = STATE_CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedAt;
+    private boolean mTrialInFlight;
+    private int mTimesOpened;
+
+    /**
+     * @param failureThreshold consecutive failures after which the breaker opens
+     * @param openMillis how long the breaker stays open before allowing a trial request
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * @return true if a request may be made now. In the half-open state only one caller at a
+     * time is let through.
+     */
+    public synchronized boolean allowRequest() {
+        if (mState == STATE_OPEN && now() - mOpenedAt >= mOpenMillis) {
+            mState = STATE_HALF_OPEN;
+            mTrialInFlight = false;
+        }
+        switch (mState) {
+            case STATE_CLOSED:
+                return true;
+            case STATE_HALF_OPEN:
+                if (mTrialInFlight) {
+                    return false;
+                }
+                mTrialInFlight = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        mConsecutiveFailures = 0;
+        mTrialInFlight = false;
+        mState = STATE_CLOSED;
+    }
+
+    /**
+     * The request was let through but its outcome says nothing about the server, e.g. a 4xx
+     * for a bad location, or an error on our side. The run of failures is left as it is, and
+     * in the half-open state the next trial request is let through.
+     */
+    public synchronized void onNeutral() {
+        mTrialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        mConsecutiveFailures++;
+        mTrialInFlight = false;
+        if (mState == STATE_HALF_OPEN || mConsecutiveFailures >= mFailureThreshold) {
+            if (mState != STATE_OPEN) {
+                mTimesOpened++;
+            }
+            mState = STATE_OPEN;
+            mOpenedAt = now();
+        }
+    }
+
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * @return how many times the breaker has tripped.
+     */
+    public synchronized int getTimesOpened() {
+        return mTimesOpened;
+    }
+
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    static String stateToString(int state) {
+        switch (state) {
+            case STATE_CLOSED:
+                return "closed";
+            case STATE_OPEN:
+                return "open";
+            case STATE_HALF_OPEN:
+                return "half-open";
+            default:
+                return "unknown";
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Remembers the location and the day each consumer of the forecast was last sent. A sync tells
+ * a consumer when the forecast it shows changed, but also when the preferred location or the
+ * day moved on while the stored forecast stayed the same, e.g. after switching to a location
+ * that was synced already, or at midnight.
+ */
+class FanOutTracker {
+
+    /** The widgets, which show the upcoming days. */
+    static final String CONSUMER_WIDGETS = "widgets";
+    /** Muzei and the watch face, which only show today. */
+    static final String CONSUMER_TODAY = "today";
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+
+    FanOutTracker(Context context) {
+        mContext = context;
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /**
+     * @param changed whether this sync changed what the consumer shows of the location
+     * @return true if the consumer needs to be told about the location on the given day.
+     */
+    boolean isDue(String consumer, String locationSetting, long date, boolean changed) {
+        return changed || !toMark(locationSetting, date).equals(
+                mPrefs.getString(getKey(consumer), null));
+    }
+
+    void markSent(String consumer, String locationSetting, long date) {
+        mPrefs.edit().putString(getKey(consumer), toMark(locationSetting, date)).apply();
+    }
+
+    /**
+     * Forget what was sent, so that every consumer is told on the next sync.
+     */
+    void reset() {
+        mPrefs.edit()
+                .remove(getKey(CONSUMER_WIDGETS))
+                .remove(getKey(CONSUMER_TODAY))
+                .apply();
+    }
+
+    private String getKey(String consumer) {
+        return mContext.getString(R.string.pref_last_fanout_key) + "/" + consumer;
+    }
+
+    private static String toMark(String locationSetting, long date) {
+        return date + "/" + locationSetting;
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Counters for the requests made to OpenWeatherMap, kept for as long as the sync adapter
+ * lives.
+ */
+public class FetchMetrics {
+
+    private int mAttempts;
+    private int mSuccesses;
+    private int mFailures;
+    private int mRetries;
+    private int mRejected;
+    private long mTotalLatencyMillis;
+    private long mMaxLatencyMillis;
+
+    /**
+     * Record an attempt that reached the server, or failed trying.
+     */
+    public synchronized void recordAttempt(boolean success, long latencyMillis) {
+        mAttempts++;
+        if (success) {
+            mSuccesses++;
+        } else {
+            mFailures++;
+        }
+        mTotalLatencyMillis += latencyMillis;
+        mMaxLatencyMillis = Math.max(mMaxLatencyMillis, latencyMillis);
+    }
+
+    public synchronized void recordRetry() {
+        mRetries++;
+    }
+
+    /**
+     * Record a request the circuit breaker didn't let through.
+     */
+    public synchronized void recordRejected() {
+        mRejected++;
+    }
+
+    public synchronized int getAttempts() {
+        return mAttempts;
+    }
+
+    public synchronized int getSuccesses() {
+        return mSuccesses;
+    }
+
+    public synchronized int getFailures() {
+        return mFailures;
+    }
+
+    public synchronized int getRetries() {
+        return mRetries;
+    }
+
+    public synchronized int getRejected() {
+        return mRejected;
+    }
+
+    public synchronized long getMeanLatencyMillis() {
+        return mAttempts == 0 ? 0 : mTotalLatencyMillis / mAttempts;
+    }
+
+    public synchronized long getMaxLatencyMillis() {
+        return mMaxLatencyMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mAttempts + " attempts (" + mSuccesses + " ok, " + mFailures + " failed, "
+                + mRetries + " retries, " + mRejected + " rejected), latency mean "
+                + getMeanLatencyMillis() + "ms max " + mMaxLatencyMillis + "ms";
+    }
+}
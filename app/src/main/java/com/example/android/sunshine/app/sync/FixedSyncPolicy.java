@@ -0,0 +1,19 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Always syncs at the same interval, whatever the conditions. This is how Sunshine has
+ * always behaved, and is the baseline the adaptive policy is measured against.
+ */
+public class FixedSyncPolicy implements SyncPolicy {
+
+    private final int mInterval;
+
+    public FixedSyncPolicy(int interval) {
+        mInterval = interval;
+    }
+
+    @Override
+    public int computeInterval(SyncConditions conditions) {
+        return mInterval;
+    }
+}
@@ -0,0 +1,393 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small on-disk HTTP cache for the forecast endpoint. For every location query it keeps the
+ * validators of the last response (ETag, Last-Modified, Date) and a hash of its body, sends
+ * conditional requests, and tells the caller when nothing has changed so that storing can be
+ * skipped.
+ *
+ * Bodies themselves aren't kept: the caller parses a body straight off the connection while
+ * it is hashed, and the forecast it decodes is what gets stored. A 304 therefore only means
+ * something while the rows of the last body are still in the database, and the caller evicts
+ * the key when they aren't. Fetches for different keys may run concurrently and share the
+ * {@link ForecastHttpClient} and its keep-alive pool.
+ */
+public class ForecastHttpCache {
+
+    private static final String TAG = "ForecastHttpCache";
+
+    private static final String CACHE_DIR = "forecast";
+    private static final String META_SUFFIX = ".meta";
+
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "last-modified";
+    private static final String META_DATE = "date";
+    private static final String META_HASH = "hash";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_DATE = "Date";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /** The server sent a body we haven't seen for this query. */
+    public static final int RESULT_MODIFIED = 0;
+    /** The server answered 304 Not Modified. */
+    public static final int RESULT_NOT_MODIFIED = 1;
+    /** The server sent a full body, but it hashes the same as the last one. */
+    public static final int RESULT_UNCHANGED_BODY = 2;
+
+    /**
+     * Thrown when the server answers with a status other than 200 or 304.
+     */
+    public static class HttpStatusException extends IOException {
+        private final int mStatus;
+
+        public HttpStatusException(int status, String message) {
+            super(message);
+            mStatus = status;
+        }
+
+        public int getStatus() {
+            return mStatus;
+        }
+
+        /**
+         * @return true for statuses that say the server is struggling rather than that the
+         * request was wrong.
+         */
+        public boolean isServerError() {
+            return mStatus >= HttpURLConnection.HTTP_INTERNAL_ERROR || mStatus == 429;
+        }
+    }
+
+    /**
+     * The outcome of a fetch. A 200 comes with its body, which the caller reads from
+     * {@link #getBody()} and then hands back with {@link #finish()}. Whatever happens, the
+     * caller must {@link #close()} the response.
+     */
+    public class Response {
+        private final String mKey;
+        private final File mMetaFile;
+        private final Properties mMeta;
+        private final ForecastHttpClient.Exchange mExchange;
+        private final MessageDigest mDigest;
+        private final InputStream mBody;
+        private int mResult;
+        private long mReceived;
+        private boolean mFinished;
+
+        /* A 304, finished already */
+        Response(String key) {
+            mKey = key;
+            mMetaFile = null;
+            mMeta = null;
+            mExchange = null;
+            mDigest = null;
+            mBody = null;
+            mResult = RESULT_NOT_MODIFIED;
+            mFinished = true;
+        }
+
+        /* A 200, whose body is still to be read */
+        Response(String key, File metaFile, Properties meta, ForecastHttpClient.Exchange exchange)
+                throws IOException {
+            mKey = key;
+            mMetaFile = metaFile;
+            mMeta = meta;
+            mExchange = exchange;
+            mDigest = newDigest();
+            mBody = new BufferedInputStream(new DigestInputStream(exchange.getBody(), mDigest),
+                    BUFFER_SIZE);
+            mResult = RESULT_MODIFIED;
+        }
+
+        public int getResult() {
+            return mResult;
+        }
+
+        /**
+         * @return true if the body differs from the last one for this query. Until the
+         * response is finished, every body counts as modified.
+         */
+        public boolean isModified() {
+            return mResult == RESULT_MODIFIED;
+        }
+
+        /**
+         * @return true if the server sent a body, i.e. this isn't a 304.
+         */
+        public boolean hasBody() {
+            return mExchange != null;
+        }
+
+        /**
+         * @return the decompressed body, straight off the connection. It is hashed as it is
+         * read and mustn't be closed by the caller.
+         */
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        /**
+         * Read what is left of the body, hand the connection back to the keep-alive pool, and
+         * remember the validators and the hash of the body for the next fetch. Only finish a
+         * response whose body was put to use: an unfinished one leaves the cache entry as it
+         * was, so the next fetch asks for the body again.
+         *
+         * @return true if the body differs from the last one for this query.
+         */
+        public boolean finish() throws IOException {
+            if (mFinished) {
+                return isModified();
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (mBody.read(buffer) != -1) {
+                // hashed on the way
+            }
+            mReceived = mExchange.getCompressedBytes();
+            mExchange.close();
+            mFinished = true;
+            mBytesReceived.addAndGet(mReceived);
+
+            String hash = toHex(mDigest.digest());
+            updateValidators(mMeta, mExchange);
+            if (hash.equals(mMeta.getProperty(META_HASH))) {
+                mUnchangedBodyCount.incrementAndGet();
+                mResult = RESULT_UNCHANGED_BODY;
+            } else {
+                mMeta.setProperty(META_HASH, hash);
+            }
+            writeMeta(mMetaFile, mMeta);
+            return isModified();
+        }
+
+        /**
+         * @return the number of body bytes that came over the network for this fetch, before
+         * decompression, once it is finished.
+         */
+        public long getBytesReceived() {
+            return mReceived;
+        }
+
+        /**
+         * Release the response. One that wasn't finished drops its connection.
+         */
+        public void close() {
+            if (!mFinished) {
+                mFinished = true;
+                mExchange.disconnect();
+                Log.d(TAG, "Abandoned the response for " + mKey);
+            }
+        }
+    }
+
+    private final File mDirectory;
+    private final ForecastHttpClient mClient;
+
+    /* Counters, kept for as long as this cache instance lives */
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+    private final AtomicInteger mUnchangedBodyCount = new AtomicInteger();
+    private final AtomicLong mBytesReceived = new AtomicLong();
+
+    public ForecastHttpCache(File directory) {
+        this(directory, new ForecastHttpClient());
+    }
+
+    public ForecastHttpCache(File directory, ForecastHttpClient client) {
+        mDirectory = directory;
+        mClient = client;
+    }
+
+    public static ForecastHttpCache create(Context context) {
+        return new ForecastHttpCache(new File(context.getCacheDir(), CACHE_DIR));
+    }
+
+    /**
+     * @return the client requests go through, with its compression counters.
+     */
+    public ForecastHttpClient getClient() {
+        return mClient;
+    }
+
+    /**
+     * Request the url, sending the validators cached under the given key.
+     *
+     * @param url the forecast request
+     * @param key identifies the location query, e.g. the location setting or "lat,lon". Two
+     *            fetches for the same key must not run at the same time.
+     * @throws IOException if the request fails or the server answers with an unexpected status.
+     */
+    public Response fetch(URL url, String key) throws IOException {
+        if (!mDirectory.mkdirs() && !mDirectory.isDirectory()) {
+            throw new IOException("Unable to create cache directory " + mDirectory);
+        }
+        File metaFile = new File(mDirectory, fileNameForKey(key) + META_SUFFIX);
+        Properties meta = readMeta(metaFile);
+
+        Map<String, String> headers = new HashMap<String, String>();
+        String etag = meta.getProperty(META_ETAG);
+        if (etag != null) {
+            headers.put(HEADER_IF_NONE_MATCH, etag);
+        }
+        String lastModified = meta.getProperty(META_LAST_MODIFIED);
+        if (lastModified != null) {
+            headers.put(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+
+        ForecastHttpClient.Exchange exchange = mClient.open(url, headers);
+        boolean handedOver = false;
+        try {
+            mRequestCount.incrementAndGet();
+
+            int status = exchange.getStatus();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && !headers.isEmpty()) {
+                mNotModifiedCount.incrementAndGet();
+                updateValidators(meta, exchange);
+                writeMeta(metaFile, meta);
+                exchange.close();
+                handedOver = true;
+                return new Response(key);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(status, "Unexpected response " + status + " for " + key);
+            }
+
+            Response response = new Response(key, metaFile, meta, exchange);
+            handedOver = true;
+            return response;
+        } finally {
+            // The response finishes or drops the connection from here on.
+            if (!handedOver) {
+                exchange.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Forget everything cached under the given key, so that the next fetch is unconditional.
+     */
+    public void evict(String key) {
+        new File(mDirectory, fileNameForKey(key) + META_SUFFIX).delete();
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    public int getUnchangedBodyCount() {
+        return mUnchangedBodyCount.get();
+    }
+
+    /**
+     * @return the number of body bytes downloaded by this cache, as sent over the network.
+     */
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    private static void updateValidators(Properties meta, ForecastHttpClient.Exchange exchange) {
+        putIfPresent(meta, META_ETAG, exchange.getHeaderField(HEADER_ETAG));
+        putIfPresent(meta, META_LAST_MODIFIED, exchange.getHeaderField(HEADER_LAST_MODIFIED));
+        putIfPresent(meta, META_DATE, exchange.getHeaderField(HEADER_DATE));
+    }
+
+    private static void putIfPresent(Properties meta, String key, String value) {
+        if (value != null) {
+            meta.setProperty(key, value);
+        }
+    }
+
+    private static Properties readMeta(File metaFile) {
+        Properties meta = new Properties();
+        if (!metaFile.exists()) {
+            return meta;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(metaFile);
+            meta.load(in);
+        } catch (IOException e) {
+            // A broken entry just means an unconditional request.
+            Log.e(TAG, "Error reading cache entry " + metaFile, e);
+            meta.clear();
+        } finally {
+            closeQuietly(in);
+        }
+        return meta;
+    }
+
+    private static void writeMeta(File metaFile, Properties meta) throws IOException {
+        OutputStream out = new FileOutputStream(metaFile);
+        try {
+            meta.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing stream", e);
+            }
+        }
+    }
+
+    private static String fileNameForKey(String key) {
+        try {
+            return toHex(newDigest().digest(key.getBytes("UTF-8")));
+        } catch (IOException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is always available on Android
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
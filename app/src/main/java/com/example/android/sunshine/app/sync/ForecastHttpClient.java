@@ -0,0 +1,275 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The HTTP transport for forecast downloads. It asks for gzip or deflate itself, rather than
+ * leaving it to HttpURLConnection, so that it can count the bytes on the wire as well as the
+ * bytes that come out of the decompressor. Bodies are decompressed as they stream in and are
+ * never held in memory.
+ *
+ * Exchanges that are read to the end are closed rather than disconnected, which hands their
+ * connection back to the platform keep-alive pool. Its default of five idle connections per
+ * host already covers the parallel fetches of a sync, and idle connections outlive a single
+ * sync, so back-to-back syncs skip the TCP handshake too.
+ */
+public class ForecastHttpClient {
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /* Per-attempt timeouts, so a stalled server can't hold up the sync */
+    static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+    static final int READ_TIMEOUT_MS = 20 * 1000;
+
+    /**
+     * One request and its response. The body must either be read to the end and the exchange
+     * closed, or the exchange disconnected.
+     */
+    public class Exchange {
+        private final HttpURLConnection mConnection;
+        private CountingInputStream mCompressed;
+        private CountingInputStream mDecompressed;
+
+        Exchange(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        public int getStatus() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        public String getHeaderField(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * @return the decompressed body. Only one stream is handed out per exchange.
+         */
+        public InputStream getBody() throws IOException {
+            if (mDecompressed == null) {
+                mCompressed = new CountingInputStream(mConnection.getInputStream());
+                String encoding = mConnection.getHeaderField(HEADER_CONTENT_ENCODING);
+                mDecompressed = new CountingInputStream(decoderFor(encoding, mCompressed));
+            }
+            return mDecompressed;
+        }
+
+        /**
+         * @return the body bytes read off the network so far.
+         */
+        public long getCompressedBytes() {
+            return mCompressed == null ? 0 : mCompressed.mCount;
+        }
+
+        /**
+         * @return the body bytes handed to the caller so far.
+         */
+        public long getDecompressedBytes() {
+            return mDecompressed == null ? 0 : mDecompressed.mCount;
+        }
+
+        /**
+         * Finish an exchange whose body was read to the end, or that had none, leaving the
+         * connection in the keep-alive pool.
+         */
+        public void close() throws IOException {
+            record();
+            if (mDecompressed != null) {
+                mDecompressed.close();
+            } else {
+                // Still drain the (empty) body, which releases the connection.
+                mConnection.getInputStream().close();
+            }
+        }
+
+        /**
+         * Abandon the exchange and its connection, e.g. after an error part way through.
+         */
+        public void disconnect() {
+            record();
+            mConnection.disconnect();
+            if (mDecompressed != null) {
+                // Frees the decoder, which may hold native memory.
+                try {
+                    mDecompressed.close();
+                } catch (IOException e) {
+                    // the connection is gone already
+                }
+            }
+        }
+
+        private void record() {
+            mCompressedBytes.addAndGet(getCompressedBytes());
+            mDecompressedBytes.addAndGet(getDecompressedBytes());
+            SyncMetrics metrics = SyncMetrics.getInstance();
+            metrics.increment(SyncMetrics.COUNTER_BYTES_RECEIVED, getCompressedBytes());
+            metrics.increment(SyncMetrics.COUNTER_BYTES_DECOMPRESSED, getDecompressedBytes());
+        }
+    }
+
+    /* Counters, kept for as long as this client lives */
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicLong mCompressedBytes = new AtomicLong();
+    private final AtomicLong mDecompressedBytes = new AtomicLong();
+
+    /**
+     * Send a GET request and wait for the response headers.
+     *
+     * @param headers extra request headers, may be null
+     */
+    public Exchange open(URL url, Map<String, String> headers) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            urlConnection.setReadTimeout(READ_TIMEOUT_MS);
+            // Caching is up to the caller, keep any platform response cache out of the way.
+            urlConnection.setUseCaches(false);
+            urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING);
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    urlConnection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            // connect() covers the DNS lookup and the TCP handshake, unless a pooled
+            // connection is reused, and the status line is the first byte of the response.
+            SyncMetrics metrics = SyncMetrics.getInstance();
+            long start = SyncMetrics.startTimer();
+            urlConnection.connect();
+            metrics.recordSince(SyncMetrics.STAGE_CONNECT, start);
+            mRequestCount.incrementAndGet();
+            metrics.increment(SyncMetrics.COUNTER_REQUESTS, 1);
+            // Wait for the status line, so that connection failures surface here.
+            start = SyncMetrics.startTimer();
+            urlConnection.getResponseCode();
+            metrics.recordSince(SyncMetrics.STAGE_FIRST_BYTE, start);
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+        return new Exchange(urlConnection);
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return the body bytes received over the network by finished exchanges.
+     */
+    public long getCompressedBytes() {
+        return mCompressedBytes.get();
+    }
+
+    /**
+     * @return the body bytes after decompression, for finished exchanges.
+     */
+    public long getDecompressedBytes() {
+        return mDecompressedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        long compressed = mCompressedBytes.get();
+        long decompressed = mDecompressedBytes.get();
+        return mRequestCount.get() + " requests, " + compressed + " bytes received, "
+                + decompressed + " bytes decompressed"
+                + (compressed == 0 ? "" : " (x" + (float) decompressed / compressed + ")");
+    }
+
+    private static InputStream decoderFor(String encoding, InputStream in) throws IOException {
+        if (ENCODING_GZIP.equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+            // "deflate" is meant to be zlib wrapped, but some servers send it raw.
+            BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean zlib = (cmf & 0x0f) == 8 && flg >= 0 && ((cmf << 8) | flg) % 31 == 0;
+            return new EndingInflaterInputStream(buffered, new Inflater(!zlib));
+        }
+        return in;
+    }
+
+    /**
+     * An InflaterInputStream over an Inflater of its own. InflaterInputStream only ends the
+     * Inflater it creates itself, so this one ends it on close, rather than leaving its native
+     * memory to the finalizer.
+     */
+    private static class EndingInflaterInputStream extends InflaterInputStream {
+        private boolean mClosed;
+
+        EndingInflaterInputStream(InputStream in, Inflater inflater) {
+            super(in, inflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes that pass through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        volatile long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
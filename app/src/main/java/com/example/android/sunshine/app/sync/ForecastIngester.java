@@ -0,0 +1,422 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Writes incoming forecasts by difference. Every day is compared with the row already stored
+ * for its location and date, and only new and changed days are written, after which the
+ * expired days are moved into the archive. The resulting {@link ChangeSet} says what actually
+ * changed, so that only the consumers that show those days need to be told.
+ *
+ * Hourly steps are written whole, since the cache has already dropped unchanged responses
+ * and a new forecast moves almost every step. They go in as one batch, and steps older than
+ * the retention window are removed.
+ *
+ * Locations that aren't stored yet are inserted in the same batch as their forecast, so a
+ * sync is one provider transaction. Only the archiving of past days runs apart, after it.
+ */
+public class ForecastIngester {
+
+    private static final String LOG_TAG = ForecastIngester.class.getSimpleName();
+
+    // The columns that make up a day's forecast, i.e. the ones worth comparing.
+    private static final String[] COMPARED_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // these indices must match the projection
+    private static final int COL_DATE = 0;
+    private static final int COL_WEATHER_ID = 1;
+    private static final int COL_SHORT_DESC = 2;
+    private static final int COL_MIN_TEMP = 3;
+    private static final int COL_MAX_TEMP = 4;
+    private static final int COL_HUMIDITY = 5;
+    private static final int COL_PRESSURE = 6;
+    private static final int COL_WIND_SPEED = 7;
+    private static final int COL_DEGREES = 8;
+
+    // Keys of the locations inserted by the commit count down from here, -1 meaning none
+    private static final long FIRST_NEW_LOCATION_KEY = -2;
+
+    /**
+     * What a commit changed, per location.
+     */
+    public static class ChangeSet {
+        private final Map<Long, Set<Long>> mChangedDates = new HashMap<Long, Set<Long>>();
+        private int mInserted;
+        private int mChanged;
+        private int mUnchanged;
+        private int mExpired;
+        private int mHourlyWritten;
+        private int mHourlyExpired;
+        private boolean mFailed;
+
+        void addChangedDate(long locationId, long date) {
+            Set<Long> dates = mChangedDates.get(locationId);
+            if (dates == null) {
+                dates = new HashSet<Long>();
+                mChangedDates.put(locationId, dates);
+            }
+            dates.add(date);
+        }
+
+        /**
+         * @return true if no day was inserted, changed or expired. Hourly steps don't count,
+         * the daily forecast is what tells whether the weather changed.
+         */
+        public boolean isEmpty() {
+            return mChangedDates.isEmpty() && mExpired == 0;
+        }
+
+        /**
+         * @return true if any day of the location was inserted or changed.
+         */
+        public boolean hasChanges(long locationId) {
+            return mChangedDates.containsKey(locationId);
+        }
+
+        /**
+         * @return true if the given day of the location was inserted or changed.
+         */
+        public boolean hasChangedDay(long locationId, long date) {
+            Set<Long> dates = mChangedDates.get(locationId);
+            return dates != null && dates.contains(WeatherContract.normalizeDate(date));
+        }
+
+        public int getInsertedCount() {
+            return mInserted;
+        }
+
+        public int getChangedCount() {
+            return mChanged;
+        }
+
+        public int getUnchangedCount() {
+            return mUnchanged;
+        }
+
+        public int getExpiredCount() {
+            return mExpired;
+        }
+
+        public int getHourlyWrittenCount() {
+            return mHourlyWritten;
+        }
+
+        public int getHourlyExpiredCount() {
+            return mHourlyExpired;
+        }
+
+        /**
+         * @return true if the batch couldn't be written, in which case nothing was.
+         */
+        public boolean hasFailed() {
+            return mFailed;
+        }
+
+        @Override
+        public String toString() {
+            if (mFailed) {
+                return "failed";
+            }
+            return mInserted + " inserted, " + mChanged + " changed, "
+                    + mUnchanged + " unchanged, " + mExpired + " expired, "
+                    + mHourlyWritten + " hourly steps written, " + mHourlyExpired + " expired";
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final List<ContentValues> mPendingLocations = new ArrayList<ContentValues>();
+    private final List<ContentValues> mPendingRows = new ArrayList<ContentValues>();
+    private final List<ContentValues> mPendingHourlyRows = new ArrayList<ContentValues>();
+    private final ChangeSet mChangeSet = new ChangeSet();
+
+    public ForecastIngester(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Queue the insert of a location that isn't stored yet, so that it goes in with its
+     * forecast or not at all. Its days and steps are added under the returned key, which the
+     * commit turns into the ID of the new row. The change set reports them under the key.
+     */
+    public long addLocation(ContentValues location) {
+        mPendingLocations.add(location);
+        return FIRST_NEW_LOCATION_KEY - (mPendingLocations.size() - 1);
+    }
+
+    /**
+     * Compare a location's incoming days against what is stored and keep the ones that need
+     * writing. The days get their location key and a normalized date.
+     *
+     * @param locationId the row ID of the location, or the key {@link #addLocation} returned
+     */
+    public void add(long locationId, List<ContentValues> days) {
+        if (days.isEmpty()) {
+            return;
+        }
+        long firstDate = Long.MAX_VALUE;
+        for (ContentValues day : days) {
+            long date = WeatherContract.normalizeDate(day.getAsLong(WeatherEntry.COLUMN_DATE));
+            day.put(WeatherEntry.COLUMN_DATE, date);
+            day.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            firstDate = Math.min(firstDate, date);
+        }
+
+        long start = SyncMetrics.startTimer();
+        // A location that is still to be inserted has nothing stored.
+        Map<Long, ContentValues> stored = locationId <= FIRST_NEW_LOCATION_KEY
+                ? new HashMap<Long, ContentValues>()
+                : queryStoredDays(locationId, firstDate);
+        for (ContentValues day : days) {
+            long date = day.getAsLong(WeatherEntry.COLUMN_DATE);
+            ContentValues storedDay = stored.get(date);
+            if (storedDay == null) {
+                mChangeSet.mInserted++;
+            } else if (!sameForecast(storedDay, day)) {
+                mChangeSet.mChanged++;
+            } else {
+                mChangeSet.mUnchanged++;
+                continue;
+            }
+            mChangeSet.addChangedDate(locationId, date);
+            mPendingRows.add(day);
+        }
+        SyncMetrics.getInstance().recordSince(SyncMetrics.STAGE_DIFF, start);
+    }
+
+    /**
+     * Queue a copy of the days stored for another location, from the given date on, e.g. for
+     * a new location close enough to share its forecast.
+     *
+     * @param locationId the row ID of the location, or the key {@link #addLocation} returned
+     * @return the copied days, the earliest first.
+     */
+    public List<ContentValues> addCopy(long locationId, long fromLocationId, long firstDate) {
+        List<ContentValues> days = new ArrayList<ContentValues>();
+        for (Map.Entry<Long, ContentValues> stored
+                : queryStoredDays(fromLocationId, firstDate).entrySet()) {
+            ContentValues day = new ContentValues(stored.getValue());
+            day.put(WeatherEntry.COLUMN_DATE, stored.getKey());
+            days.add(day);
+        }
+        add(locationId, days);
+        return days;
+    }
+
+    /**
+     * Queue a location's hourly steps for writing. The steps get their location key.
+     *
+     * @param locationId the row ID of the location, or the key {@link #addLocation} returned
+     */
+    public void addHourly(long locationId, List<ContentValues> hours) {
+        for (ContentValues hour : hours) {
+            hour.put(HourlyEntry.COLUMN_LOC_KEY, locationId);
+            mPendingHourlyRows.add(hour);
+        }
+    }
+
+    /**
+     * Write the new locations and the new and changed days in one transaction, then move every
+     * day up to and including the given date into the archive, which commits on its own. Hourly
+     * steps are kept.
+     *
+     * @return what changed.
+     */
+    public ChangeSet commit(long expiredUpTo) {
+        return commit(expiredUpTo, 0);
+    }
+
+    /**
+     * Like {@link #commit(long)}, and also write the queued hourly steps of every location,
+     * and delete the steps that start before the given time, in the same transaction as the
+     * days.
+     *
+     * @return what changed. If the batch failed, an empty change set that says so.
+     */
+    public ChangeSet commit(long expiredUpTo, long hourlyExpiredBefore) {
+        // Everything goes to the provider as one batch, which it applies in one transaction
+        // and follows with a single change notification per URI, so the loaders showing the
+        // forecast reload once per sync rather than once per write.
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(
+                mPendingLocations.size() + mPendingHourlyRows.size() + mPendingRows.size() + 1);
+        // The new locations come first, for the rows below to refer back to.
+        for (ContentValues location : mPendingLocations) {
+            operations.add(ContentProviderOperation.newInsert(
+                    WeatherContract.LocationEntry.CONTENT_URI).withValues(location).build());
+        }
+        int firstHourlyIndex = operations.size();
+        for (ContentValues hour : mPendingHourlyRows) {
+            operations.add(newInsert(HourlyEntry.CONTENT_URI, hour, HourlyEntry.COLUMN_LOC_KEY));
+        }
+        int hourlyDeleteIndex = -1;
+        if (hourlyExpiredBefore > 0) {
+            hourlyDeleteIndex = operations.size();
+            operations.add(ContentProviderOperation.newDelete(HourlyEntry.CONTENT_URI)
+                    .withSelection(HourlyEntry.COLUMN_TIMESTAMP + " < ?",
+                            new String[]{Long.toString(hourlyExpiredBefore)})
+                    .build());
+        }
+        // Changed days simply replace the stored ones through ON CONFLICT REPLACE
+        int firstDayIndex = operations.size();
+        for (ContentValues day : mPendingRows) {
+            operations.add(newInsert(WeatherEntry.CONTENT_URI, day, WeatherEntry.COLUMN_LOC_KEY));
+        }
+        int lastDayIndex = operations.size();
+        mPendingLocations.clear();
+        mPendingHourlyRows.clear();
+        mPendingRows.clear();
+
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        ContentProviderResult[] results;
+        long start = SyncMetrics.startTimer();
+        try {
+            results = mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | SQLException e) {
+            // Nothing was written, not even the good rows of a batch with a bad one, and the next
+            // sync will find the same differences.
+            Log.e(LOG_TAG, "Error writing forecasts", e);
+            ChangeSet failed = new ChangeSet();
+            failed.mFailed = true;
+            return failed;
+        }
+        metrics.recordSince(SyncMetrics.STAGE_APPLY_BATCH, start);
+
+        int hourlyWritten = countInserted(results, firstHourlyIndex, hourlyDeleteIndex == -1
+                ? firstDayIndex : hourlyDeleteIndex);
+        int inserted = countInserted(results, firstDayIndex, lastDayIndex);
+        mChangeSet.mHourlyWritten += hourlyWritten;
+        metrics.increment(SyncMetrics.COUNTER_HOURLY_ROWS_INSERTED, hourlyWritten);
+        metrics.increment(SyncMetrics.COUNTER_ROWS_INSERTED, inserted);
+        if (hourlyDeleteIndex != -1) {
+            int deleted = results[hourlyDeleteIndex].count;
+            metrics.increment(SyncMetrics.COUNTER_HOURLY_ROWS_DELETED, deleted);
+            mChangeSet.mHourlyExpired += deleted;
+        }
+
+        // Rather than deleted in the batch, past days are archived in chunks of their own,
+        // after the new forecast is in. This is best effort: the forecast is committed either
+        // way, and the days left behind are archived by the next sync.
+        start = SyncMetrics.startTimer();
+        int expired = 0;
+        try {
+            Bundle archived = mResolver.call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_ARCHIVE, Long.toString(expiredUpTo), null);
+            if (archived != null) {
+                expired = archived.getInt(WeatherContract.EXTRA_ARCHIVED_DAYS);
+            } else {
+                Log.w(LOG_TAG, "No result archiving past days");
+            }
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error archiving past days", e);
+        }
+        metrics.recordSince(SyncMetrics.STAGE_ARCHIVE, start);
+        metrics.increment(SyncMetrics.COUNTER_ROWS_ARCHIVED, expired);
+        mChangeSet.mExpired += expired;
+        return mChangeSet;
+    }
+
+    /**
+     * An insert of a row that belongs to a location, which refers back to the insert of the
+     * location when it is a new one.
+     */
+    private static ContentProviderOperation newInsert(Uri uri, ContentValues values,
+                                                      String locationColumn) {
+        ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(uri)
+                .withValues(values);
+        long locationKey = values.getAsLong(locationColumn);
+        if (locationKey <= FIRST_NEW_LOCATION_KEY) {
+            // Takes the place of the key, with the ID the location insert returns
+            builder.withValueBackReference(locationColumn,
+                    (int) (FIRST_NEW_LOCATION_KEY - locationKey));
+        }
+        return builder.build();
+    }
+
+    private static int countInserted(ContentProviderResult[] results, int from, int to) {
+        int inserted = 0;
+        for (int i = from; i < to; i++) {
+            if (results[i].uri != null) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    private Map<Long, ContentValues> queryStoredDays(long locationId, long firstDate) {
+        // In date order
+        Map<Long, ContentValues> stored = new TreeMap<Long, ContentValues>();
+        Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI,
+                COMPARED_COLUMNS,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(locationId), Long.toString(firstDate)},
+                null);
+        if (cursor == null) {
+            return stored;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues values = new ContentValues();
+                values.put(WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(COL_WEATHER_ID));
+                values.put(WeatherEntry.COLUMN_SHORT_DESC, cursor.getString(COL_SHORT_DESC));
+                values.put(WeatherEntry.COLUMN_MIN_TEMP, cursor.getDouble(COL_MIN_TEMP));
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, cursor.getDouble(COL_MAX_TEMP));
+                values.put(WeatherEntry.COLUMN_HUMIDITY, cursor.getDouble(COL_HUMIDITY));
+                values.put(WeatherEntry.COLUMN_PRESSURE, cursor.getDouble(COL_PRESSURE));
+                values.put(WeatherEntry.COLUMN_WIND_SPEED, cursor.getDouble(COL_WIND_SPEED));
+                values.put(WeatherEntry.COLUMN_DEGREES, cursor.getDouble(COL_DEGREES));
+                stored.put(cursor.getLong(COL_DATE), values);
+            }
+        } finally {
+            cursor.close();
+        }
+        return stored;
+    }
+
+    private static boolean sameForecast(ContentValues stored, ContentValues incoming) {
+        return stored.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID)
+                        .equals(incoming.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID))
+                && stored.getAsString(WeatherEntry.COLUMN_SHORT_DESC)
+                        .equals(incoming.getAsString(WeatherEntry.COLUMN_SHORT_DESC))
+                && sameDouble(stored, incoming, WeatherEntry.COLUMN_MIN_TEMP)
+                && sameDouble(stored, incoming, WeatherEntry.COLUMN_MAX_TEMP)
+                && sameDouble(stored, incoming, WeatherEntry.COLUMN_HUMIDITY)
+                && sameDouble(stored, incoming, WeatherEntry.COLUMN_PRESSURE)
+                && sameDouble(stored, incoming, WeatherEntry.COLUMN_WIND_SPEED)
+                && sameDouble(stored, incoming, WeatherEntry.COLUMN_DEGREES);
+    }
+
+    private static boolean sameDouble(ContentValues a, ContentValues b, String column) {
+        return Double.compare(a.getAsDouble(column), b.getAsDouble(column)) == 0;
+    }
+}
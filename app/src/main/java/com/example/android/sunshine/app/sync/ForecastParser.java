@@ -0,0 +1,289 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull-based decoder for the OpenWeatherMap daily forecast response. Reads straight from the
+ * connection's InputStream into weather rows, so the raw body is never held as a String and
+ * no JSONObject tree is built.
+ *
+ * Stream failures and an empty body surface as IOException, while a body that isn't a valid
+ * forecast, truncated ones included, surfaces as JSONException, which keeps the status
+ * mapping in the sync adapter unchanged.
+ */
+public class ForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * The decoded response. Rows carry every weather column except the location key, which is
+     * only known once the city has been stored.
+     */
+    public static class Forecast {
+        /** The "cod" value of the response, or HTTP_OK when the response doesn't carry one. */
+        public int code = HttpURLConnection.HTTP_OK;
+        public String cityName;
+        public double cityLatitude;
+        public double cityLongitude;
+        public final List<ContentValues> days = new ArrayList<ContentValues>();
+
+        public boolean isOk() {
+            return code == HttpURLConnection.HTTP_OK;
+        }
+    }
+
+    private final int mJulianStartDay;
+
+    /**
+     * @param julianStartDay the Julian day of the first entry in the list. OWM always sends the
+     *                       current day of the requested city first.
+     */
+    public ForecastParser(int julianStartDay) {
+        mJulianStartDay = julianStartDay;
+    }
+
+    /**
+     * Build a parser whose first row is today, using the device's local time.
+     */
+    public static ForecastParser forToday() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        // we start at the day returned by local time. Otherwise this is a mess.
+        return new ForecastParser(Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff));
+    }
+
+    /**
+     * Decode a forecast from the stream. The stream is consumed but not closed.
+     *
+     * @throws IOException if the stream fails or is empty.
+     * @throws JSONException if the body isn't a forecast we understand, including one that
+     * stops part way through.
+     */
+    public Forecast parse(InputStream in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(requireBody(in), "UTF-8"));
+        try {
+            return readForecast(reader);
+        } catch (EOFException | MalformedJsonException | IllegalStateException
+                | NumberFormatException e) {
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    /**
+     * An empty body is the server failing to answer, while a body that stops part way through
+     * is a malformed one, as it was when the whole body was read before parsing.
+     *
+     * @return the stream, with nothing consumed.
+     * @throws EOFException if the stream is empty.
+     */
+    static InputStream requireBody(InputStream in) throws IOException {
+        PushbackInputStream body = new PushbackInputStream(in);
+        int first = body.read();
+        if (first == -1) {
+            throw new EOFException("Empty response");
+        }
+        body.unread(first);
+        return body;
+    }
+
+    private Forecast readForecast(JsonReader reader) throws IOException, JSONException {
+        Forecast forecast = new Forecast();
+        boolean hasCity = false;
+        boolean hasList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                forecast.code = reader.nextInt();
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, forecast);
+                hasCity = true;
+            } else if (OWM_LIST.equals(name)) {
+                readDays(reader, forecast.days);
+                hasList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // Error responses only carry "cod" and "message", so they are handed back as is.
+        if (forecast.isOk()) {
+            if (!hasList) {
+                throw new JSONException("No value for " + OWM_LIST);
+            }
+            if (!hasCity || forecast.cityName == null) {
+                throw new JSONException("No value for " + OWM_CITY);
+            }
+        }
+        return forecast;
+    }
+
+    private void readCity(JsonReader reader, Forecast forecast) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.cityLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.cityLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readDays(JsonReader reader, List<ContentValues> days)
+            throws IOException, JSONException {
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ContentValues weatherValues = new ContentValues(10);
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    dayTime.setJulianDay(mJulianStartDay + days.size()));
+            readDay(reader, weatherValues);
+            days.add(weatherValues);
+        }
+        reader.endArray();
+    }
+
+    private void readDay(JsonReader reader, ContentValues weatherValues)
+            throws IOException, JSONException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+            } else if (OWM_HUMIDITY.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, reader.nextInt());
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, reader.nextDouble());
+                    } else if (OWM_MIN.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    readCondition(reader, weatherValues);
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        requireColumn(weatherValues, WeatherContract.WeatherEntry.COLUMN_PRESSURE, OWM_PRESSURE);
+        requireColumn(weatherValues, WeatherContract.WeatherEntry.COLUMN_HUMIDITY, OWM_HUMIDITY);
+        requireColumn(weatherValues, WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, OWM_WINDSPEED);
+        requireColumn(weatherValues, WeatherContract.WeatherEntry.COLUMN_DEGREES, OWM_WIND_DIRECTION);
+        requireColumn(weatherValues, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, OWM_MAX);
+        requireColumn(weatherValues, WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, OWM_MIN);
+        requireColumn(weatherValues, WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, OWM_DESCRIPTION);
+        requireColumn(weatherValues, WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, OWM_WEATHER_ID);
+    }
+
+    private void readCondition(JsonReader reader, ContentValues weatherValues) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, reader.nextString());
+            } else if (OWM_WEATHER_ID.equals(name) && reader.peek() != JsonToken.NULL) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, reader.nextInt());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void requireColumn(ContentValues values, String column, String owmName)
+            throws JSONException {
+        if (!values.containsKey(column)) {
+            throw new JSONException("No value for " + owmName);
+        }
+    }
+}
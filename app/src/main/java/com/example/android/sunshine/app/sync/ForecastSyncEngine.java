@@ -0,0 +1,543 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches and decodes the forecasts for several locations at once. Requests run on a small
+ * bounded pool and share the cache and its keep-alive connections, so a sync of many
+ * locations takes about as long as its slowest fetch. Nothing is written here; the caller
+ * stores every result in one go.
+ *
+ * Every location gets the daily forecast. The preferred location, the only one shown by the
+ * hour, also gets the next {@link #HOURLY_STEPS} steps of the 3-hour forecast. The two run
+ * side by side on the same pool, so the hourly feed adds little to the length of a sync, and
+ * a failed hourly fetch never affects the daily one.
+ */
+public class ForecastSyncEngine {
+
+    private static final String TAG = "ForecastSyncEngine";
+
+    /** Upper bound on concurrent requests to OpenWeatherMap. */
+    static final int MAX_PARALLEL_FETCHES = 4;
+
+    /** How long idle fetch threads stick around between syncs, in seconds. */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /* Retries of a single location: 3 attempts, backing off from 2 up to 30 seconds */
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BASE_DELAY_MS = 2 * 1000;
+    private static final long RETRY_MAX_DELAY_MS = 30 * 1000;
+
+    // A retry waits on one of the few fetch threads, holding up the locations queued behind
+    // it, so all the waits of a sync together are capped at this.
+    static final long RETRY_BUDGET_MS = 30 * 1000;
+
+    /* The breaker opens after 5 straight failures and stays open for 15 minutes */
+    private static final int BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long BREAKER_OPEN_MS = 15 * 60 * 1000;
+
+    // Construct the URL for the OpenWeatherMap query
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    // The base URL comes from the build, so that a build or a test can point it elsewhere.
+    private static final String FORECAST_PATH = "forecast/daily";
+    private static final String HOURLY_FORECAST_PATH = "forecast";
+    private static final String QUERY_PARAM = "q";
+    private static final String LAT_PARAM = "lat";
+    private static final String LON_PARAM = "lon";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+    // 48 hours of 3-hour steps, of the 40 (five days) OWM sends when not asked for fewer
+    static final int HOURLY_STEPS = 16;
+
+    // The hourly feed is cached apart from the daily one
+    private static final String HOURLY_CACHE_KEY_SUFFIX = "/hourly";
+
+    /**
+     * What a fetch produced for one location.
+     */
+    public static class Result {
+        public final SyncLocation location;
+
+        /** The status to record for the location. */
+        @SunshineSyncAdapter.LocationStatus
+        public int status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+
+        /** The decoded forecast, or null if there is nothing new to store. */
+        public ForecastParser.Forecast forecast;
+
+        /** The decoded 3-hour step forecast, or null if there is nothing new to store. */
+        public HourlyForecastParser.HourlyForecast hourly;
+
+        /**
+         * True if the location wasn't fetched, but is to take the forecast stored for
+         * {@link SyncLocation#nearbySetting}.
+         */
+        public boolean sharesNearbyForecast;
+
+        Result(SyncLocation location) {
+            this.location = location;
+        }
+
+        /**
+         * @return true if there is a forecast to store for this location.
+         */
+        public boolean hasForecast() {
+            return forecast != null && status == SunshineSyncAdapter.LOCATION_STATUS_OK;
+        }
+
+        /**
+         * @return true if there is an hourly forecast to store for this location.
+         */
+        public boolean hasHourlyForecast() {
+            return hourly != null && hourly.isOk();
+        }
+    }
+
+    private final Context mContext;
+    private final String mBaseUrl;
+    private final ForecastHttpCache mCache;
+    private final ThreadPoolExecutor mExecutor;
+    private final RetryPolicy mRetryPolicy;
+    private final CircuitBreaker mCircuitBreaker;
+    private final FetchMetrics mMetrics = new FetchMetrics();
+    // What is left of the retry budget of the current sync
+    private final AtomicLong mRetryBudgetMillis = new AtomicLong(RETRY_BUDGET_MS);
+
+    public ForecastSyncEngine(Context context, ForecastHttpCache cache) {
+        this(context, BuildConfig.OPEN_WEATHER_MAP_BASE_URL, cache,
+                new RetryPolicy(MAX_ATTEMPTS, RETRY_BASE_DELAY_MS, RETRY_MAX_DELAY_MS, new Random()),
+                new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_MS));
+    }
+
+    /**
+     * @param baseUrl the root of the OpenWeatherMap API, ending in a slash, e.g.
+     *                "http://api.openweathermap.org/data/2.5/"
+     */
+    public ForecastSyncEngine(Context context, String baseUrl, ForecastHttpCache cache,
+                              RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
+        mContext = context;
+        mBaseUrl = baseUrl;
+        mCache = cache;
+        mRetryPolicy = retryPolicy;
+        mCircuitBreaker = circuitBreaker;
+        mExecutor = new ThreadPoolExecutor(MAX_PARALLEL_FETCHES, MAX_PARALLEL_FETCHES,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new FetchThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Fetch every location, at most {@link #MAX_PARALLEL_FETCHES} at a time, and wait for all
+     * of them. Failures are reported per location and never abort the other fetches.
+     *
+     * @return one result per location, in the same order.
+     * @throws InterruptedException if the sync was cancelled while waiting.
+     */
+    public List<Result> fetchAll(List<SyncLocation> locations) throws InterruptedException {
+        mRetryBudgetMillis.set(RETRY_BUDGET_MS);
+        List<Future<Result>> futures = new ArrayList<Future<Result>>(locations.size());
+        List<Future<HourlyForecastParser.HourlyForecast>> hourlyFutures =
+                new ArrayList<Future<HourlyForecastParser.HourlyForecast>>(locations.size());
+        for (final SyncLocation location : locations) {
+            futures.add(mExecutor.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    return fetch(location);
+                }
+            }));
+            if (!location.preferred) {
+                hourlyFutures.add(null);
+                continue;
+            }
+            hourlyFutures.add(mExecutor.submit(new Callable<HourlyForecastParser.HourlyForecast>() {
+                @Override
+                public HourlyForecastParser.HourlyForecast call() {
+                    return fetchHourly(location);
+                }
+            }));
+        }
+
+        List<Result> results = new ArrayList<Result>(locations.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Result result;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Error fetching " + locations.get(i).locationSetting, e.getCause());
+                    result = new Result(locations.get(i));
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                }
+                Future<HourlyForecastParser.HourlyForecast> hourlyFuture = hourlyFutures.get(i);
+                try {
+                    result.hourly = hourlyFuture == null ? null : hourlyFuture.get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Error fetching hourly " + locations.get(i).locationSetting,
+                            e.getCause());
+                }
+                results.add(result);
+            }
+        } catch (InterruptedException e) {
+            for (Future<Result> future : futures) {
+                future.cancel(true);
+            }
+            for (Future<HourlyForecastParser.HourlyForecast> future : hourlyFutures) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Fetch and decode a single location on the calling thread.
+     */
+    Result fetch(SyncLocation location) {
+        Result result = new Result(location);
+        // A new place next to a saved location can start out with its forecast, as long as
+        // that one is up to date.
+        if (location.nearbySetting != null && hasForecastForToday(location.nearbySetting)) {
+            result.sharesNearbyForecast = true;
+            return result;
+        }
+        try {
+            // A 304 only means "keep what you have" while the last forecast is still stored.
+            if (!hasForecastForToday(location.locationSetting)) {
+                mCache.evict(location.getCacheKey());
+            }
+            ForecastHttpCache.Response response = fetchWithRetry(buildForecastUrl(location),
+                    location.getCacheKey(), location.locationSetting);
+            if (response == null) {
+                // The breaker is open, don't even try.
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                return result;
+            }
+
+            try {
+                // Nothing changed since the last sync, and we still have today's forecast
+                // stored, so there is nothing to parse, store or broadcast.
+                if (!response.hasBody()) {
+                    return result;
+                }
+
+                // Decode the forecast straight off the connection. An empty body ends in an
+                // EOFException, which is reported as the server being down, and a truncated
+                // one as invalid, as before.
+                long start = SyncMetrics.startTimer();
+                result.forecast = ForecastParser.forToday().parse(response.getBody());
+                SyncMetrics.getInstance().recordSince(SyncMetrics.STAGE_PARSE, start);
+
+                // do we have an error?
+                switch (result.forecast.code) {
+                    case HttpURLConnection.HTTP_OK:
+                        // A server that ignores the validators sends the same body again,
+                        // which is only known once it has been read.
+                        if (!response.finish()) {
+                            result.forecast = null;
+                        }
+                        break;
+                    case HttpURLConnection.HTTP_NOT_FOUND:
+                        result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                        break;
+                    default:
+                        result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                        break;
+                }
+            } finally {
+                response.close();
+            }
+        } catch (ForecastHttpCache.HttpStatusException e) {
+            Log.e(TAG, "Error ", e);
+            // OWM answers an unknown city with a 404, as well as with "cod" 404 in the body.
+            result.status = e.getStatus() == HttpURLConnection.HTTP_NOT_FOUND
+                    ? SunshineSyncAdapter.LOCATION_STATUS_INVALID
+                    : SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (IOException e) {
+            Log.e(TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(TAG, e.getMessage(), e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } catch (InterruptedException e) {
+            // The sync was cancelled while we were backing off.
+            Thread.currentThread().interrupt();
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        }
+        return result;
+    }
+
+    /**
+     * Fetch and decode the 3-hour step forecast of a single location on the calling thread.
+     *
+     * @return the forecast, or null if it is unchanged or couldn't be fetched. Failures are
+     * only logged, the location status follows the daily forecast.
+     */
+    HourlyForecastParser.HourlyForecast fetchHourly(SyncLocation location) {
+        String key = location.getCacheKey() + HOURLY_CACHE_KEY_SUFFIX;
+        try {
+            if (!hasHourlyForecast(location.locationSetting)) {
+                mCache.evict(key);
+            }
+            ForecastHttpCache.Response response = fetchWithRetry(
+                    buildHourlyForecastUrl(location), key,
+                    location.locationSetting + HOURLY_CACHE_KEY_SUFFIX);
+            if (response == null) {
+                return null;
+            }
+            try {
+                if (!response.hasBody()) {
+                    return null;
+                }
+                long start = SyncMetrics.startTimer();
+                HourlyForecastParser.HourlyForecast hourly =
+                        new HourlyForecastParser().parse(response.getBody());
+                SyncMetrics.getInstance().recordSince(SyncMetrics.STAGE_PARSE_HOURLY, start);
+                if (!hourly.isOk() || !response.finish()) {
+                    return null;
+                }
+                return hourly;
+            } finally {
+                response.close();
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Error fetching hourly forecast for " + location.locationSetting, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Request a url, retrying with backoff while the failures look temporary, the circuit
+     * breaker allows it and the retry budget of the sync isn't spent.
+     *
+     * @param key the cache key of the request
+     * @param label names the request in the log
+     * @return the response, or null if the circuit breaker rejected the request.
+     * @throws IOException the last failure, once the attempts are used up.
+     */
+    private ForecastHttpCache.Response fetchWithRetry(URL url, String key, String label)
+            throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            if (!mCircuitBreaker.allowRequest()) {
+                mMetrics.recordRejected();
+                return null;
+            }
+            long start = SystemClock.elapsedRealtime();
+            // Whatever happens, the breaker must hear back, or a half-open trial never ends.
+            boolean reported = false;
+            try {
+                ForecastHttpCache.Response response = mCache.fetch(url, key);
+                mMetrics.recordAttempt(true, SystemClock.elapsedRealtime() - start);
+                mCircuitBreaker.onSuccess();
+                reported = true;
+                return response;
+            } catch (IOException e) {
+                mMetrics.recordAttempt(false, SystemClock.elapsedRealtime() - start);
+                // A 4xx means our request is wrong, which retrying won't fix and which says
+                // nothing about the health of the server.
+                boolean retryable = !(e instanceof ForecastHttpCache.HttpStatusException)
+                        || ((ForecastHttpCache.HttpStatusException) e).isServerError();
+                if (!retryable) {
+                    mCircuitBreaker.onNeutral();
+                    reported = true;
+                    throw e;
+                }
+                mCircuitBreaker.onFailure();
+                reported = true;
+                if (attempt >= mRetryPolicy.getMaxAttempts()) {
+                    throw e;
+                }
+                long delay = mRetryPolicy.computeDelay(attempt);
+                if (!takeRetryTime(delay)) {
+                    Log.d(TAG, "Attempt " + attempt + " for " + label
+                            + " failed, and the sync is out of retry time");
+                    throw e;
+                }
+                Log.d(TAG, "Attempt " + attempt + " for " + label
+                        + " failed, retrying in " + delay + "ms");
+                mMetrics.recordRetry();
+                Thread.sleep(delay);
+            } finally {
+                if (!reported) {
+                    mCircuitBreaker.onNeutral();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the delay fits in what is left of the retry budget, which it is taken
+     * from.
+     */
+    private boolean takeRetryTime(long delay) {
+        while (true) {
+            long remaining = mRetryBudgetMillis.get();
+            if (remaining < delay) {
+                return false;
+            }
+            if (mRetryBudgetMillis.compareAndSet(remaining, remaining - delay)) {
+                return true;
+            }
+        }
+    }
+
+    public FetchMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return mCircuitBreaker;
+    }
+
+    /**
+     * Forget the cached validators of a location, e.g. when what was fetched for it couldn't be
+     * stored, so that the next sync downloads it again instead of hearing it is unchanged.
+     */
+    public void evict(SyncLocation location) {
+        mCache.evict(location.getCacheKey());
+        mCache.evict(location.getCacheKey() + HOURLY_CACHE_KEY_SUFFIX);
+    }
+
+    public ForecastHttpClient getHttpClient() {
+        return mCache.getClient();
+    }
+
+    /**
+     * Stop the fetch threads. Pending fetches are abandoned.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    URL buildForecastUrl(SyncLocation location) throws IOException {
+        Uri.Builder uriBuilder = buildLocationQuery(mBaseUrl + FORECAST_PATH, location);
+        Uri builtUri = uriBuilder.appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .build();
+        return new URL(builtUri.toString());
+    }
+
+    /**
+     * The next {@link #HOURLY_STEPS} steps of the 3-hour forecast.
+     */
+    URL buildHourlyForecastUrl(SyncLocation location) throws IOException {
+        Uri.Builder uriBuilder = buildLocationQuery(mBaseUrl + HOURLY_FORECAST_PATH, location);
+        Uri builtUri = uriBuilder.appendQueryParameter(DAYS_PARAM, Integer.toString(HOURLY_STEPS))
+                .build();
+        return new URL(builtUri.toString());
+    }
+
+    private static Uri.Builder buildLocationQuery(String endpoint, SyncLocation location) {
+        Uri.Builder uriBuilder = Uri.parse(endpoint).buildUpon();
+
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        if (location.useLatLon) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, String.valueOf(location.latitude))
+                    .appendQueryParameter(LON_PARAM, String.valueOf(location.longitude));
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, location.locationSetting);
+        }
+
+        return uriBuilder.appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+
+    /**
+     * @return true if the weather table already holds today's forecast for the location, which
+     * is what makes it safe to skip storing an unchanged response.
+     */
+    private boolean hasForecastForToday(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = mContext.getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return true if the hourly table still holds upcoming steps for the location.
+     */
+    private boolean hasHourlyForecast(String locationSetting) {
+        Uri hourlyUri = WeatherContract.HourlyEntry.buildHourlyLocationWithRange(
+                locationSetting, System.currentTimeMillis(), Long.MAX_VALUE);
+        Cursor cursor = mContext.getContentResolver().query(hourlyUri,
+                new String[]{WeatherContract.HourlyEntry.COLUMN_TIMESTAMP}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Names the fetch threads and keeps them in the background.
+     */
+    private static class FetchThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    android.os.Process.setThreadPriority(
+                            android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "ForecastFetch #" + mCount.incrementAndGet());
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+import org.json.JSONException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull-based decoder for the OpenWeatherMap 3-hour step forecast, the hourly counterpart of
+ * {@link ForecastParser}. The response is about three times the size of the daily one, so it
+ * is decoded straight into hourly rows without ever holding the body.
+ *
+ * Errors are reported the same way as the daily parser: IOException for the stream,
+ * JSONException for a body that isn't a forecast.
+ */
+public class HourlyForecastParser {
+
+    // Each step's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+    private static final String OWM_TIME = "dt";
+
+    // Temperature, pressure and humidity are children of the "main" object.
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+
+    // Wind speed and direction are children of the "wind" object.
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * The decoded response. Rows carry every hourly column except the location key.
+     */
+    public static class HourlyForecast {
+        /** The "cod" value of the response, or HTTP_OK when the response doesn't carry one. */
+        public int code = HttpURLConnection.HTTP_OK;
+        public final List<ContentValues> hours = new ArrayList<ContentValues>();
+
+        public boolean isOk() {
+            return code == HttpURLConnection.HTTP_OK;
+        }
+    }
+
+    /**
+     * Decode a forecast from the stream. The stream is consumed but not closed.
+     *
+     * @throws IOException if the stream fails or is empty.
+     * @throws JSONException if the body isn't a forecast we understand, including one that
+     * stops part way through.
+     */
+    public HourlyForecast parse(InputStream in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(ForecastParser.requireBody(in),
+                "UTF-8"));
+        try {
+            return readForecast(reader);
+        } catch (EOFException | MalformedJsonException | IllegalStateException
+                | NumberFormatException e) {
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    private HourlyForecast readForecast(JsonReader reader) throws IOException, JSONException {
+        HourlyForecast forecast = new HourlyForecast();
+        boolean hasList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                forecast.code = reader.nextInt();
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    forecast.hours.add(readStep(reader));
+                }
+                reader.endArray();
+                hasList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // Error responses only carry "cod" and "message", so they are handed back as is.
+        if (forecast.isOk() && !hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        return forecast;
+    }
+
+    private ContentValues readStep(JsonReader reader) throws IOException, JSONException {
+        ContentValues values = new ContentValues(9);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                // OWM sends seconds since the epoch
+                values.put(HourlyEntry.COLUMN_TIMESTAMP, reader.nextLong() * 1000);
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        values.put(HourlyEntry.COLUMN_TEMP, reader.nextDouble());
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        values.put(HourlyEntry.COLUMN_PRESSURE, reader.nextDouble());
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        values.put(HourlyEntry.COLUMN_HUMIDITY, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        values.put(HourlyEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        values.put(HourlyEntry.COLUMN_DEGREES, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Like the daily feed, "weather" is an array that is 1 element long.
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    readCondition(reader, values);
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        requireColumn(values, HourlyEntry.COLUMN_TIMESTAMP, OWM_TIME);
+        requireColumn(values, HourlyEntry.COLUMN_TEMP, OWM_TEMPERATURE);
+        requireColumn(values, HourlyEntry.COLUMN_PRESSURE, OWM_PRESSURE);
+        requireColumn(values, HourlyEntry.COLUMN_HUMIDITY, OWM_HUMIDITY);
+        requireColumn(values, HourlyEntry.COLUMN_SHORT_DESC, OWM_DESCRIPTION);
+        requireColumn(values, HourlyEntry.COLUMN_WEATHER_ID, OWM_WEATHER_ID);
+        // Calm steps may come without wind at all
+        if (!values.containsKey(HourlyEntry.COLUMN_WIND_SPEED)) {
+            values.put(HourlyEntry.COLUMN_WIND_SPEED, 0d);
+        }
+        if (!values.containsKey(HourlyEntry.COLUMN_DEGREES)) {
+            values.put(HourlyEntry.COLUMN_DEGREES, 0d);
+        }
+        return values;
+    }
+
+    private void readCondition(JsonReader reader, ContentValues values) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                values.put(HourlyEntry.COLUMN_SHORT_DESC, reader.nextString());
+            } else if (OWM_WEATHER_ID.equals(name) && reader.peek() != JsonToken.NULL) {
+                values.put(HourlyEntry.COLUMN_WEATHER_ID, reader.nextInt());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void requireColumn(ContentValues values, String column, String owmName)
+            throws JSONException {
+        if (!values.containsKey(column)) {
+            throw new JSONException("No value for " + owmName);
+        }
+    }
+}
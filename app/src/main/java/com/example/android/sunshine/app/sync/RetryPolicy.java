@@ -0,0 +1,43 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with full jitter: the wait before retry n is a random time between zero
+ * and min(maxDelay, baseDelay * 2^n), so that retries from many devices don't line up.
+ */
+public class RetryPolicy {
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Random random) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mRandom = random;
+    }
+
+    /**
+     * @return the total number of attempts, including the first one.
+     */
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param attempt the attempt that just failed, starting at 1
+     * @return how long to wait before the next attempt, in milliseconds.
+     */
+    public long computeDelay(int attempt) {
+        long ceiling = mBaseDelayMillis << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > mMaxDelayMillis) {
+            ceiling = mMaxDelayMillis;
+        }
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * ceiling);
+        }
+    }
+}
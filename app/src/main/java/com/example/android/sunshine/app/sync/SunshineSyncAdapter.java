@@ -8,7 +8,6 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -26,11 +25,9 @@ import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
@@ -40,19 +37,10 @@ import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
@@ -63,11 +51,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Default interval at which to sync with the weather, in seconds. After each sync the
+    // SyncScheduler adapts it to how often the forecast changes and to the device state.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // How far back hourly steps are kept, so "earlier today" can still be shown
+    private static final long HOURLY_RETENTION_MILLIS = 1000 * 60 * 60 * 6;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
     private static final String TAG = "SunshineSyncAdapter";
 
@@ -94,304 +85,181 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    private final ForecastSyncEngine mSyncEngine;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize,
+                new ForecastSyncEngine(context, ForecastHttpCache.create(context)));
+    }
+
+    /**
+     * Sync through the given engine, e.g. one pointed at a local server.
+     */
+    SunshineSyncAdapter(Context context, boolean autoInitialize, ForecastSyncEngine syncEngine) {
         super(context, autoInitialize);
+        mSyncEngine = syncEngine;
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        long syncStart = SyncMetrics.startTimer();
+        metrics.increment(SyncMetrics.COUNTER_SYNCS, 1);
 
         /* Initialize the Google Api client */
         initApiClient();
 
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
-        Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
+        // Refresh every saved location at once, not just the preferred one.
+        List<SyncLocation> locations = SyncLocation.loadAll(getContext());
+        List<ForecastSyncEngine.Result> results;
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
-            }
-
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
+            results = mSyncEngine.fetchAll(locations);
+        } catch (InterruptedException e) {
+            Log.d(LOG_TAG, "Sync cancelled");
+            killApiClient();
+            return;
+        }
+        storeResults(results, syncResult);
+        Log.d(LOG_TAG, "Fetches: " + mSyncEngine.getMetrics() + ", circuit breaker "
+                + CircuitBreaker.stateToString(mSyncEngine.getCircuitBreaker().getState()));
+        Log.d(LOG_TAG, "Transport: " + mSyncEngine.getHttpClient());
+        killApiClient();
+        metrics.recordSince(SyncMetrics.STAGE_SYNC, syncStart);
+    }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+    /**
+     * Store what changed in the forecasts the engine brought back, along with the locations
+     * seen for the first time, in a single provider transaction, record the status of each
+     * location, and tell only the consumers whose data actually changed. Archiving the past
+     * days follows in transactions of its own.
+     */
+    private void storeResults(List<ForecastSyncEngine.Result> results, SyncResult syncResult) {
+        Context context = getContext();
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        ForecastIngester ingester = new ForecastIngester(context.getContentResolver());
+
+        long now = System.currentTimeMillis();
+        long today = WeatherContract.normalizeDate(now);
+        long preferredLocationId = -1;
+        ContentValues preferredToday = null;
+        boolean preferredSynced = false;
+        for (ForecastSyncEngine.Result result : results) {
+            if (result.location.preferred) {
+                preferredSynced = result.status == LOCATION_STATUS_OK;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            long locationId = -1;
+            if (result.hasForecast() && !result.forecast.days.isEmpty()) {
+                ForecastParser.Forecast forecast = result.forecast;
+                long start = SyncMetrics.startTimer();
+                locationId = addLocation(ingester, result.location.locationSetting,
+                        forecast.cityName, forecast.cityLatitude, forecast.cityLongitude);
+                metrics.recordSince(SyncMetrics.STAGE_ADD_LOCATION, start);
+                ingester.add(locationId, forecast.days);
+                if (result.location.preferred) {
+                    preferredLocationId = locationId;
+                    preferredToday = forecast.days.get(0);
+                }
+            } else if (result.sharesNearbyForecast) {
+                long start = SyncMetrics.startTimer();
+                List<ContentValues> days = addNearbyLocation(ingester, result.location, today);
+                metrics.recordSince(SyncMetrics.STAGE_ADD_LOCATION, start);
+                if (!days.isEmpty()) {
+                    locationId = days.get(0).getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                }
+                if (!days.isEmpty() && result.location.preferred) {
+                    preferredLocationId = locationId;
+                    // The nearby location may have nothing for today, then today is looked up
+                    // for the fan-out like any other day.
+                    if (days.get(0).getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE) == today) {
+                        preferredToday = days.get(0);
+                    }
+                }
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+            if (result.hasHourlyForecast()) {
+                // The daily forecast may have been unchanged, in which case the location row
+                // is already there. Without it the steps wait for the next sync.
+                if (locationId == -1) {
+                    long start = SyncMetrics.startTimer();
+                    locationId = findLocation(result.location.locationSetting);
+                    metrics.recordSince(SyncMetrics.STAGE_ADD_LOCATION, start);
+                }
+                if (locationId != -1) {
+                    ingester.addHourly(locationId, result.hourly.hours);
                 }
             }
         }
-        return;
-    }
-
-    /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
-     */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
 
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+        ForecastIngester.ChangeSet changes = ingester.commit(today - DAY_IN_MILLIS,
+                now - HOURLY_RETENTION_MILLIS);
+        if (changes.hasFailed()) {
+            syncResult.stats.numIoExceptions++;
+            // Consumers get what is stored, which this forecast isn't
+            preferredToday = null;
+            // The cache took these as stored, make the next sync download them again.
+            for (ForecastSyncEngine.Result result : results) {
+                if (result.hasForecast() || result.hasHourlyForecast()) {
+                    mSyncEngine.evict(result.location);
                 }
             }
+        }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        // Consumers are told when what they show changed, or when they still show another
+        // location or another day than the preferred location's today.
+        String preferredSetting = Utility.getPreferredLocation(context);
+        FanOutTracker fanOut = new FanOutTracker(context);
+
+        // The widgets show the upcoming days of the preferred location.
+        if (fanOut.isDue(FanOutTracker.CONSUMER_WIDGETS, preferredSetting, today,
+                changes.hasChanges(preferredLocationId))) {
+            long start = SyncMetrics.startTimer();
+            updateWidgets();
+            metrics.recordSince(SyncMetrics.STAGE_FANOUT_WIDGETS, start);
+            fanOut.markSent(FanOutTracker.CONSUMER_WIDGETS, preferredSetting, today);
+        }
 
-                cVVector.add(weatherValues);
+        // Muzei and the watch face only show today.
+        if (fanOut.isDue(FanOutTracker.CONSUMER_TODAY, preferredSetting, today,
+                changes.hasChangedDay(preferredLocationId, today))) {
+            if (preferredToday == null) {
+                // Unchanged, so it is the stored one
+                preferredToday = queryDay(preferredSetting, today);
             }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
+            if (preferredToday != null) {
+                long start = SyncMetrics.startTimer();
                 updateMuzei();
-                notifyWeather();
+                metrics.recordSince(SyncMetrics.STAGE_FANOUT_MUZEI, start);
 
                 /* Send the update to the wearable watchface via DataApi */
-                ContentValues todaysContent = cVVector.get(0);
-                WearableUtils.sendDataToWatchface(context, mGoogleApiClient, todaysContent);
+                start = SyncMetrics.startTimer();
+                WearableUtils.sendDataToWatchface(context, mGoogleApiClient, preferredToday);
+                metrics.recordSince(SyncMetrics.STAGE_FANOUT_WEARABLE, start);
+                fanOut.markSent(FanOutTracker.CONSUMER_TODAY, preferredSetting, today);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-            killApiClient();
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        // The notification is due once a day, whether or not the forecast changed, and
+        // notifyWeather() keeps track of that itself.
+        if (preferredSynced) {
+            long start = SyncMetrics.startTimer();
+            notifyWeather();
+            metrics.recordSince(SyncMetrics.STAGE_FANOUT_NOTIFICATION, start);
+        }
+
+        for (ForecastSyncEngine.Result result : results) {
+            setLocationStatus(context, result.location.locationSetting, result.status);
+        }
+
+        Log.d(LOG_TAG, "Sync Complete. " + results.size() + " locations, " + changes);
+
+        // A sync that reached no forecast at all says nothing about how often it changes, and
+        // mustn't push the next try further out while the data goes stale.
+        boolean reachedForecast = false;
+        for (ForecastSyncEngine.Result result : results) {
+            reachedForecast |= result.status == LOCATION_STATUS_OK;
+        }
+        if (reachedForecast && !changes.hasFailed()) {
+            SyncScheduler.getDefault(context).onSyncFinished(!changes.isEmpty());
         }
     }
 
@@ -542,15 +410,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to handle insertion of a new location in the weather database. A new
+     * location is inserted by the ingester, in the same transaction as its forecast.
      *
      * @param locationSetting The location string used to request updates from the server.
      * @param cityName A human-readable city name, e.g "Mountain View"
      * @param lat the latitude of the city
      * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @return the row ID of the location, or the key the ingester stores a new one under.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
+    long addLocation(ForecastIngester ingester, String locationSetting, String cityName,
+                     double lat, double lon) {
         long locationId;
 
         // First, check if the location with this city name exists in the db
@@ -576,14 +446,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
 
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+            // Finally, queue the location data for the ingester's batch.
+            locationId = ingester.addLocation(locationValues);
         }
 
         locationCursor.close();
@@ -592,7 +456,101 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Helper method to schedule the sync adapter periodic execution
+     * Queue the insert of a place picked next to a saved location, at the coordinates it was
+     * picked at, with a copy of the saved location's forecast from today on. The saved
+     * location itself is left as it is.
+     *
+     * @return the copied days, under the key of the new location, or none if the saved
+     * location is gone.
+     */
+    private List<ContentValues> addNearbyLocation(ForecastIngester ingester,
+                                                  SyncLocation location, long today) {
+        Cursor nearbyCursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_CITY_NAME},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{location.nearbySetting},
+                null);
+        if (nearbyCursor == null) {
+            return new ArrayList<ContentValues>();
+        }
+        long nearbyId;
+        String cityName;
+        try {
+            if (!nearbyCursor.moveToFirst()) {
+                return new ArrayList<ContentValues>();
+            }
+            nearbyId = nearbyCursor.getLong(0);
+            // The forecast is the one OWM gave for this city
+            cityName = nearbyCursor.getString(1);
+        } finally {
+            nearbyCursor.close();
+        }
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                location.locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, location.latitude);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, location.longitude);
+        long locationKey = ingester.addLocation(locationValues);
+        return ingester.addCopy(locationKey, nearbyId, today);
+    }
+
+    /**
+     * @return the stored forecast of the location for the given day, with the columns the
+     * watch face is sent, or null if there is none.
+     */
+    private ContentValues queryDay(String locationSetting, long date) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, date),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE,
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                        WeatherContract.WeatherEntry.COLUMN_WEATHER_ID},
+                null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            ContentValues day = new ContentValues();
+            day.put(WeatherContract.WeatherEntry.COLUMN_DATE, cursor.getLong(0));
+            day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, cursor.getDouble(1));
+            day.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, cursor.getDouble(2));
+            day.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(3));
+            return day;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the row ID of the location, or -1 if it hasn't been stored yet.
+     */
+    private long findLocation(String locationSetting) {
+        Cursor locationCursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (locationCursor == null) {
+            return -1;
+        }
+        try {
+            return locationCursor.moveToFirst() ? locationCursor.getLong(0) : -1;
+        } finally {
+            locationCursor.close();
+        }
+    }
+
+    /**
+     * Helper method to schedule the sync adapter periodic execution. The interval is kept in
+     * the SharedPreferences, for the SyncScheduler to tell when it needs changing.
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
         Account account = getSyncAccount(context);
@@ -608,6 +566,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             ContentResolver.addPeriodicSync(account,
                     authority, new Bundle(), syncInterval);
         }
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putInt(context.getString(R.string.pref_sync_interval), syncInterval)
+                .apply();
     }
 
     /**
@@ -683,15 +644,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
+     * Sets the status of a location into shared preference.  This function should not be called
+     * from the UI thread because it uses commit to write to the shared preferences.
      * @param c Context to get the PreferenceManager from.
+     * @param locationSetting The location the status belongs to
      * @param locationStatus The IntDef value to set
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
+    static private void setLocationStatus(Context c, String locationSetting,
+                                          @LocationStatus int locationStatus){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        spe.putInt(Utility.getLocationStatusKey(c, locationSetting), locationStatus);
         spe.commit();
     }
 
@@ -0,0 +1,35 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * A snapshot of everything a {@link SyncPolicy} may take into account.
+ */
+public class SyncConditions {
+
+    /** Local hour of the day, 0 to 23. */
+    public final int hourOfDay;
+
+    /** Fraction of recent syncs that brought a changed forecast, 0 to 1. */
+    public final float changeRate;
+
+    /** Whether a widget or the watch face is currently showing our weather. */
+    public final boolean displayed;
+
+    /** Whether the device is plugged in. */
+    public final boolean charging;
+
+    /** Whether the battery is running low. */
+    public final boolean batteryLow;
+
+    /** Whether the active network is unmetered, e.g. Wi-Fi. */
+    public final boolean unmetered;
+
+    public SyncConditions(int hourOfDay, float changeRate, boolean displayed,
+                          boolean charging, boolean batteryLow, boolean unmetered) {
+        this.hourOfDay = hourOfDay;
+        this.changeRate = changeRate;
+        this.displayed = displayed;
+        this.charging = charging;
+        this.batteryLow = batteryLow;
+        this.unmetered = unmetered;
+    }
+}
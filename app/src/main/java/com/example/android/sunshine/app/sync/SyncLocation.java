@@ -0,0 +1,191 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A location the sync adapter refreshes: the location setting its forecast is stored under,
+ * and optionally the coordinates to ask OpenWeatherMap for instead of the setting string.
+ */
+public class SyncLocation {
+
+    private static final String[] LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match the projection
+    private static final int COL_LOCATION_SETTING = 0;
+    private static final int COL_COORD_LAT = 1;
+    private static final int COL_COORD_LONG = 2;
+
+    private static final String[] ID_COLUMNS = {WeatherContract.LocationEntry._ID};
+    private static final String[] SETTING_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    // A picked place this close to a saved location is taken to be the same place, which
+    // is well within the size of a city OWM forecasts for as one.
+    static final double NEARBY_RADIUS_METERS = 5000;
+
+    // Every location costs a request per sync, so only the ones in recent use are refreshed,
+    // and only so many of them.
+    static final long SAVED_LOCATION_EXPIRY = 30L * 24 * 60 * 60 * 1000;
+    static final int MAX_SAVED_LOCATIONS = 8;
+
+    public final String locationSetting;
+    public final boolean useLatLon;
+    public final double latitude;
+    public final double longitude;
+    public final boolean preferred;
+
+    /**
+     * A saved location close enough to share its stored forecast with this one, which has
+     * none yet, or null.
+     */
+    public final String nearbySetting;
+
+    public SyncLocation(String locationSetting, boolean useLatLon, double latitude,
+                        double longitude, boolean preferred) {
+        this(locationSetting, useLatLon, latitude, longitude, preferred, null);
+    }
+
+    public SyncLocation(String locationSetting, boolean useLatLon, double latitude,
+                        double longitude, boolean preferred, String nearbySetting) {
+        this.locationSetting = locationSetting;
+        this.useLatLon = useLatLon;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.preferred = preferred;
+        this.nearbySetting = nearbySetting;
+    }
+
+    /**
+     * @return the key the response for this location is cached under.
+     */
+    public String getCacheKey() {
+        return useLatLon ? latitude + "," + longitude : locationSetting;
+    }
+
+    /**
+     * Collect every location to sync: the preferred one first, exactly as the user set it,
+     * followed by the other saved locations the user has had as the preferred one lately, the
+     * most recent first. Locations that haven't been used for {@link #SAVED_LOCATION_EXPIRY}
+     * stay in the location table, but aren't refreshed anymore.
+     */
+    public static List<SyncLocation> loadAll(Context context) {
+        List<SyncLocation> locations = new ArrayList<SyncLocation>();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        long now = System.currentTimeMillis();
+
+        // We no longer need just the location String, but also potentially the latitude and
+        // longitude, in case we are syncing based on a new Place Picker API result.
+        String preferredSetting = Utility.getPreferredLocation(context);
+        String nearbySetting = null;
+        if (Utility.isLocationLatLonAvailable(context)) {
+            nearbySetting = findNearbyLocation(context, preferredSetting,
+                    Utility.getLocationLatitude(context), Utility.getLocationLongitude(context));
+        }
+        locations.add(new SyncLocation(preferredSetting,
+                Utility.isLocationLatLonAvailable(context),
+                Utility.getLocationLatitude(context),
+                Utility.getLocationLongitude(context),
+                true, nearbySetting));
+        editor.putLong(Utility.getLocationLastUsedKey(context, preferredSetting), now);
+
+        // Saved locations are asked for by the coordinates OWM gave us for them, since the
+        // setting string might be a Place Picker address the service can't resolve.
+        final Map<SyncLocation, Long> lastUsed = new HashMap<SyncLocation, Long>();
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, LOCATION_COLUMNS, null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    String setting = cursor.getString(COL_LOCATION_SETTING);
+                    if (preferredSetting.equals(setting)) {
+                        continue;
+                    }
+                    String lastUsedKey = Utility.getLocationLastUsedKey(context, setting);
+                    long used = prefs.getLong(lastUsedKey, -1);
+                    if (used == -1) {
+                        // Saved before the time was kept, so it gets a full period from now.
+                        used = now;
+                        editor.putLong(lastUsedKey, used);
+                    }
+                    if (now - used > SAVED_LOCATION_EXPIRY) {
+                        continue;
+                    }
+                    lastUsed.put(new SyncLocation(setting, true,
+                            cursor.getDouble(COL_COORD_LAT),
+                            cursor.getDouble(COL_COORD_LONG),
+                            false), used);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        editor.apply();
+
+        List<SyncLocation> saved = new ArrayList<SyncLocation>(lastUsed.keySet());
+        Collections.sort(saved, new Comparator<SyncLocation>() {
+            @Override
+            public int compare(SyncLocation lhs, SyncLocation rhs) {
+                return lastUsed.get(rhs).compareTo(lastUsed.get(lhs));
+            }
+        });
+        locations.addAll(saved.subList(0, Math.min(saved.size(), MAX_SAVED_LOCATIONS)));
+        return locations;
+    }
+
+    /**
+     * A newly picked place gets a location setting of its own, the address, so its forecast
+     * would be fetched once more even when a saved location is just around the corner.
+     *
+     * @return the setting of the nearest saved location within {@link #NEARBY_RADIUS_METERS}
+     * if locationSetting isn't stored yet, or null.
+     */
+    static String findNearbyLocation(Context context, String locationSetting,
+                                     double latitude, double longitude) {
+        Cursor existing = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, ID_COLUMNS,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting}, null);
+        if (existing == null) {
+            return null;
+        }
+        try {
+            if (existing.moveToFirst()) {
+                return null;
+            }
+        } finally {
+            existing.close();
+        }
+
+        // Nearest first
+        Cursor nearby = context.getContentResolver().query(
+                WeatherContract.LocationEntry.buildLocationNear(latitude, longitude,
+                        NEARBY_RADIUS_METERS), SETTING_COLUMNS, null, null, null);
+        if (nearby == null) {
+            return null;
+        }
+        try {
+            return nearby.moveToFirst() ? nearby.getString(0) : null;
+        } finally {
+            nearby.close();
+        }
+    }
+}
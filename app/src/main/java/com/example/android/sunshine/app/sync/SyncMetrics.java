@@ -0,0 +1,231 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time of a sync goes. Every stage of the pipeline, from opening the connection to
+ * telling the watch face, records its duration into a rolling histogram of its most recent
+ * samples, and the pipeline keeps byte and row counters next to them.
+ *
+ * Everything lives in memory for as long as the process does. It can be read with
+ * {@code adb shell dumpsys activity service .sync.SunshineSyncService}.
+ */
+public class SyncMetrics {
+
+    // Network, per request
+    public static final String STAGE_CONNECT = "connect";
+    public static final String STAGE_FIRST_BYTE = "first_byte";
+    // Decoding, per response, including the body as it comes off the network
+    public static final String STAGE_PARSE = "parse";
+    public static final String STAGE_PARSE_HOURLY = "parse_hourly";
+    // Storing, per sync
+    public static final String STAGE_ADD_LOCATION = "add_location";
+    public static final String STAGE_DIFF = "diff";
+    // Every write of a sync, daily and hourly, in one provider batch
+    public static final String STAGE_APPLY_BATCH = "apply_batch";
+    // Moving past days into the archive, per sync
+    public static final String STAGE_ARCHIVE = "archive";
+    // Fan-out, per sync that changed something
+    public static final String STAGE_FANOUT_WIDGETS = "fanout_widgets";
+    public static final String STAGE_FANOUT_MUZEI = "fanout_muzei";
+    public static final String STAGE_FANOUT_NOTIFICATION = "fanout_notification";
+    public static final String STAGE_FANOUT_WEARABLE = "fanout_wearable";
+    // The whole of onPerformSync
+    public static final String STAGE_SYNC = "sync";
+
+    public static final String COUNTER_SYNCS = "syncs";
+    public static final String COUNTER_REQUESTS = "requests";
+    public static final String COUNTER_BYTES_RECEIVED = "bytes_received";
+    public static final String COUNTER_BYTES_DECOMPRESSED = "bytes_decompressed";
+    public static final String COUNTER_ROWS_INSERTED = "rows_inserted";
+    public static final String COUNTER_ROWS_ARCHIVED = "rows_archived";
+    public static final String COUNTER_HOURLY_ROWS_INSERTED = "hourly_rows_inserted";
+    public static final String COUNTER_HOURLY_ROWS_DELETED = "hourly_rows_deleted";
+
+    // Listed in pipeline order, which is the order they are dumped in
+    private static final String[] STAGES = {
+            STAGE_CONNECT, STAGE_FIRST_BYTE, STAGE_PARSE, STAGE_PARSE_HOURLY,
+            STAGE_ADD_LOCATION, STAGE_DIFF, STAGE_APPLY_BATCH, STAGE_ARCHIVE,
+            STAGE_FANOUT_WIDGETS, STAGE_FANOUT_MUZEI, STAGE_FANOUT_NOTIFICATION,
+            STAGE_FANOUT_WEARABLE, STAGE_SYNC
+    };
+
+    private static final String[] COUNTERS = {
+            COUNTER_SYNCS, COUNTER_REQUESTS, COUNTER_BYTES_RECEIVED, COUNTER_BYTES_DECOMPRESSED,
+            COUNTER_ROWS_INSERTED, COUNTER_ROWS_ARCHIVED, COUNTER_HOURLY_ROWS_INSERTED,
+            COUNTER_HOURLY_ROWS_DELETED
+    };
+
+    /** How many of the most recent samples each histogram keeps. */
+    static final int HISTOGRAM_SIZE = 128;
+
+    /**
+     * The most recent durations of one stage, in nanoseconds. Percentiles are over the samples
+     * still in the window, while the count covers every sample ever recorded.
+     */
+    public static class Histogram {
+        private final long[] mSamples;
+        private long mCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        Histogram(int size) {
+            mSamples = new long[size];
+        }
+
+        public synchronized void record(long nanos) {
+            mSamples[(int) (mCount % mSamples.length)] = nanos;
+            mCount++;
+            mTotalNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+        }
+
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return the mean over every sample ever recorded.
+         */
+        public synchronized long getMeanNanos() {
+            return mCount == 0 ? 0 : mTotalNanos / mCount;
+        }
+
+        /**
+         * @return the largest sample ever recorded.
+         */
+        public synchronized long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the given percentile of the samples in the window, or 0 if there are none.
+         */
+        public synchronized long getPercentileNanos(int percentile) {
+            int size = (int) Math.min(mCount, mSamples.length);
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(mSamples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+
+        synchronized void reset() {
+            mCount = 0;
+            mTotalNanos = 0;
+            mMaxNanos = 0;
+        }
+    }
+
+    private static final SyncMetrics sInstance = new SyncMetrics();
+
+    private final Map<String, Histogram> mHistograms = new LinkedHashMap<String, Histogram>();
+    private final Map<String, long[]> mCounters = new LinkedHashMap<String, long[]>();
+
+    SyncMetrics() {
+        for (String stage : STAGES) {
+            mHistograms.put(stage, new Histogram(HISTOGRAM_SIZE));
+        }
+        for (String counter : COUNTERS) {
+            mCounters.put(counter, new long[1]);
+        }
+    }
+
+    public static SyncMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return a start time to hand to {@link #recordSince(String, long)}.
+     */
+    public static long startTimer() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the time elapsed since a {@link #startTimer()}.
+     */
+    public void recordSince(String stage, long startNanos) {
+        record(stage, System.nanoTime() - startNanos);
+    }
+
+    public void record(String stage, long nanos) {
+        getHistogram(stage).record(nanos);
+    }
+
+    public void increment(String counter, long delta) {
+        synchronized (mCounters) {
+            long[] value = mCounters.get(counter);
+            if (value == null) {
+                throw new IllegalArgumentException("Unknown counter " + counter);
+            }
+            value[0] += delta;
+        }
+    }
+
+    public long getCounter(String counter) {
+        synchronized (mCounters) {
+            long[] value = mCounters.get(counter);
+            return value == null ? 0 : value[0];
+        }
+    }
+
+    public Histogram getHistogram(String stage) {
+        Histogram histogram = mHistograms.get(stage);
+        if (histogram == null) {
+            throw new IllegalArgumentException("Unknown stage " + stage);
+        }
+        return histogram;
+    }
+
+    /**
+     * Clear every histogram and counter.
+     */
+    public void reset() {
+        for (Histogram histogram : mHistograms.values()) {
+            histogram.reset();
+        }
+        synchronized (mCounters) {
+            for (long[] value : mCounters.values()) {
+                value[0] = 0;
+            }
+        }
+    }
+
+    /**
+     * Print a table of the stages, in milliseconds, followed by the counters.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("Sync stages (ms):");
+        writer.println(String.format(Locale.US, "  %-22s %8s %9s %9s %9s %9s %9s",
+                "stage", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            writer.println(String.format(Locale.US, "  %-22s %8d %9.2f %9.2f %9.2f %9.2f %9.2f",
+                    entry.getKey(), histogram.getCount(),
+                    toMillis(histogram.getMeanNanos()),
+                    toMillis(histogram.getPercentileNanos(50)),
+                    toMillis(histogram.getPercentileNanos(90)),
+                    toMillis(histogram.getPercentileNanos(99)),
+                    toMillis(histogram.getMaxNanos())));
+        }
+        writer.println("Sync counters:");
+        synchronized (mCounters) {
+            for (Map.Entry<String, long[]> entry : mCounters.entrySet()) {
+                writer.println(String.format(Locale.US, "  %-22s %d", entry.getKey(), entry.getValue()[0]));
+            }
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
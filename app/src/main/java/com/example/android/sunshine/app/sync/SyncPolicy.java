@@ -0,0 +1,13 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Decides how long to wait before the next periodic sync.
+ */
+public interface SyncPolicy {
+
+    /**
+     * @param conditions what we know about the device and the forecast right now
+     * @return the number of seconds until the next sync
+     */
+    int computeInterval(SyncConditions conditions);
+}
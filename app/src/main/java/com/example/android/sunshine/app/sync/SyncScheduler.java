@@ -0,0 +1,153 @@
+package com.example.android.sunshine.app.sync;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+import java.util.Calendar;
+
+/**
+ * Picks the periodic sync interval after every sync. It keeps a short history of whether
+ * recent syncs changed the forecast, reads the device state, and hands both to a
+ * {@link SyncPolicy}. The periodic sync is only reconfigured when the interval changes.
+ */
+public class SyncScheduler {
+
+    private static final String TAG = "SyncScheduler";
+
+    /** Number of recent syncs the change rate is computed over. */
+    static final int HISTORY_LENGTH = 8;
+
+    /** A watch face that asked for data within this long counts as being displayed. */
+    private static final long WEARABLE_ACTIVE_MILLIS = 1000 * 60 * 60 * 24;
+
+    /** Battery level, as a fraction, below which we count the battery as low. */
+    private static final float LOW_BATTERY_LEVEL = 0.15f;
+
+    private final Context mContext;
+    private final SyncPolicy mPolicy;
+
+    public SyncScheduler(Context context, SyncPolicy policy) {
+        mContext = context;
+        mPolicy = policy;
+    }
+
+    /**
+     * @return a scheduler using the adaptive policy around the default interval.
+     */
+    public static SyncScheduler getDefault(Context context) {
+        return new SyncScheduler(context,
+                new AdaptiveSyncPolicy(SunshineSyncAdapter.SYNC_INTERVAL));
+    }
+
+    /**
+     * Remember whether the sync that just finished changed anything, then reschedule. Only
+     * syncs that got a forecast, changed or not, belong in the history.
+     */
+    public void onSyncFinished(boolean changed) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String historyKey = mContext.getString(R.string.pref_sync_history);
+        String history = appendHistory(prefs.getString(historyKey, ""), changed);
+        prefs.edit().putString(historyKey, history).apply();
+        reschedule();
+    }
+
+    /**
+     * Recompute the interval and reconfigure the periodic sync if it differs from the one last
+     * scheduled, which {@link SunshineSyncAdapter#configurePeriodicSync} records. An interval
+     * that was never recorded is always reconfigured.
+     */
+    public void reschedule() {
+        int interval = mPolicy.computeInterval(readConditions());
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        if (prefs.getInt(mContext.getString(R.string.pref_sync_interval), -1) != interval) {
+            Log.d(TAG, "Next syncs every " + interval + "s");
+            SunshineSyncAdapter.configurePeriodicSync(mContext, interval, interval / 3);
+        }
+    }
+
+    /**
+     * Called when the watch face asks the phone for data, which tells us it is displayed.
+     */
+    public static void recordWearableRequest(Context context) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putLong(context.getString(R.string.pref_last_wearable_request),
+                        System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * Read the current state of the device and the recent sync history.
+     */
+    SyncConditions readConditions() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        float changeRate = changeRate(
+                prefs.getString(mContext.getString(R.string.pref_sync_history), ""));
+
+        // A sticky broadcast, so no receiver is needed.
+        Intent battery = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean charging = false;
+        boolean batteryLow = false;
+        if (battery != null) {
+            charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            batteryLow = level >= 0 && scale > 0 && (float) level / scale < LOW_BATTERY_LEVEL;
+        }
+
+        ConnectivityManager cm =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        boolean unmetered = cm.getActiveNetworkInfo() != null && !cm.isActiveNetworkMetered();
+
+        return new SyncConditions(Calendar.getInstance().get(Calendar.HOUR_OF_DAY),
+                changeRate, isDisplayed(prefs), charging, batteryLow, unmetered);
+    }
+
+    private boolean isDisplayed(SharedPreferences prefs) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(mContext);
+        if (appWidgetManager.getAppWidgetIds(
+                new ComponentName(mContext, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(mContext, DetailWidgetProvider.class)).length > 0) {
+            return true;
+        }
+        long lastWearableRequest =
+                prefs.getLong(mContext.getString(R.string.pref_last_wearable_request), 0);
+        return System.currentTimeMillis() - lastWearableRequest < WEARABLE_ACTIVE_MILLIS;
+    }
+
+    /**
+     * The history is a string of '1' (changed) and '0' (unchanged), oldest first.
+     */
+    static String appendHistory(String history, boolean changed) {
+        String appended = history + (changed ? '1' : '0');
+        return appended.length() > HISTORY_LENGTH
+                ? appended.substring(appended.length() - HISTORY_LENGTH) : appended;
+    }
+
+    static float changeRate(String history) {
+        if (history.length() == 0) {
+            // Without a history, behave as if the forecast changes every other sync.
+            return 0.5f;
+        }
+        int changed = 0;
+        for (int i = 0; i < history.length(); i++) {
+            if (history.charAt(i) == '1') {
+                changed++;
+            }
+        }
+        return (float) changed / history.length();
+    }
+}
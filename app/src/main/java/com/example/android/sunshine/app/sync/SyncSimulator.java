@@ -0,0 +1,131 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays a {@link SyncPolicy} against a made-up but repeatable stretch of days, so that
+ * policies can be compared on the number of radio wake-ups they cause and on how stale the
+ * forecast gets. The same seed always produces the same weather and the same device usage.
+ *
+ * The simulated day: forecast updates are more likely during the day than at night, the
+ * weather is displayed from 07:00 to 23:00, and the device charges on Wi-Fi overnight.
+ */
+public class SyncSimulator {
+
+    private static final int MINUTES_PER_HOUR = 60;
+    private static final int MINUTES_PER_DAY = 24 * MINUTES_PER_HOUR;
+
+    /* Chance that the upstream forecast changes within a given hour */
+    private static final float DAY_CHANGE_PROBABILITY = 0.3f;
+    private static final float NIGHT_CHANGE_PROBABILITY = 0.1f;
+
+    private static final int DISPLAY_START_HOUR = 7;
+    private static final int DISPLAY_END_HOUR = 23;
+    private static final int CHARGING_END_HOUR = 7;
+    // The first sync after this hour is the one that has the forecast ready for the morning
+    private static final int MORNING_HOUR = 6;
+
+    /**
+     * The outcome of a simulation.
+     */
+    public static class Report {
+        /** Number of syncs, i.e. radio wake-ups. */
+        public int wakeups;
+        /** Number of syncs that found a changed forecast. */
+        public int usefulWakeups;
+        /** Number of upstream forecast changes. */
+        public int changes;
+        /** Sum over every change of how long it took to reach the device. */
+        public long totalStalenessMinutes;
+        /** Longest time any change took to reach the device. */
+        public long maxStalenessMinutes;
+        /** Latest time of day, in minutes, of the first sync after 06:00 on any day. */
+        public int latestMorningSyncMinute;
+
+        public float getMeanStalenessMinutes() {
+            return changes == 0 ? 0 : (float) totalStalenessMinutes / changes;
+        }
+
+        @Override
+        public String toString() {
+            return wakeups + " wake-ups (" + usefulWakeups + " useful), " + changes
+                    + " changes, mean staleness " + getMeanStalenessMinutes()
+                    + " min, max staleness " + maxStalenessMinutes + " min, latest morning sync "
+                    + latestMorningSyncMinute + " min past midnight";
+        }
+    }
+
+    private final int mDays;
+    private final List<Integer> mChangeMinutes = new ArrayList<Integer>();
+
+    public SyncSimulator(long seed, int days) {
+        mDays = days;
+        Random random = new Random(seed);
+        for (int hour = 0; hour < days * 24; hour++) {
+            float probability = isNight(hour % 24)
+                    ? NIGHT_CHANGE_PROBABILITY : DAY_CHANGE_PROBABILITY;
+            if (random.nextFloat() < probability) {
+                mChangeMinutes.add(hour * MINUTES_PER_HOUR + random.nextInt(MINUTES_PER_HOUR));
+            }
+        }
+    }
+
+    public Report run(SyncPolicy policy) {
+        Report report = new Report();
+        report.changes = mChangeMinutes.size();
+
+        int end = mDays * MINUTES_PER_DAY;
+        int now = 0;
+        int nextChange = 0;
+        int lastMorningDay = -1;
+        String history = "";
+        while (true) {
+            int hour = (now / MINUTES_PER_HOUR) % 24;
+            boolean charging = hour < CHARGING_END_HOUR;
+            SyncConditions conditions = new SyncConditions(hour,
+                    SyncScheduler.changeRate(history),
+                    hour >= DISPLAY_START_HOUR && hour < DISPLAY_END_HOUR,
+                    charging, false, charging);
+            now += Math.max(1, policy.computeInterval(conditions) / 60);
+            if (now >= end) {
+                break;
+            }
+
+            report.wakeups++;
+            int day = now / MINUTES_PER_DAY;
+            int minuteOfDay = now % MINUTES_PER_DAY;
+            if (day != lastMorningDay && minuteOfDay >= MORNING_HOUR * MINUTES_PER_HOUR) {
+                report.latestMorningSyncMinute =
+                        Math.max(report.latestMorningSyncMinute, minuteOfDay);
+                lastMorningDay = day;
+            }
+            boolean changed = false;
+            while (nextChange < mChangeMinutes.size() && mChangeMinutes.get(nextChange) <= now) {
+                addStaleness(report, now - mChangeMinutes.get(nextChange));
+                nextChange++;
+                changed = true;
+            }
+            if (changed) {
+                report.usefulWakeups++;
+            }
+            history = SyncScheduler.appendHistory(history, changed);
+        }
+
+        // Changes that never made it to the device were stale until the end.
+        for (; nextChange < mChangeMinutes.size(); nextChange++) {
+            addStaleness(report, end - mChangeMinutes.get(nextChange));
+        }
+        return report;
+    }
+
+    private static void addStaleness(Report report, long minutes) {
+        report.totalStalenessMinutes += minutes;
+        report.maxStalenessMinutes = Math.max(report.maxStalenessMinutes, minutes);
+    }
+
+    private static boolean isNight(int hourOfDay) {
+        return hourOfDay < DISPLAY_START_HOUR;
+    }
+}
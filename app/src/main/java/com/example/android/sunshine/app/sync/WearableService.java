@@ -52,6 +52,9 @@ public class WearableService extends WearableListenerService implements
     public void onMessageReceived(MessageEvent messageEvent) {
         Log.d(TAG, "Message received: " + messageEvent.getPath());
         if(messageEvent.getPath().equals(Constants.PATH)){
+            /* The watch face asked for data, so it is on screen */
+            SyncScheduler.recordWearableRequest(WearableService.this);
+
             mGoogleApiClient.blockingConnect(TIMEOUT_MS, TimeUnit.MILLISECONDS);
             if(mGoogleApiClient.isConnected()){
                 Log.d(TAG, "Sending the weather update...");
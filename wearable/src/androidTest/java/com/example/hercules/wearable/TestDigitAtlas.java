@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.hercules.wearable;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/*
+    Checks that the time drawn from the digit atlas matches the text it replaces, and times
+    it against Canvas.drawText.
+ */
+public class TestDigitAtlas extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDigitAtlas.class.getSimpleName();
+
+    private static final int FRAMES = 2000;
+    private static final char[] TIME = {'1', '0', ':', '0', '8'};
+
+    private Paint mPaint;
+    private DigitAtlas mAtlas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPaint = new Paint();
+        mPaint.setColor(Color.WHITE);
+        mPaint.setAntiAlias(true);
+        mPaint.setTypeface(Typeface.create("sans-serif-condensed", Typeface.NORMAL));
+        mPaint.setTextSize(45);
+        mAtlas = new DigitAtlas();
+        mAtlas.build(mPaint);
+    }
+
+    public void testMeasureMatchesText() {
+        // Digits and colons aren't kerned, so their advances add up to the width of the text
+        assertEquals(mPaint.measureText(TIME, 0, TIME.length),
+                mAtlas.measure(TIME, 0, TIME.length), 1);
+    }
+
+    public void testDrawsLikeDrawText() {
+        Bitmap text = Bitmap.createBitmap(160, 80, Bitmap.Config.ARGB_8888);
+        new Canvas(text).drawText(TIME, 0, TIME.length, 10, 60, mPaint);
+        Bitmap atlas = Bitmap.createBitmap(160, 80, Bitmap.Config.ARGB_8888);
+        mAtlas.draw(new Canvas(atlas), TIME, 0, TIME.length, 10, 60, mPaint);
+
+        // Glyph positions are rounded to whole pixels in the atlas, so the edges may be
+        // shaded a little differently, but the same pixels are covered.
+        int covered = 0;
+        int differing = 0;
+        for (int y = 0; y < text.getHeight(); y++) {
+            for (int x = 0; x < text.getWidth(); x++) {
+                boolean inText = Color.alpha(text.getPixel(x, y)) > 127;
+                boolean inAtlas = Color.alpha(atlas.getPixel(x, y)) > 127;
+                if (inText) {
+                    covered++;
+                }
+                if (inText != inAtlas) {
+                    differing++;
+                }
+            }
+        }
+        assertTrue("Error: Nothing was drawn", covered > 0);
+        assertTrue("Error: " + differing + " of " + covered + " pixels differ",
+                differing < covered / 10);
+    }
+
+    public void testDrawDoesNotAllocate() {
+        Canvas canvas = new Canvas(Bitmap.createBitmap(160, 80, Bitmap.Config.ARGB_8888));
+        mAtlas.draw(canvas, TIME, 0, TIME.length, 10, 60, mPaint);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < 100; i++) {
+                mAtlas.draw(canvas, TIME, 0, TIME.length, 10, 60, mPaint);
+            }
+            assertEquals(0, Debug.getThreadAllocCount());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    public void testBenchmarkAgainstDrawText() {
+        Canvas canvas = new Canvas(Bitmap.createBitmap(320, 320, Bitmap.Config.ARGB_8888));
+        for (int i = 0; i < 50; i++) {
+            canvas.drawText(TIME, 0, TIME.length, 10, 160, mPaint);
+            mAtlas.draw(canvas, TIME, 0, TIME.length, 10, 160, mPaint);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            canvas.drawText(TIME, 0, TIME.length, 10, 160, mPaint);
+        }
+        long textNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            mAtlas.draw(canvas, TIME, 0, TIME.length, 10, 160, mPaint);
+        }
+        long atlasNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        mAtlas.build(mPaint);
+        long buildNanos = System.nanoTime() - start;
+
+        Log.d(LOG_TAG, String.format(Locale.US,
+                "drawText %.1fus/frame, atlas %.1fus/frame, building the atlas %.1fus",
+                textNanos / 1000.0 / FRAMES, atlasNanos / 1000.0 / FRAMES, buildNanos / 1000.0));
+    }
+}
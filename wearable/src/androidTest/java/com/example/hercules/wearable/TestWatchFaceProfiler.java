@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.hercules.wearable;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/*
+    Checks what the watch face profiler counts, and that counting doesn't allocate.
+ */
+public class TestWatchFaceProfiler extends AndroidTestCase {
+
+    private WatchFaceProfiler mProfiler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProfiler = new WatchFaceProfiler();
+    }
+
+    public void testFramesAreBucketed() {
+        mProfiler.recordFrame(100 * 1000, false);
+        mProfiler.recordFrame(250 * 1000, false);
+        mProfiler.recordFrame(40 * 1000 * 1000, false);
+        mProfiler.recordFrame(3 * 1000 * 1000, true);
+
+        assertEquals(3, mProfiler.getFrames(WatchFaceProfiler.INTERACTIVE));
+        assertEquals(1, mProfiler.getFrames(WatchFaceProfiler.AMBIENT));
+        assertEquals(1, mProfiler.getFrameBucket(WatchFaceProfiler.INTERACTIVE, 0));
+        // A bucket's limit is the start of the next one
+        assertEquals(1, mProfiler.getFrameBucket(WatchFaceProfiler.INTERACTIVE, 1));
+        assertEquals(1, mProfiler.getFrameBucket(WatchFaceProfiler.INTERACTIVE,
+                WatchFaceProfiler.BUCKET_LIMITS_US.length));
+        // 2000us to 4000us
+        assertEquals(1, mProfiler.getFrameBucket(WatchFaceProfiler.AMBIENT, 4));
+    }
+
+    public void testTimeInEachMode() {
+        mProfiler.setMode(true, false, 1000);
+        mProfiler.setMode(true, true, 4000);
+        // Hidden time isn't counted
+        mProfiler.setMode(false, true, 10000);
+        mProfiler.setMode(true, false, 50000);
+
+        assertEquals(3000 + 2000, mProfiler.getModeMillis(WatchFaceProfiler.INTERACTIVE, 52000));
+        assertEquals(6000, mProfiler.getModeMillis(WatchFaceProfiler.AMBIENT, 52000));
+    }
+
+    public void testDumpAndReset() {
+        mProfiler.recordInvalidate(WatchFaceProfiler.SOURCE_TIME_TICK);
+        mProfiler.recordInvalidate(WatchFaceProfiler.SOURCE_BITMAP_LOADED);
+        mProfiler.recordInvalidate(WatchFaceProfiler.SOURCE_BITMAP_LOADED);
+        mProfiler.recordTimerWakeup();
+        mProfiler.recordFrame(1000, false);
+
+        String dump = dump();
+        assertTrue(dump, dump.contains("bitmap loaded: 2"));
+        assertTrue(dump, dump.contains("timer wakeups: 1"));
+        assertTrue(dump, dump.contains("interactive: 0s shown, 1 frames"));
+
+        mProfiler.reset(0);
+        assertEquals(0, mProfiler.getInvalidates(WatchFaceProfiler.SOURCE_BITMAP_LOADED));
+        assertEquals(0, mProfiler.getTimerWakeups());
+        assertEquals(0, mProfiler.getFrames(WatchFaceProfiler.INTERACTIVE));
+    }
+
+    public void testRecordingDoesNotAllocate() {
+        mProfiler.recordFrame(1000, false);
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < 100; i++) {
+                mProfiler.recordFrame(i * 100000L, i % 2 == 0);
+                mProfiler.recordInvalidate(WatchFaceProfiler.SOURCE_UPDATE_TIME);
+                mProfiler.recordTimerWakeup();
+                mProfiler.setMode(true, i % 2 == 0, i * 1000L);
+            }
+            assertEquals(0, Debug.getThreadAllocCount());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private String dump() {
+        StringWriter writer = new StringWriter();
+        PrintWriter out = new PrintWriter(writer);
+        mProfiler.dump("", out, 0);
+        out.flush();
+        return writer.toString();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.hercules.wearable;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+/*
+    Draws frames of the watch face into a bitmap and fails if drawing one allocates, in
+    interactive and ambient mode and across minute changes. Also checks when the static layer
+    is drawn again.
+ */
+public class TestWatchFaceRenderer extends AndroidTestCase {
+
+    private static final int SIZE = 320;
+    private static final int FRAMES = 120;
+
+    private WatchFaceRenderer mRenderer;
+    private Canvas mCanvas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRenderer = new WatchFaceRenderer(mContext.getResources());
+        mRenderer.setTextSizes(45, 15, 25);
+        mRenderer.setWeather("FRI, DEC 19 2014", "25°", "16°");
+        mRenderer.setWeatherIcon(Bitmap.createBitmap(32, 32, Bitmap.Config.ARGB_8888));
+        mCanvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    public void testInteractiveFrameDoesNotAllocate() {
+        assertNoAllocations(false);
+    }
+
+    public void testAmbientFrameDoesNotAllocate() {
+        mRenderer.setAntiAlias(false);
+        assertNoAllocations(true);
+    }
+
+    public void testNewWeatherIsDrawn() {
+        mRenderer.draw(mCanvas, 10, 8, false);
+        mRenderer.setWeather("SAT, DEC 20 2014", "-3°", "-12°");
+        // Measuring the new texts is the first frame's work, not every frame's
+        mRenderer.draw(mCanvas, 10, 8, false);
+        assertNoAllocations(false);
+    }
+
+    public void testStaticLayerIsOnlyRebuiltOnChange() {
+        mRenderer.draw(mCanvas, 10, 8, false);
+        assertEquals(1, mRenderer.getStaticLayerRebuilds());
+
+        // The time changing isn't a change of the layer
+        for (int i = 0; i < 10; i++) {
+            mRenderer.draw(mCanvas, 10, 8 + i / 5, false);
+        }
+        assertEquals(1, mRenderer.getStaticLayerRebuilds());
+        assertEquals(10, mRenderer.getStaticLayerReuses());
+
+        mRenderer.setWeather("SAT, DEC 20 2014", "-3°", "-12°");
+        mRenderer.draw(mCanvas, 10, 9, false);
+        assertEquals(2, mRenderer.getStaticLayerRebuilds());
+
+        mRenderer.draw(mCanvas, 10, 9, true);
+        assertEquals(3, mRenderer.getStaticLayerRebuilds());
+
+        mRenderer.setAlpha(WeatherWatchFace.MUTE_ALPHA);
+        mRenderer.draw(mCanvas, 10, 9, true);
+        assertEquals(4, mRenderer.getStaticLayerRebuilds());
+
+        mRenderer.setBottomInset(30);
+        mRenderer.draw(mCanvas, 10, 9, true);
+        assertEquals(5, mRenderer.getStaticLayerRebuilds());
+        assertEquals(10, mRenderer.getStaticLayerReuses());
+    }
+
+    private void assertNoAllocations(boolean ambient) {
+        // The first frame measures and the paints set up their native state
+        mRenderer.draw(mCanvas, 23, 59, ambient);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < FRAMES; i++) {
+                // A new minute every ten frames, and midnight on the way
+                int minutes = 23 * 60 + 55 + i / 10;
+                mRenderer.draw(mCanvas, minutes / 60 % 24, minutes % 60, ambient);
+            }
+            int allocations = Debug.getThreadAllocCount();
+            assertEquals("Error: Drawing " + FRAMES + " frames allocated " + allocations
+                    + " objects", 0, allocations);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
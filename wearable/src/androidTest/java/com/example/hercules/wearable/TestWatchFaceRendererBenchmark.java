@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.hercules.wearable;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.hercules.wearable.utils.TextFormatter;
+
+import java.util.Locale;
+
+/*
+    Compares the time a frame takes with the layout pass against the onDraw it replaced,
+    which measured and positioned every component on every frame, on a round, a square and
+    a "flat tire" surface.
+ */
+public class TestWatchFaceRendererBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWatchFaceRendererBenchmark.class.getSimpleName();
+
+    private static final int WARM_UP_FRAMES = 50;
+    private static final int FRAMES = 2000;
+
+    private static final String DATE = "FRI, DEC 19 2014";
+    private static final String HIGH = "25°";
+    private static final String LOW = "16°";
+
+    private Bitmap mIcon;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIcon = Bitmap.createBitmap(32, 32, Bitmap.Config.ARGB_8888);
+    }
+
+    public void testBenchmarkRound() {
+        benchmark("round", 320, 320, 0, R.dimen.digital_text_size_round);
+    }
+
+    public void testBenchmarkSquare() {
+        benchmark("square", 280, 280, 0, R.dimen.digital_text_size);
+    }
+
+    public void testBenchmarkFlatTire() {
+        benchmark("flat tire", 320, 320, 30, R.dimen.digital_text_size_round);
+    }
+
+    private void benchmark(String shape, int width, int height, int bottomInset,
+                           int textSizeId) {
+        Resources resources = mContext.getResources();
+        float textSize = resources.getDimension(textSizeId);
+        float dateTextSize = resources.getDimension(R.dimen.digital_date_text_size);
+        float subTextSize = resources.getDimension(R.dimen.digital_sub_text_size);
+        Canvas canvas = new Canvas(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+
+        LegacyFace legacy = new LegacyFace(resources, textSize, dateTextSize, subTextSize);
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            legacy.draw(canvas, 10, i % 60);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            // A new minute every 60 frames, as in interactive mode
+            legacy.draw(canvas, 10, i / 60 % 60);
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        WatchFaceRenderer renderer = new WatchFaceRenderer(resources);
+        renderer.setTextSizes(textSize, dateTextSize, subTextSize);
+        renderer.setBottomInset(bottomInset);
+        renderer.setWeather(DATE, HIGH, LOW);
+        renderer.setWeatherIcon(mIcon);
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            renderer.draw(canvas, 10, i % 60, false);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            renderer.draw(canvas, 10, i / 60 % 60, false);
+        }
+        long rendererNanos = System.nanoTime() - start;
+
+        Log.d(LOG_TAG, String.format(Locale.US,
+                "%s %dx%d: onDraw %.1fus/frame, layout pass %.1fus/frame",
+                shape, width, height, legacyNanos / 1000.0 / FRAMES,
+                rendererNanos / 1000.0 / FRAMES));
+    }
+
+    // The onDraw this replaced
+    private class LegacyFace {
+        final Paint mBackgroundPaint = new Paint();
+        final Paint mTimePaint;
+        final Paint mDatePaint;
+        final Paint mSeparatorPaint;
+        final Paint mTempPaint;
+        final Paint mTempLowPaint;
+        final float mLineHeight;
+        final float mItemSpacing;
+        final float mSmallLineHeight;
+        final float mSeparatorWidth;
+
+        LegacyFace(Resources resources, float textSize, float dateTextSize, float subTextSize) {
+            mBackgroundPaint.setColor(resources.getColor(R.color.background));
+            mTimePaint = createTextPaint(textSize);
+            mDatePaint = createTextPaint(dateTextSize);
+            mSeparatorPaint = createTextPaint(0);
+            mSeparatorPaint.setStrokeWidth(.25f);
+            mTempPaint = createTextPaint(subTextSize);
+            mTempLowPaint = createTextPaint(subTextSize);
+            mLineHeight = resources.getDimension(R.dimen.digital_line_height);
+            mItemSpacing = mLineHeight / 2;
+            mSmallLineHeight = mLineHeight / 3;
+            mSeparatorWidth = resources.getDimension(R.dimen.separator_width);
+        }
+
+        private Paint createTextPaint(float textSize) {
+            Paint paint = new Paint();
+            paint.setColor(Color.WHITE);
+            paint.setAntiAlias(true);
+            paint.setTypeface(Typeface.create("sans-serif-condensed", Typeface.NORMAL));
+            if (textSize > 0) {
+                paint.setTextSize(textSize);
+            }
+            return paint;
+        }
+
+        void draw(Canvas canvas, int hour, int minute) {
+            canvas.drawRect(0, 0, canvas.getWidth(), canvas.getHeight(), mBackgroundPaint);
+
+            String timeFormatted = TextFormatter.formatTwoDigitNumber(hour) + ":"
+                    + TextFormatter.formatTwoDigitNumber(minute);
+
+            int xPos = (canvas.getWidth() / 2);
+            int yPos = (int) ((canvas.getHeight() / 2) - ((mTimePaint.descent() + mTimePaint.ascent()) / 2)) ;
+            yPos -= mLineHeight * 2;
+
+            int timeX = xPos - (int) (mTimePaint.measureText(timeFormatted) / 2);
+            int dateX = xPos - (int) (mDatePaint.measureText(DATE)) / 2;
+            canvas.drawText(timeFormatted, timeX, yPos, mTimePaint);
+
+            yPos += mItemSpacing - ((mDatePaint.descent() + mDatePaint.ascent()) / 2);
+            canvas.drawText(DATE, dateX, yPos, mDatePaint);
+
+            yPos += mItemSpacing;
+            int lineX = xPos - (int) ((3*mSeparatorWidth)/4);
+            canvas.drawLine(lineX, yPos, lineX + mTempPaint.measureText(HIGH), yPos, mSeparatorPaint);
+
+            yPos += mItemSpacing - ((mTempPaint.descent() + mTempPaint.ascent()) / 2);
+            canvas.drawText(HIGH, xPos - (int) (mTempPaint.measureText(HIGH) / 2), yPos + mSmallLineHeight, mTempPaint);
+
+            int xPosLowTemp = xPos + (int) (mSmallLineHeight);
+            canvas.drawText(LOW, xPosLowTemp + (int) (mTempLowPaint.measureText(LOW) / 2), yPos + mSmallLineHeight, mTempLowPaint);
+
+            int xPosBitmap = xPos - (int) (3*mLineHeight/4) - mIcon.getWidth();
+            canvas.drawBitmap(mIcon, xPosBitmap, (yPos) - mIcon.getHeight() / 2, null);
+        }
+    }
+}
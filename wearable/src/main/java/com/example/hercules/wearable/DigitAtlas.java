@@ -0,0 +1,103 @@
+package com.example.hercules.wearable;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * The digits and the colon of the time, rendered once into a bitmap, so drawing the time is
+ * copying five glyphs out of it instead of shaping and rasterizing the text every frame.
+ *
+ * The atlas is an alpha mask. Drawing it with a paint colors it with the paint's color and
+ * alpha, so it only has to be built again when the size or the anti-aliasing of the text
+ * changes, not for mute mode.
+ */
+class DigitAtlas {
+
+    private static final String GLYPHS = "0123456789:";
+    private static final int COLON = 10;
+
+    // Room around each glyph for the parts that reach past its advance
+    private static final float PADDING_FRACTION = .1f;
+
+    private Bitmap mBitmap;
+    // Where each glyph is in the atlas, padding included
+    private final Rect[] mSources = new Rect[GLYPHS.length()];
+    private final float[] mAdvances = new float[GLYPHS.length()];
+    private final RectF mDestination = new RectF();
+    private float mAscent;
+    private int mPadding;
+
+    DigitAtlas() {
+        for (int i = 0; i < mSources.length; i++) {
+            mSources[i] = new Rect();
+        }
+    }
+
+    /**
+     * Render the glyphs with the size, typeface and anti-aliasing of a paint.
+     */
+    void build(Paint paint) {
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+        mAscent = metrics.ascent;
+        mPadding = (int) Math.ceil(paint.getTextSize() * PADDING_FRACTION);
+        int height = (int) Math.ceil(metrics.descent - metrics.ascent) + 2 * mPadding;
+
+        int width = 0;
+        for (int i = 0; i < GLYPHS.length(); i++) {
+            mAdvances[i] = paint.measureText(GLYPHS, i, i + 1);
+            int cellWidth = (int) Math.ceil(mAdvances[i]) + 2 * mPadding;
+            mSources[i].set(width, 0, width + cellWidth, height);
+            width += cellWidth;
+        }
+
+        if (mBitmap != null) {
+            mBitmap.recycle();
+        }
+        mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(mBitmap);
+        Paint glyphPaint = new Paint(paint);
+        glyphPaint.setAlpha(255);
+        for (int i = 0; i < GLYPHS.length(); i++) {
+            canvas.drawText(GLYPHS, i, i + 1, mSources[i].left + mPadding,
+                    mPadding - metrics.ascent, glyphPaint);
+        }
+    }
+
+    boolean isBuilt() {
+        return mBitmap != null;
+    }
+
+    /**
+     * @return the width of text made of digits and colons, as {@link #draw} draws it.
+     */
+    float measure(char[] text, int start, int count) {
+        float width = 0;
+        for (int i = start; i < start + count; i++) {
+            width += mAdvances[indexOf(text[i])];
+        }
+        return width;
+    }
+
+    /**
+     * Draw text made of digits and colons, like {@link Canvas#drawText(char[], int, int,
+     * float, float, Paint)} would.
+     */
+    void draw(Canvas canvas, char[] text, int start, int count, float x, float y, Paint paint) {
+        float top = y + mAscent - mPadding;
+        for (int i = start; i < start + count; i++) {
+            int glyph = indexOf(text[i]);
+            Rect source = mSources[glyph];
+            mDestination.set(x - mPadding, top, x - mPadding + source.width(),
+                    top + source.height());
+            canvas.drawBitmap(mBitmap, source, mDestination, paint);
+            x += mAdvances[glyph];
+        }
+    }
+
+    private static int indexOf(char c) {
+        return c == ':' ? COLON : c - '0';
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.hercules.wearable;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * What the watch face costs: how long its frames take to draw, what asks for them, how often
+ * its timer wakes the watch up, and how long it is shown in interactive and in ambient mode.
+ *
+ * Everything is counted into arrays allocated up front, so recording doesn't add to what it
+ * measures. The numbers are printed by
+ * {@code adb shell dumpsys activity service
+ * com.example.android.sunshine.app/com.example.hercules.wearable.WeatherWatchFace},
+ * and cleared by passing "reset" after it.
+ *
+ * Frames are recorded on the main thread while dumpsys reads on a binder thread, so every
+ * method holds the profiler's lock. Uncontended, that costs next to nothing and allocates
+ * nothing.
+ */
+class WatchFaceProfiler {
+
+    /* What an invalidate() was for */
+    static final int SOURCE_TIME_TICK = 0;
+    static final int SOURCE_UPDATE_TIME = 1;
+    static final int SOURCE_WEATHER_UPDATE = 2;
+    static final int SOURCE_BITMAP_LOADED = 3;
+    static final int SOURCE_AMBIENT_CHANGED = 4;
+    static final int SOURCE_MUTE_CHANGED = 5;
+
+    private static final String[] SOURCE_NAMES = {
+            "onTimeTick", "handleUpdateTimeMessage", "weather update", "bitmap loaded",
+            "ambient changed", "mute changed"
+    };
+
+    static final int INTERACTIVE = 0;
+    static final int AMBIENT = 1;
+
+    private static final String[] MODE_NAMES = {"interactive", "ambient"};
+
+    // Upper bounds of the frame time buckets, in microseconds. The last bucket is everything
+    // slower, up to a missed frame at 60 fps and beyond.
+    static final long[] BUCKET_LIMITS_US = {250, 500, 1000, 2000, 4000, 8000, 16000};
+
+    private final long[][] mFrameBuckets = new long[2][BUCKET_LIMITS_US.length + 1];
+    private final long[] mFrames = new long[2];
+    private final long[] mFrameNanos = new long[2];
+    private final long[] mSlowestFrameNanos = new long[2];
+    private final long[] mInvalidates = new long[SOURCE_NAMES.length];
+    private long mTimerWakeups;
+
+    /* Time shown in each mode, counted while visible */
+    private final long[] mModeMillis = new long[2];
+    private boolean mVisible;
+    private boolean mAmbient;
+    private long mModeSince;
+
+    synchronized void recordFrame(long durationNanos, boolean ambient) {
+        int mode = ambient ? AMBIENT : INTERACTIVE;
+        long micros = durationNanos / 1000;
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_US.length && micros >= BUCKET_LIMITS_US[bucket]) {
+            bucket++;
+        }
+        mFrameBuckets[mode][bucket]++;
+        mFrames[mode]++;
+        mFrameNanos[mode] += durationNanos;
+        if (durationNanos > mSlowestFrameNanos[mode]) {
+            mSlowestFrameNanos[mode] = durationNanos;
+        }
+    }
+
+    synchronized void recordInvalidate(int source) {
+        mInvalidates[source]++;
+    }
+
+    synchronized void recordTimerWakeup() {
+        mTimerWakeups++;
+    }
+
+    /**
+     * Note whether the face is visible and in which mode, to count the time in each mode.
+     *
+     * @param now the time, from {@link android.os.SystemClock#elapsedRealtime()}
+     */
+    synchronized void setMode(boolean visible, boolean ambient, long now) {
+        if (mVisible) {
+            mModeMillis[mAmbient ? AMBIENT : INTERACTIVE] += now - mModeSince;
+        }
+        mVisible = visible;
+        mAmbient = ambient;
+        mModeSince = now;
+    }
+
+    synchronized long getFrames(int mode) {
+        return mFrames[mode];
+    }
+
+    synchronized long getFrameBucket(int mode, int bucket) {
+        return mFrameBuckets[mode][bucket];
+    }
+
+    synchronized long getInvalidates(int source) {
+        return mInvalidates[source];
+    }
+
+    synchronized long getTimerWakeups() {
+        return mTimerWakeups;
+    }
+
+    /**
+     * @return the time shown in a mode up to now, including the current stretch.
+     */
+    synchronized long getModeMillis(int mode, long now) {
+        long millis = mModeMillis[mode];
+        if (mVisible && (mAmbient ? AMBIENT : INTERACTIVE) == mode) {
+            millis += now - mModeSince;
+        }
+        return millis;
+    }
+
+    synchronized void reset(long now) {
+        for (int mode = 0; mode < 2; mode++) {
+            for (int bucket = 0; bucket < mFrameBuckets[mode].length; bucket++) {
+                mFrameBuckets[mode][bucket] = 0;
+            }
+            mFrames[mode] = 0;
+            mFrameNanos[mode] = 0;
+            mSlowestFrameNanos[mode] = 0;
+            mModeMillis[mode] = 0;
+        }
+        for (int source = 0; source < mInvalidates.length; source++) {
+            mInvalidates[source] = 0;
+        }
+        mTimerWakeups = 0;
+        mModeSince = now;
+    }
+
+    synchronized void dump(String prefix, PrintWriter out, long now) {
+        out.println(prefix + "Watch face profile:");
+        for (int mode = 0; mode < 2; mode++) {
+            long frames = mFrames[mode];
+            out.println(String.format(Locale.US,
+                    "%s  %s: %ds shown, %d frames, mean %.2fms, slowest %.2fms",
+                    prefix, MODE_NAMES[mode], getModeMillis(mode, now) / 1000, frames,
+                    frames == 0 ? 0 : mFrameNanos[mode] / 1e6 / frames,
+                    mSlowestFrameNanos[mode] / 1e6));
+            for (int bucket = 0; bucket < mFrameBuckets[mode].length; bucket++) {
+                String range = bucket < BUCKET_LIMITS_US.length
+                        ? "< " + BUCKET_LIMITS_US[bucket] + "us"
+                        : ">= " + BUCKET_LIMITS_US[bucket - 1] + "us";
+                out.println(prefix + "    " + range + ": " + mFrameBuckets[mode][bucket]);
+            }
+        }
+        out.println(prefix + "  invalidate() calls:");
+        for (int source = 0; source < mInvalidates.length; source++) {
+            out.println(prefix + "    " + SOURCE_NAMES[source] + ": " + mInvalidates[source]);
+        }
+        out.println(prefix + "  timer wakeups: " + mTimerWakeups);
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.hercules.wearable;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import com.example.hercules.wearable.utils.TextFormatter;
+
+/**
+ * Draws the watch face: the time, the date, and the high, low and icon of today's weather.
+ *
+ * Drawing runs every second in interactive mode, so it must not allocate: the time is written
+ * into a char buffer that is reused, and every text width is measured once and kept until the
+ * text or the paint it is drawn with changes.
+ *
+ * Where each component goes is worked out in a layout pass, which runs only when the size of
+ * the surface, the insets, the paints or a text change. A frame just draws at the positions
+ * it left. The time, the largest text, is copied out of a {@link DigitAtlas} rendered when
+ * its size or anti-aliasing changes.
+ *
+ * Everything but the time only changes with the weather, the mode or the screen, so it is
+ * drawn into an offscreen layer that is rebuilt only then, and a frame is that layer with the
+ * time on top.
+ */
+class WatchFaceRenderer {
+
+    // "HH:MM"
+    private static final int TIME_LENGTH = 5;
+
+    /* Paint objects */
+    private final Paint mBackgroundPaint;
+    private final Paint mTimePaint;
+    private final Paint mDatePaint;
+    private final Paint mSeparatorPaint;
+    private final Paint mTempPaint;
+    private final Paint mTempLowPaint;
+
+    private final float mLineHeight;
+    private final float mItemSpacing;
+    private final float mSmallLineHeight;
+    private final float mSeparatorWidth;
+
+    /* The digits of the time, pre-rendered with mTimePaint */
+    private final DigitAtlas mDigitAtlas = new DigitAtlas();
+
+    /* Text displayed for each watch face component */
+    private final char[] mTime = {'0', '0', ':', '0', '0'};
+    private String mCurrentDate;
+    private String mCurrentHigh;
+    private String mCurrentLow;
+
+    /* Icon shown on watch face */
+    private Bitmap mWeatherIcon;
+
+    /* The time the buffer holds, -1 when it holds none yet */
+    private int mHour = -1;
+    private int mMinute = -1;
+
+    /* The surface the layout was computed for */
+    private int mWidth = -1;
+    private int mHeight = -1;
+    // Height of the chin at the bottom of "flat tire" screens, which isn't drawn on
+    private int mBottomInset;
+    private boolean mLaidOut;
+    // The time is centered again when it changes, without a layout pass
+    private boolean mTimeLaidOut;
+
+    /* The background, date, separator, temperatures and icon, drawn offscreen */
+    private Bitmap mStaticLayer;
+    private Canvas mStaticCanvas;
+    private boolean mStaticLayerValid;
+    // The mode the layer was drawn in
+    private boolean mStaticLayerAmbient;
+    private int mStaticLayerRebuilds;
+    private int mStaticLayerReuses;
+
+    /* Positions computed by the layout pass */
+    private float mTimeX;
+    private float mTimeY;
+    private float mDateX;
+    private float mDateY;
+    private float mSeparatorX;
+    private float mSeparatorY;
+    private float mSeparatorEndX;
+    private float mHighX;
+    private float mLowX;
+    private float mTempY;
+    private float mIconX;
+    private float mIconY;
+
+    WatchFaceRenderer(Resources resources) {
+        mLineHeight = resources.getDimension(R.dimen.digital_line_height);
+        mItemSpacing = mLineHeight / 2;
+        mSmallLineHeight = mLineHeight / 3;
+        mSeparatorWidth = resources.getDimension(R.dimen.separator_width);
+
+        /* Paint object for the background */
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(resources.getColor(R.color.background));
+
+        /* Paint object for the time */
+        mTimePaint = createTextPaint(resources.getColor(R.color.time_color));
+
+        /* Paint object for the date */
+        mDatePaint = createTextPaint(resources.getColor(R.color.date_color));
+
+        /* Paint object for the weather status separator */
+        mSeparatorPaint = createTextPaint(resources.getColor(R.color.date_color));
+        mSeparatorPaint.setStrokeWidth(.25f);
+
+        /* Paint object for the HIGH temp text */
+        mTempPaint = createTextPaint(resources.getColor(R.color.time_color));
+
+        /* Paint object for the LOW temp text */
+        mTempLowPaint = createTextPaint(resources.getColor(R.color.date_color));
+    }
+
+    private static Paint createTextPaint(int color) {
+        Paint paint = new Paint();
+        paint.setColor(color);
+        paint.setAntiAlias(true);
+        paint.setTypeface(Typeface.create("sans-serif-condensed", Typeface.NORMAL));
+        return paint;
+    }
+
+    /**
+     * Set the sizes of the texts, which differ between round and square screens.
+     */
+    void setTextSizes(float timeSize, float dateSize, float subTextSize) {
+        mTimePaint.setTextSize(timeSize);
+        mDatePaint.setTextSize(dateSize);
+        mTempPaint.setTextSize(subTextSize);
+        mTempLowPaint.setTextSize(subTextSize);
+        mDigitAtlas.build(mTimePaint);
+        mLaidOut = false;
+    }
+
+    /**
+     * Set the part of the bottom of the screen that isn't visible, from the window insets.
+     */
+    void setBottomInset(int bottomInset) {
+        mBottomInset = bottomInset;
+        mLaidOut = false;
+    }
+
+    /**
+     * Update the anti alias state when switching from ambient to low ambient mode and backwards.
+     * Glyphs are a little narrower without it, so the texts are measured again.
+     */
+    void setAntiAlias(boolean antiAlias) {
+        mTempLowPaint.setAntiAlias(antiAlias);
+        mTempPaint.setAntiAlias(antiAlias);
+        mSeparatorPaint.setAntiAlias(antiAlias);
+        mDatePaint.setAntiAlias(antiAlias);
+        mTimePaint.setAntiAlias(antiAlias);
+        if (mDigitAtlas.isBuilt()) {
+            mDigitAtlas.build(mTimePaint);
+        }
+        mLaidOut = false;
+    }
+
+    /**
+     * Update the alpha state when updating the mute mode state.
+     */
+    void setAlpha(int alpha) {
+        mTempLowPaint.setAlpha(alpha);
+        mTempPaint.setAlpha(alpha);
+        mSeparatorPaint.setAlpha(alpha);
+        mDatePaint.setAlpha(alpha);
+        mTimePaint.setAlpha(alpha);
+        mStaticLayerValid = false;
+    }
+
+    void setWeather(String date, String high, String low) {
+        mCurrentDate = date;
+        mCurrentHigh = high;
+        mCurrentLow = low;
+        mLaidOut = false;
+    }
+
+    void setWeatherIcon(Bitmap icon) {
+        mWeatherIcon = icon;
+        mLaidOut = false;
+    }
+
+    Bitmap getWeatherIcon() {
+        return mWeatherIcon;
+    }
+
+    /**
+     * @return how many frames had to draw the static layer again.
+     */
+    int getStaticLayerRebuilds() {
+        return mStaticLayerRebuilds;
+    }
+
+    /**
+     * @return how many frames reused the static layer as it was.
+     */
+    int getStaticLayerReuses() {
+        return mStaticLayerReuses;
+    }
+
+    void draw(Canvas canvas, int hour, int minute, boolean ambient) {
+        // Format the time, once a minute.
+        if (hour != mHour || minute != mMinute) {
+            TextFormatter.writeTwoDigitNumber(mTime, 0, hour);
+            TextFormatter.writeTwoDigitNumber(mTime, 3, minute);
+            mHour = hour;
+            mMinute = minute;
+            mTimeLaidOut = false;
+        }
+        if (!mLaidOut || canvas.getWidth() != mWidth || canvas.getHeight() != mHeight) {
+            layout(canvas.getWidth(), canvas.getHeight());
+        } else if (!mTimeLaidOut) {
+            layoutTime();
+        }
+
+        if (!mStaticLayerValid || ambient != mStaticLayerAmbient) {
+            drawStaticLayer(ambient);
+            mStaticLayerRebuilds++;
+        } else {
+            mStaticLayerReuses++;
+        }
+        canvas.drawBitmap(mStaticLayer, 0, 0, null);
+        mDigitAtlas.draw(canvas, mTime, 0, TIME_LENGTH, mTimeX, mTimeY, mTimePaint);
+    }
+
+    private void drawStaticLayer(boolean ambient) {
+        if (mStaticLayer == null || mStaticLayer.getWidth() != mWidth
+                || mStaticLayer.getHeight() != mHeight) {
+            if (mStaticLayer != null) {
+                mStaticLayer.recycle();
+            }
+            mStaticLayer = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+            mStaticCanvas = new Canvas(mStaticLayer);
+        }
+        Canvas canvas = mStaticCanvas;
+
+        // Draw the background.
+        if (ambient) {
+            canvas.drawColor(Color.BLACK);
+        } else {
+            canvas.drawRect(0, 0, mWidth, mHeight, mBackgroundPaint);
+        }
+
+        canvas.drawText(mCurrentDate, mDateX, mDateY, mDatePaint);
+        canvas.drawLine(mSeparatorX, mSeparatorY, mSeparatorEndX, mSeparatorY, mSeparatorPaint);
+        canvas.drawText(mCurrentHigh, mHighX, mTempY, mTempPaint);
+        canvas.drawText(mCurrentLow, mLowX, mTempY, mTempLowPaint);
+        canvas.drawBitmap(mWeatherIcon, mIconX, mIconY, null);
+
+        mStaticLayerAmbient = ambient;
+        mStaticLayerValid = true;
+    }
+
+    /**
+     * Work out where each component goes on a surface of the given size. The components are
+     * stacked from just above the middle of the visible part of the screen down.
+     */
+    void layout(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        if (!mDigitAtlas.isBuilt()) {
+            // Drawn before the insets were applied, at the default text size
+            mDigitAtlas.build(mTimePaint);
+        }
+
+        /* Get initial positions based on size of the screen */
+        int xPos = (width / 2);
+        int yPos = (int) (((height - mBottomInset) / 2) - ((mTimePaint.descent() + mTimePaint.ascent()) / 2)) ;
+        yPos -= mLineHeight * 2;
+
+        // The time
+        layoutTime();
+        mTimeY = yPos;
+
+        // The date
+        yPos += mItemSpacing - ((mDatePaint.descent() + mDatePaint.ascent()) / 2);
+        mDateX = xPos - (int) (mDatePaint.measureText(mCurrentDate)) / 2;
+        mDateY = yPos;
+
+        // The separator, as wide as the high-temp
+        float highWidth = mTempPaint.measureText(mCurrentHigh);
+        yPos += mItemSpacing;
+        int lineX = xPos - (int) ((3*mSeparatorWidth)/4);
+        mSeparatorX = lineX;
+        mSeparatorEndX = lineX + highWidth;
+        mSeparatorY = yPos;
+
+        // The high-temp and the low-temp
+        yPos += mItemSpacing - ((mTempPaint.descent() + mTempPaint.ascent()) / 2);
+        mHighX = xPos - (int) (highWidth / 2);
+        int xPosLowTemp = xPos + (int) (mSmallLineHeight);
+        mLowX = xPosLowTemp + (int) (mTempLowPaint.measureText(mCurrentLow) / 2);
+        mTempY = yPos + mSmallLineHeight;
+
+        // The bitmap
+        mIconX = xPos - (int) (3*mLineHeight/4) - mWeatherIcon.getWidth();
+        mIconY = (yPos) - mWeatherIcon.getHeight() / 2;
+
+        mLaidOut = true;
+        mStaticLayerValid = false;
+    }
+
+    // The digits differ in width, so the time is centered on every change
+    private void layoutTime() {
+        mTimeX = mWidth / 2 - (int) (mDigitAtlas.measure(mTime, 0, TIME_LENGTH) / 2);
+        mTimeLaidOut = true;
+    }
+}
@@ -24,17 +24,15 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.format.Time;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
@@ -53,7 +51,11 @@ import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
@@ -89,8 +91,6 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
     /** Alpha value for drawing time when not in mute mode. */
     static final int NORMAL_ALPHA = 255;
 
-    static final String COLON = ":";
-
 
     @Override
     public Engine onCreateEngine() {
@@ -130,29 +130,15 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
         private boolean mRegisteredTimeZoneReceiver = false;
         private boolean mAmbient;
         private boolean mMute;
-        private float mColonWidth;
-        private Time mTime;
-
-        /* Paint objects */
-        private Paint mBackgroundPaint;
-        private Paint mTimePaint;
-        private Paint mDatePaint;
-        private Paint mSeparatorPaint;
-        private Paint mTempPaint;
-        private Paint mTempLowPaint;
-
-        /* Text displayed for each watch face component */
-        private String mCurrentDate;
-        private String mCurrentHigh;
-        private String mCurrentLow;
-
-        private float mLineHeight;
-        private float mItemSpacing;
-        private float mSmallLineHeight;
-        private float mSeparatorWidth;
-
-        /* Icon shown on watch face */
-        private Bitmap mWeatherIcon;
+        /* Set from the clock every frame, which unlike a Time doesn't allocate */
+        private Calendar mCalendar;
+
+        /* Draws the watch face components */
+        private WatchFaceRenderer mRenderer;
+
+        /* Frame times, invalidates, wakeups and time in each mode, see dump() */
+        private final WatchFaceProfiler mProfiler = new WatchFaceProfiler();
+
         private Integer mWeatherIconSize;
         private GoogleApiClient mGoogleApiClient;
 
@@ -162,8 +148,7 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mTime.clear(intent.getStringExtra("time-zone"));
-                mTime.setToNow();
+                mCalendar.setTimeZone(TimeZone.getDefault());
             }
         };
 
@@ -177,17 +162,20 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
                 Long date = intent.getLongExtra(Constants.DATA_DATE, System.currentTimeMillis());
                 Asset icon = intent.getParcelableExtra(Constants.DATA_ICON);
                 Resources resources = getResources();
-                mCurrentDate = TextFormatter.formatDate(new Date(date));
-                mCurrentHigh = TextFormatter.formatTemperature(resources, high);
-                mCurrentLow = TextFormatter.formatTemperature(resources, low);
+                mRenderer.setWeather(TextFormatter.formatDate(new Date(date)),
+                        TextFormatter.formatTemperature(resources, high),
+                        TextFormatter.formatTemperature(resources, low));
+                mProfiler.recordInvalidate(WatchFaceProfiler.SOURCE_WEATHER_UPDATE);
+                invalidate();
 
                 /* Load the passed bitmap */
                 LoadBitmapTask task = new LoadBitmapTask(mGoogleApiClient, new LoadBitmapTask.OnBitmapLoadedCallback() {
                     @Override
                     public void onBitmapLoaded(Bitmap bitmap) {
-                        if(mWeatherIcon != null){
-                            mWeatherIcon = bitmap;
+                        if(mRenderer.getWeatherIcon() != null){
+                            mRenderer.setWeatherIcon(bitmap);
                         }
+                        mProfiler.recordInvalidate(WatchFaceProfiler.SOURCE_BITMAP_LOADED);
                         invalidate();
                     }
                 });
@@ -222,7 +210,7 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
             /* Initialize everything */
             Resources resources = WeatherWatchFace.this.getResources();
             initDimens(resources);
-            initPaints(resources);
+            mRenderer = new WatchFaceRenderer(resources);
             initApiClient();
             initFields(resources);
         }
@@ -235,15 +223,15 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
 
             /* Init the displayed fields, pulling previous data as default from the cache. */
             DataCache cache = DataCache.getCache(WeatherWatchFace.this);
-            mCurrentDate = TextFormatter.formatDate(new Date());
-            mCurrentHigh = TextFormatter.formatTemperature(resources, cache.getFloat(Constants.DATA_HIGH_TEMP));
-            mCurrentLow = TextFormatter.formatTemperature(resources, cache.getFloat(Constants.DATA_LOW_TEMP));
+            mRenderer.setWeather(TextFormatter.formatDate(new Date()),
+                    TextFormatter.formatTemperature(resources, cache.getFloat(Constants.DATA_HIGH_TEMP)),
+                    TextFormatter.formatTemperature(resources, cache.getFloat(Constants.DATA_LOW_TEMP)));
 
             /* Request data from the phone every time the watchface is first displayed (stay consistent)  */
             //TODO: Can be optimized so it syncs less often then every time it's created?
             initDefaultWeatherIcon();
             requestData();
-            mTime = new Time();
+            mCalendar = Calendar.getInstance();
         }
 
         /**
@@ -251,79 +239,9 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
          * @param resources
          */
         private void initDimens(Resources resources){
-            mLineHeight = resources.getDimension(R.dimen.digital_line_height);
-            mItemSpacing = mLineHeight / 2;
-            mSmallLineHeight = mLineHeight / 3;
-            mSeparatorWidth = resources.getDimension(R.dimen.separator_width);
             mWeatherIconSize = resources.getDimensionPixelSize(R.dimen.weather_icon_size);
         }
 
-        /**
-         * Initialize all the paint objects with default colors and fonts
-         * @param resources
-         */
-        private void initPaints(Resources resources){
-
-            /* Paint object for the background */
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(resources.getColor(R.color.background));
-
-            /* Paint object for the time */
-            mTimePaint = new Paint();
-            mTimePaint.setColor(resources.getColor(R.color.time_color));
-            mTimePaint.setAntiAlias(true);
-            mTimePaint.setTypeface(Typeface.create("sans-serif-condensed", Typeface.NORMAL));
-
-            /* Paint object for the date */
-            mDatePaint = new Paint();
-            mDatePaint.setColor(resources.getColor(R.color.date_color));
-            mDatePaint.setAntiAlias(true);
-            mDatePaint.setTypeface(Typeface.create("sans-serif-condensed", Typeface.NORMAL));
-
-            /* Paint object for the weather status separator */
-            mSeparatorPaint = new Paint();
-            mSeparatorPaint.setColor(resources.getColor(R.color.date_color));
-            mSeparatorPaint.setAntiAlias(true);
-            mSeparatorPaint.setTypeface(Typeface.create("sans-serif-condensed", Typeface.NORMAL));
-            mSeparatorPaint.setStrokeWidth(.25f);
-
-            /* Paint object for the HIGH temp text */
-            mTempPaint = new Paint();
-            mTempPaint.setColor(resources.getColor(R.color.time_color));
-            mTempPaint.setAntiAlias(true);
-            mTempPaint.setTypeface(Typeface.create("sans-serif-condensed", Typeface.NORMAL));
-
-            /* Paint object for the LOW temp text */
-            mTempLowPaint = new Paint();
-            mTempLowPaint.setColor(resources.getColor(R.color.date_color));
-            mTempLowPaint.setAntiAlias(true);
-            mTempLowPaint.setTypeface(Typeface.create("sans-serif-condensed", Typeface.NORMAL));
-        }
-
-        /**
-         * Update the anti alias state when switching from ambient to low ambient mode and backwards.
-         * @param status
-         */
-        private void setAntiAliasStatus(boolean status){
-            mTempLowPaint.setAntiAlias(status);
-            mTempPaint.setAntiAlias(status);
-            mSeparatorPaint.setAntiAlias(status);
-            mDatePaint.setAntiAlias(status);
-            mTimePaint.setAntiAlias(status);
-        }
-
-        /**
-         * Update the alpha state when updating the mute mode state.
-         * @param alpha
-         */
-        private void setAlphaStatus(int alpha){
-            mTempLowPaint.setAlpha(alpha);
-            mTempPaint.setAlpha(alpha);
-            mSeparatorPaint.setAlpha(alpha);
-            mDatePaint.setAlpha(alpha);
-            mTimePaint.setAlpha(alpha);
-        }
-
         /**
          * Request the weather data if there is no cached data for today.
          */
@@ -370,6 +288,7 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            mProfiler.recordInvalidate(WatchFaceProfiler.SOURCE_TIME_TICK);
             invalidate();
         }
 
@@ -389,11 +308,8 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
                     ? R.dimen.digital_date_text_size : R.dimen.digital_date_text_size);
             float subTextSize = resources.getDimension(R.dimen.digital_sub_text_size);
 
-            mDatePaint.setTextSize(dateTextSize);
-            mTimePaint.setTextSize(textSize);
-            mTempPaint.setTextSize(subTextSize);
-            mTempLowPaint.setTextSize(subTextSize);
-            mColonWidth = mTimePaint.measureText(COLON);
+            mRenderer.setTextSizes(textSize, dateTextSize, subTextSize);
+            mRenderer.setBottomInset(insets.getSystemWindowInsetBottom());
         }
 
         @Override
@@ -402,8 +318,10 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
                 if (mLowBitAmbient) {
-                    setAntiAliasStatus(!inAmbientMode);
+                    mRenderer.setAntiAlias(!inAmbientMode);
                 }
+                mProfiler.setMode(isVisible(), inAmbientMode, SystemClock.elapsedRealtime());
+                mProfiler.recordInvalidate(WatchFaceProfiler.SOURCE_AMBIENT_CHANGED);
                 invalidate();
             }
 
@@ -412,58 +330,36 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
             updateTimer();
         }
 
-        /*
-            TODO: Optimize this so it isn't doing so much math in onDraw
-         */
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            mTime.setToNow();
+            long start = System.nanoTime();
+            boolean ambient = isInAmbientMode();
+            mCalendar.setTimeInMillis(System.currentTimeMillis());
+            mRenderer.draw(canvas, mCalendar.get(Calendar.HOUR_OF_DAY),
+                    mCalendar.get(Calendar.MINUTE), ambient);
+            mProfiler.recordFrame(System.nanoTime() - start, ambient);
+        }
 
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, canvas.getWidth(), canvas.getHeight(), mBackgroundPaint);
+        /**
+         * Print the profile of the watch face, for
+         * adb shell dumpsys activity service com.example.android.sunshine.app/com.example.hercules.wearable.WeatherWatchFace [reset]
+         * which with "reset" also clears it, to start a comparison.
+         */
+        @Override
+        protected void dump(String prefix, FileDescriptor fd, PrintWriter out, String[] args) {
+            super.dump(prefix, fd, out, args);
+            long now = SystemClock.elapsedRealtime();
+            // Held across both, so no frame is recorded between printing and clearing
+            synchronized (mProfiler) {
+                mProfiler.dump(prefix, out, now);
+                out.println(prefix + "  static layer: rebuilt "
+                        + mRenderer.getStaticLayerRebuilds()
+                        + ", reused " + mRenderer.getStaticLayerReuses());
+                if (args != null && Arrays.asList(args).contains("reset")) {
+                    mProfiler.reset(now);
+                    out.println(prefix + "  (reset)");
+                }
             }
-
-            // Format the time.
-            String timeFormatted =
-                    TextFormatter.formatTwoDigitNumber(mTime.hour)
-                    + COLON
-                    + TextFormatter.formatTwoDigitNumber(mTime.minute);
-
-            /* Get initial positions based on size of the screen */
-            int xPos = (canvas.getWidth() / 2);
-            int yPos = (int) ((canvas.getHeight() / 2) - ((mTimePaint.descent() + mTimePaint.ascent()) / 2)) ;
-            yPos -= mLineHeight * 2;
-
-            /* Calculate the time and date x-pos */
-            int timeX = xPos - (int) (mTimePaint.measureText(timeFormatted) / 2);
-            int dateX = xPos - (int) (mDatePaint.measureText(mCurrentDate)) / 2;
-
-            // Draw the updated time
-            canvas.drawText(timeFormatted, timeX, yPos, mTimePaint);
-
-            // Draw the date
-            yPos += mItemSpacing - ((mDatePaint.descent() + mDatePaint.ascent()) / 2);
-            canvas.drawText(mCurrentDate, dateX, yPos, mDatePaint);
-
-            // Draw the separator
-            yPos += mItemSpacing;
-            int lineX = xPos - (int) ((3*mSeparatorWidth)/4);
-            canvas.drawLine(lineX, yPos, lineX + mTempPaint.measureText(mCurrentHigh), yPos, mSeparatorPaint);
-
-            // Draw the high-temp
-            yPos += mItemSpacing - ((mTempPaint.descent() + mTempPaint.ascent()) / 2);
-            canvas.drawText(mCurrentHigh, xPos - (int) (mTempPaint.measureText(mCurrentHigh) / 2), yPos + mSmallLineHeight, mTempPaint);
-
-            // Draw the low-temp
-            int xPosLowTemp = xPos + (int) (mSmallLineHeight);
-            canvas.drawText(mCurrentLow, xPosLowTemp + (int) (mTempLowPaint.measureText(mCurrentLow) / 2), yPos + mSmallLineHeight, mTempLowPaint);
-
-            // Draw the bitmap
-            int xPosBitmap = xPos - (int) (3*mLineHeight/4) - mWeatherIcon.getWidth();
-            canvas.drawBitmap(mWeatherIcon, xPosBitmap, (yPos) - mWeatherIcon.getHeight() / 2, null);
         }
 
         @Override
@@ -478,7 +374,8 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
             if (mMute != inMuteMode) {
                 mMute = inMuteMode;
                 int alpha = inMuteMode ? MUTE_ALPHA : NORMAL_ALPHA;
-                setAlphaStatus(alpha);
+                mRenderer.setAlpha(alpha);
+                mProfiler.recordInvalidate(WatchFaceProfiler.SOURCE_MUTE_CHANGED);
                 invalidate();
             }
         }
@@ -486,15 +383,19 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
+            mProfiler.setMode(visible, isInAmbientMode(), SystemClock.elapsedRealtime());
 
             if (visible) {
                 registerReceivers();
 
                 // Update time zone in case it changed while we weren't visible.
-                mTime.clear(TimeZone.getDefault().getID());
-                mTime.setToNow();
+                mCalendar.setTimeZone(TimeZone.getDefault());
             } else {
                 unregisterReceivers();
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Static layer rebuilt " + mRenderer.getStaticLayerRebuilds()
+                            + " times, reused " + mRenderer.getStaticLayerReuses() + " times");
+                }
             }
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -515,8 +416,8 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
             if(weatherIcon == -1){
                 weatherIcon = R.mipmap.art_clear;
             }
-            mWeatherIcon = BitmapFactory.decodeResource(getResources(), weatherIcon, options);
-            mWeatherIcon = Bitmap.createScaledBitmap(mWeatherIcon, mWeatherIconSize, mWeatherIconSize, false);
+            Bitmap icon = BitmapFactory.decodeResource(getResources(), weatherIcon, options);
+            mRenderer.setWeatherIcon(Bitmap.createScaledBitmap(icon, mWeatherIconSize, mWeatherIconSize, false));
         }
 
         /**
@@ -572,6 +473,8 @@ public class WeatherWatchFace extends CanvasWatchFaceService{
          * Handle updating the time periodically in interactive mode.
          */
         private void handleUpdateTimeMessage() {
+            mProfiler.recordTimerWakeup();
+            mProfiler.recordInvalidate(WatchFaceProfiler.SOURCE_UPDATE_TIME);
             invalidate();
             if (shouldTimerBeRunning()) {
                 long timeMs = System.currentTimeMillis();
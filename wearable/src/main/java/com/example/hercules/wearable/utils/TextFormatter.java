@@ -19,6 +19,15 @@ public class TextFormatter {
         return String.format("%02d", hour);
     }
 
+    /**
+     * Write a number from 0 to 99 as two digits into a buffer, without allocating, for the
+     * text that is drawn every frame.
+     */
+    public static void writeTwoDigitNumber(char[] buffer, int offset, int number) {
+        buffer[offset] = (char) ('0' + number / 10);
+        buffer[offset + 1] = (char) ('0' + number % 10);
+    }
+
     public static String formatDate(Date d){
         return SDF.format(d).toUpperCase();
     }